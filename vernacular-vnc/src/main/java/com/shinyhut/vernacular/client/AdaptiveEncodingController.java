@@ -0,0 +1,201 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.client.rendering.UpdateStatistics;
+import com.shinyhut.vernacular.protocol.messages.Encoding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.COMPRESS_LEVEL_0;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.COMPRESS_LEVEL_9;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.HEXTILE;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.QUALITY_LEVEL_0;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.QUALITY_LEVEL_9;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.TIGHT;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.compressLevel;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.qualityLevel;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Chooses the preferred encoding, compression level and JPEG quality from measurements of the screen updates we
+ * receive.
+ * <p>
+ * The network throughput is estimated from the bytes received for each large update and the time spent waiting for
+ * them (so that decoding time does not count against the network), and the latency from the fastest recent round
+ * trip. These pick one of a fixed ladder of levels, from Hextile on a fast local network to Tight with heavy
+ * compression and low JPEG quality on a slow link. When decoding takes longer than receiving the data, we never move
+ * to a level with more compression, since that would only cost more CPU. Changes are only made once several updates
+ * in a row agree and the previous change has had time to take effect, so the level does not oscillate.
+ * <p>
+ * The color depth is never changed: the renderers, and the zlib streams shared by the server and the Tight and ZRLE
+ * renderers, are tied to the pixel format for the life of the session.
+ */
+class AdaptiveEncodingController implements Consumer<UpdateStatistics> {
+
+    private static final Level[] LEVELS = {
+            new Level(HEXTILE, -1, -1, 50_000_000L),
+            new Level(TIGHT, 1, -1, 20_000_000L),
+            new Level(TIGHT, 6, -1, 6_000_000L),
+            new Level(TIGHT, 9, 8, 2_000_000L),
+            new Level(TIGHT, 9, 5, 500_000L),
+            new Level(TIGHT, 9, 2, 0L)
+    };
+
+    private static final long MIN_SAMPLE_BYTES = 16 * 1024;
+    private static final long LOCAL_NETWORK_ROUND_TRIP_NANOS = MILLISECONDS.toNanos(5);
+    private static final long MIN_CHANGE_INTERVAL_NANOS = SECONDS.toNanos(2);
+    private static final int SAMPLES_TO_CHANGE = 3;
+    private static final double SMOOTHING = 0.3;
+
+    private final Runnable levelChangeListener;
+    private final LongSupplier clock;
+
+    private final long[] roundTrips = new long[32];
+    private int roundTripCount;
+
+    private double bitsPerSecond = -1;
+    private double decodeFraction;
+
+    private volatile int level = -1;
+    private int candidate = -1;
+    private int candidateSamples;
+    private long lastChangeTime;
+
+    /**
+     * @param levelChangeListener Notified when the level changes, so that the new encodings can be sent to the server
+     */
+    AdaptiveEncodingController(Runnable levelChangeListener) {
+        this(levelChangeListener, System::nanoTime);
+    }
+
+    AdaptiveEncodingController(Runnable levelChangeListener, LongSupplier clock) {
+        this.levelChangeListener = levelChangeListener;
+        this.clock = clock;
+    }
+
+    @Override
+    public void accept(UpdateStatistics statistics) {
+        if (statistics.getRoundTripNanos() >= 0) {
+            roundTrips[roundTripCount++ % roundTrips.length] = statistics.getRoundTripNanos();
+        }
+
+        if (statistics.getBytes() < MIN_SAMPLE_BYTES || statistics.getNetworkNanos() <= 0) {
+            return;
+        }
+
+        double sampleBitsPerSecond = statistics.getBytes() * 8 * 1e9 / statistics.getNetworkNanos();
+        double sampleDecodeFraction = (double) statistics.getDecodeNanos()
+                / (statistics.getDecodeNanos() + statistics.getNetworkNanos());
+        if (bitsPerSecond < 0) {
+            bitsPerSecond = sampleBitsPerSecond;
+            decodeFraction = sampleDecodeFraction;
+        } else {
+            bitsPerSecond += SMOOTHING * (sampleBitsPerSecond - bitsPerSecond);
+            decodeFraction += SMOOTHING * (sampleDecodeFraction - decodeFraction);
+        }
+
+        int target = targetLevel();
+        if (target == level) {
+            candidateSamples = 0;
+            return;
+        }
+        if (target != candidate) {
+            candidate = target;
+            candidateSamples = 0;
+        }
+        long now = clock.getAsLong();
+        boolean settled = level < 0 || now - lastChangeTime >= MIN_CHANGE_INTERVAL_NANOS;
+        if (++candidateSamples >= SAMPLES_TO_CHANGE && settled) {
+            level = target;
+            lastChangeTime = now;
+            candidateSamples = 0;
+            levelChangeListener.run();
+        }
+    }
+
+    private int targetLevel() {
+        int target = 0;
+        while (bitsPerSecond < LEVELS[target].minBitsPerSecond) {
+            target++;
+        }
+        if (target == 0 && minRoundTrip() > LOCAL_NETWORK_ROUND_TRIP_NANOS) {
+            target = 1;
+        }
+        if (level >= 0 && target > level && decodeFraction > 0.5) {
+            target = level;
+        }
+        return target;
+    }
+
+    private long minRoundTrip() {
+        int count = Math.min(roundTripCount, roundTrips.length);
+        if (count == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Arrays.stream(roundTrips, 0, count).min().getAsLong();
+    }
+
+    /**
+     * @return The current level, from 0 (fast local network) to 5 (slowest link), or -1 if not enough updates have
+     * been measured to choose one yet
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * Adjusts a list of encodings for the current level, by moving the preferred encoding (if enabled) to the front and
+     * replacing any compression and quality levels with the ones for the current level
+     *
+     * @param encodings The encodings enabled in the configuration
+     * @return The encodings to send to the server
+     */
+    List<Encoding> apply(List<Encoding> encodings) {
+        int current = level;
+        if (current < 0) {
+            return encodings;
+        }
+        Level settings = LEVELS[current];
+        List<Encoding> adjusted = new ArrayList<>(encodings.size() + 2);
+        if (encodings.contains(settings.preferred)) {
+            adjusted.add(settings.preferred);
+        }
+        for (Encoding encoding : encodings) {
+            if (encoding != settings.preferred && !isLevel(encoding)) {
+                adjusted.add(encoding);
+            }
+        }
+        if (settings.compressLevel >= 0) {
+            adjusted.add(compressLevel(settings.compressLevel));
+        }
+        if (settings.jpegQuality >= 0) {
+            adjusted.add(qualityLevel(settings.jpegQuality));
+        }
+        return adjusted;
+    }
+
+    private static boolean isLevel(Encoding encoding) {
+        int code = encoding.getCode();
+        return (code >= COMPRESS_LEVEL_0.getCode() && code <= COMPRESS_LEVEL_9.getCode())
+                || (code >= QUALITY_LEVEL_0.getCode() && code <= QUALITY_LEVEL_9.getCode());
+    }
+
+    private static class Level {
+
+        private final Encoding preferred;
+        private final int compressLevel;
+        private final int jpegQuality;
+        private final long minBitsPerSecond;
+
+        private Level(Encoding preferred, int compressLevel, int jpegQuality, long minBitsPerSecond) {
+            this.preferred = preferred;
+            this.compressLevel = compressLevel;
+            this.jpegQuality = jpegQuality;
+            this.minBitsPerSecond = minBitsPerSecond;
+        }
+    }
+}
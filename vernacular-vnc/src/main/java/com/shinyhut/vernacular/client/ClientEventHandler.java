@@ -2,60 +2,113 @@ package com.shinyhut.vernacular.client;
 
 import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
 import com.shinyhut.vernacular.client.exceptions.VncException;
-import com.shinyhut.vernacular.protocol.messages.ClientCutText;
-import com.shinyhut.vernacular.protocol.messages.ClientCutTextCaps;
-import com.shinyhut.vernacular.protocol.messages.ClientCutTextExtendedClipboard;
+import com.shinyhut.vernacular.protocol.messages.EnableContinuousUpdates;
 import com.shinyhut.vernacular.protocol.messages.Encodable;
+import com.shinyhut.vernacular.protocol.messages.Encoding;
+import com.shinyhut.vernacular.protocol.messages.Fence;
 import com.shinyhut.vernacular.protocol.messages.FramebufferUpdateRequest;
 import com.shinyhut.vernacular.protocol.messages.KeyEvent;
-import com.shinyhut.vernacular.protocol.messages.PointerEvent;
+import com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags;
+import com.shinyhut.vernacular.protocol.messages.QemuExtendedKeyEvent;
+import com.shinyhut.vernacular.protocol.messages.ServerCutText;
+import com.shinyhut.vernacular.protocol.messages.SetEncodings;
+import com.shinyhut.vernacular.utils.KeySyms;
+import com.shinyhut.vernacular.utils.XtScancodes;
 
 import java.io.IOException;
+import java.io.Reader;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.TEXT;
 import static java.time.LocalDateTime.now;
+import static java.util.Collections.singletonMap;
 import static java.time.temporal.ChronoUnit.MILLIS;
-import static java.util.Collections.synchronizedList;
-import static java.util.stream.IntStream.range;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class ClientEventHandler {
 
     private final VncSession session;
     private final Consumer<VncException> errorHandler;
-    private final List<Boolean> buttons = synchronizedList(new ArrayList<>());
-    private final ReentrantLock outputLock = new ReentrantLock(true);
+    private final MessageWriter messageWriter;
+    private final PointerEventQueue pointerEvents;
+    private final ClipboardSync clipboard;
+    private ScheduledExecutorService pointerEventTimer;
+    private final FramebufferUpdateScheduler scheduler;
 
     private volatile boolean running;
     private Thread framebufferUpdateLoop;
 
-    private int mouseX;
-    private int mouseY;
+    private ScheduledExecutorService timer;
+    private final ReentrantLock requestLock = new ReentrantLock();
+    private boolean initialRequestSent;
+    private ScheduledFuture<?> scheduledRequest;
 
     private LocalDateTime lastFramebufferUpdateRequestTime;
 
-    ClientEventHandler(VncSession session, Consumer<VncException> errorHandler) {
+    private boolean continuousUpdatesSupported;
+    private volatile int continuousUpdatesWidth;
+    private volatile int continuousUpdatesHeight;
+
+    ClientEventHandler(VncSession session, FramebufferUpdateScheduler scheduler,
+                       Consumer<VncException> errorHandler) {
         this.session = session;
+        this.scheduler = scheduler;
         this.errorHandler = errorHandler;
-        range(0, 8).forEach(i -> buttons.add(false));
+        this.messageWriter = new MessageWriter(session.getOutputStream());
+        int maxPointerEventsPerSecond = session.getConfig().getMaxPointerEventsPerSecond();
+        long pointerEventInterval = maxPointerEventsPerSecond > 0 ? SECONDS.toNanos(1) / maxPointerEventsPerSecond : 0L;
+        this.pointerEvents = new PointerEventQueue(pointerEventInterval, messageWriter,
+                this::schedulePointerEventFlush, System::nanoTime);
+        this.clipboard = new ClipboardSync(session.getConfig(), new ClipboardSync.Sender() {
+            @Override
+            public boolean queue(Encodable message) throws IOException {
+                return queueMessage(message);
+            }
+
+            @Override
+            public void drain() throws IOException {
+                messageWriter.drain();
+            }
+        });
     }
 
     void start() {
         running = true;
 
-        framebufferUpdateLoop = new Thread(() -> {
+        framebufferUpdateLoop = session.getConfig().getThreadFactory().newThread(() -> {
             try {
                 boolean incremental = false;
                 while (running) {
-                    if (timeForFramebufferUpdate()) {
-                        requestFramebufferUpdate(incremental);
+                    if (session.isContinuousUpdatesActive()) {
+                        long generation = session.getFramebufferUpdateGeneration();
+                        updateContinuousUpdatesArea();
+                        incremental = true;
+                        session.waitForFramebufferUpdate(generation);
+                    } else if (!incremental) {
+                        requestFramebufferUpdate(false);
                         incremental = true;
-                        session.waitForFramebufferUpdate();
                     } else {
-                        waitUntilFramebufferUpdateTime();
+                        session.waitForFramebufferUpdatesInFlightBelow(scheduler.window(updateIntervalNanos()));
+                        if (session.isContinuousUpdatesActive()) {
+                            continue;
+                        }
+                        if (timeForFramebufferUpdate()) {
+                            requestFramebufferUpdate(true);
+                        } else {
+                            waitUntilFramebufferUpdateTime();
+                        }
                     }
                 }
             } catch (IOException e) {
@@ -68,11 +121,87 @@ public class ClientEventHandler {
             }
         });
 
+        framebufferUpdateLoop.setName("vernacular-framebuffer-updates");
         framebufferUpdateLoop.start();
     }
 
+    /**
+     * Starts requesting framebuffer updates without a thread of our own. Instead of a loop which waits for updates,
+     * {@link #requestFramebufferUpdates()} must be called after each message from the server has been handled, and the
+     * timer is used to send any request which has to wait for the target frame rate.
+     *
+     * @param timer Timer shared with other sessions
+     */
+    void start(ScheduledExecutorService timer) throws IOException {
+        this.timer = timer;
+        running = true;
+        requestFramebufferUpdates();
+    }
+
+    /**
+     * Sends as many framebuffer update requests as the window allows now, and schedules the next one if it is not yet
+     * time to send it. Only used when started with a timer.
+     */
+    void requestFramebufferUpdates() throws IOException {
+        if (!running) {
+            return;
+        }
+        requestLock.lock();
+        try {
+            if (session.isContinuousUpdatesActive()) {
+                updateContinuousUpdatesArea();
+            } else if (!initialRequestSent) {
+                requestFramebufferUpdate(false);
+                initialRequestSent = true;
+            } else {
+                while (session.getFramebufferUpdatesInFlight() < scheduler.window(updateIntervalNanos())) {
+                    if (!timeForFramebufferUpdate()) {
+                        if (scheduledRequest == null) {
+                            long delay = Math.max(1L, millisUntilFramebufferUpdateTime());
+                            scheduledRequest = timer.schedule(this::sendScheduledRequest, delay, MILLISECONDS);
+                        }
+                        break;
+                    }
+                    requestFramebufferUpdate(true);
+                }
+            }
+        } finally {
+            requestLock.unlock();
+        }
+    }
+
+    private void sendScheduledRequest() {
+        requestLock.lock();
+        try {
+            scheduledRequest = null;
+        } finally {
+            requestLock.unlock();
+        }
+        try {
+            requestFramebufferUpdates();
+        } catch (IOException e) {
+            if (running) {
+                errorHandler.accept(new UnexpectedVncException(e));
+            }
+        }
+    }
+
     void stop() {
         running = false;
+        synchronized (this) {
+            if (pointerEventTimer != null) {
+                pointerEventTimer.shutdownNow();
+            }
+        }
+        requestLock.lock();
+        try {
+            if (scheduledRequest != null) {
+                scheduledRequest.cancel(false);
+                scheduledRequest = null;
+            }
+        } finally {
+            requestLock.unlock();
+        }
         try {
             if (framebufferUpdateLoop != null) {
                 framebufferUpdateLoop.interrupt();
@@ -83,14 +212,11 @@ public class ClientEventHandler {
     }
 
     void updateMouseButton(int button, boolean pressed) throws IOException {
-        buttons.set(button - 1, pressed);
-        updateMouseStatus();
+        pointerEvents.updateMouseButton(button, pressed);
     }
 
     void moveMouse(int mouseX, int mouseY) throws IOException {
-        this.mouseX = mouseX;
-        this.mouseY = mouseY;
-        updateMouseStatus();
+        pointerEvents.moveMouse(mouseX, mouseY);
     }
 
     void updateKey(int keySym, boolean pressed) throws IOException {
@@ -98,26 +224,122 @@ public class ClientEventHandler {
         sendMessage(message);
     }
 
-    void sendClientCutTextCaps() throws IOException {
-        ClientCutTextCaps clientCutTextCaps = new ClientCutTextCaps(session.getConfig().getMaxSizePerFormat());
-        sendMessage(clientCutTextCaps);
+    /**
+     * Sends a key event with the scancode of the key if the server accepts scancodes, or just the KeySym otherwise
+     */
+    void updateKey(int keySym, int scancode, boolean pressed) throws IOException {
+        if (scancode != XtScancodes.NONE && session.isExtendedKeyEventsSupported()) {
+            sendMessage(new QemuExtendedKeyEvent(keySym, scancode, pressed));
+        } else if (keySym != KeySyms.NO_SYMBOL) {
+            updateKey(keySym, pressed);
+        }
+    }
+
+    long type(Reader text, long keyIntervalNanos, LongConsumer progressListener)
+            throws IOException, InterruptedException {
+        TextTyper typer = new TextTyper((data, length) -> {
+            pointerEvents.flush();
+            messageWriter.send(data, length);
+        }, session.getConfig().isPressShiftWhenTyping(), keyIntervalNanos, progressListener);
+        return typer.type(text);
+    }
+
+    void updateEncodings(List<Encoding> encodings) throws IOException {
+        SetEncodings message = new SetEncodings(encodings);
+        sendMessage(message);
+    }
+
+    /**
+     * Handles an EndOfContinuousUpdates message from the server. The first one tells us that the server supports
+     * continuous updates, so we enable them; any later one means the server has stopped sending them, so we go back to
+     * requesting updates.
+     */
+    void endOfContinuousUpdates() throws IOException {
+        if (!continuousUpdatesSupported) {
+            continuousUpdatesSupported = true;
+            enableContinuousUpdates(session.getFramebufferWidth(), session.getFramebufferHeight());
+        } else if (session.isContinuousUpdatesActive()) {
+            session.setContinuousUpdatesActive(false);
+        }
+    }
+
+    void respondToFence(Fence fence) throws IOException {
+        if (fence.isRequest()) {
+            sendMessage(fence.response());
+        }
     }
 
     void copyText(String text) throws IOException {
-        if (session.getConfig().isEnableExtendedClipboard()) {
-            sendClientCutTextCaps();
+        copyClipboard(singletonMap(TEXT, text));
+    }
+
+    void copyClipboard(Map<MessageHeaderFlags, String> formats) throws IOException {
+        clipboard.copy(formats);
+    }
+
+    void requestRemoteClipboard(Set<MessageHeaderFlags> formats) throws IOException {
+        clipboard.request(formats);
+    }
+
+    void clipboardReceived(ServerCutText message) throws IOException {
+        clipboard.received(message);
+    }
 
-            ClientCutTextExtendedClipboard clientCutTextExtendedClipboard = new ClientCutTextExtendedClipboard(text);
-            sendMessage(clientCutTextExtendedClipboard);
-        } else {
-            ClientCutText message = new ClientCutText(text);
-            sendMessage(message);
+    /**
+     * Sends queued pointer events after a delay, on the shared timer if we have one, or otherwise on a timer of our own
+     * which is only created if the pointer event rate is limited
+     */
+    private void schedulePointerEventFlush(long delayNanos) {
+        ScheduledExecutorService flushTimer = timer;
+        if (flushTimer == null) {
+            synchronized (this) {
+                if (!running) {
+                    return;
+                }
+                if (pointerEventTimer == null) {
+                    pointerEventTimer = Executors.newSingleThreadScheduledExecutor(task -> {
+                        Thread thread = session.getConfig().getThreadFactory().newThread(task);
+                        thread.setName("vernacular-pointer-events");
+                        return thread;
+                    });
+                }
+                flushTimer = pointerEventTimer;
+            }
+        }
+        try {
+            flushTimer.schedule(this::flushPointerEvents, delayNanos, NANOSECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // We have been stopped
         }
     }
 
-    private void updateMouseStatus() throws IOException {
-        PointerEvent message = new PointerEvent(mouseX, mouseY, buttons);
-        sendMessage(message);
+    private void flushPointerEvents() {
+        try {
+            pointerEvents.flush();
+        } catch (IOException e) {
+            if (running) {
+                errorHandler.accept(new UnexpectedVncException(e));
+            }
+        }
+    }
+
+    private void enableContinuousUpdates(int width, int height) throws IOException {
+        continuousUpdatesWidth = width;
+        continuousUpdatesHeight = height;
+        sendMessage(new EnableContinuousUpdates(true, 0, 0, width, height));
+        session.setContinuousUpdatesActive(true);
+    }
+
+    private void updateContinuousUpdatesArea() throws IOException {
+        int width = session.getFramebufferWidth();
+        int height = session.getFramebufferHeight();
+        if (width != continuousUpdatesWidth || height != continuousUpdatesHeight) {
+            enableContinuousUpdates(width, height);
+        }
+    }
+
+    private long updateIntervalNanos() {
+        return MILLISECONDS.toNanos(1000 / session.getConfig().getTargetFramesPerSecond());
     }
 
     private boolean timeForFramebufferUpdate() {
@@ -127,28 +349,43 @@ public class ClientEventHandler {
     }
 
     private void waitUntilFramebufferUpdateTime() throws InterruptedException {
-        long updateInterval = 1000 / session.getConfig().getTargetFramesPerSecond();
-        LocalDateTime nextUpdate = lastFramebufferUpdateRequestTime.plus(updateInterval, MILLIS);
-        long timeToWait = now().until(nextUpdate, MILLIS);
+        long timeToWait = millisUntilFramebufferUpdateTime();
         if (timeToWait > 0L) {
             Thread.sleep(timeToWait);
         }
     }
 
+    private long millisUntilFramebufferUpdateTime() {
+        long updateInterval = 1000 / session.getConfig().getTargetFramesPerSecond();
+        LocalDateTime nextUpdate = lastFramebufferUpdateRequestTime.plus(updateInterval, MILLIS);
+        return now().until(nextUpdate, MILLIS);
+    }
+
     private void requestFramebufferUpdate(boolean incremental) throws IOException {
         int width = session.getFramebufferWidth();
         int height = session.getFramebufferHeight();
         FramebufferUpdateRequest updateRequest = new FramebufferUpdateRequest(incremental, 0, 0, width, height);
+        session.framebufferUpdateRequested();
         sendMessage(updateRequest);
         lastFramebufferUpdateRequestTime = now();
     }
 
     private void sendMessage(Encodable message) throws IOException {
-        outputLock.lock();
-        try {
-            message.encode(session.getOutputStream());
-        } finally {
-            outputLock.unlock();
+        if (queueMessage(message)) {
+            messageWriter.drain();
+        }
+    }
+
+    /**
+     * Queues a message behind any pending pointer events, without blocking
+     *
+     * @return true if the message writer must be drained to send it
+     */
+    private boolean queueMessage(Encodable message) throws IOException {
+        boolean drain = pointerEvents.queueBatch();
+        if (messageWriter.queue(message)) {
+            drain = true;
         }
+        return drain;
     }
 }
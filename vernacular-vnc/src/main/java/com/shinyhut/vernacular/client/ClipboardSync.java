@@ -0,0 +1,301 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.protocol.messages.ClientCutText;
+import com.shinyhut.vernacular.protocol.messages.ClientCutTextCaps;
+import com.shinyhut.vernacular.protocol.messages.ClientCutTextExtendedAction;
+import com.shinyhut.vernacular.protocol.messages.ClientCutTextExtendedClipboard;
+import com.shinyhut.vernacular.protocol.messages.Encodable;
+import com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags;
+import com.shinyhut.vernacular.protocol.messages.ServerCutText;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.CAPS;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.HTML;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.NOTIFY;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.PEEK;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.PROVIDE;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.REQUEST;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.RTF;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.TEXT;
+
+/**
+ * Keeps the clipboards of the client and the server in step, for a single session.
+ * <p>
+ * Hashes of the content last copied locally and of the content last received from the server are kept, so content
+ * is only offered to the server when the local clipboard has really changed. Applications which poll the local
+ * clipboard can therefore pass its content on every poll. This also stops content received from the server from being
+ * sent straight back when the application puts it on the local clipboard. When the server announces that its
+ * clipboard has changed, the local clipboard still holds what was last copied until the server's content arrives, so
+ * that content is not offered again: doing so would take ownership of the clipboard back from the server.
+ * <p>
+ * Once the server has sent its capabilities, the extended clipboard is used. If the server accepts notifications,
+ * copying only tells the server which formats are available, and the content is kept until the server asks for it,
+ * which it does when something is pasted on the remote desktop. In the same way, when the server announces that its
+ * clipboard has changed, the content is only requested if a listener wants it.
+ */
+class ClipboardSync {
+
+    interface Sender {
+
+        /**
+         * Queues a message without blocking
+         *
+         * @return true if {@link #drain()} must be called to send it
+         */
+        boolean queue(Encodable message) throws IOException;
+
+        /**
+         * Sends everything queued
+         */
+        void drain() throws IOException;
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final VernacularConfig config;
+    private final Sender sender;
+
+    // Only one message is encoded at a time, by whichever thread is sending queued messages
+    private final Deflater deflater = new Deflater();
+
+    private boolean extended;
+    private int serverFlags;
+    private Map<MessageHeaderFlags, Integer> serverMaxSizes = Collections.emptyMap();
+
+    private Map<MessageHeaderFlags, String> local = Collections.emptyMap();
+
+    // Only one of these is set at a time: whichever side changed the clipboard last
+    private boolean copied;
+    private long copiedHash;
+    private boolean received;
+    private long receivedHash;
+
+    // Messages are queued while holding the lock, to keep them in order, but sent after releasing it
+    private boolean drainPending;
+
+    ClipboardSync(VernacularConfig config, Sender sender) {
+        this.config = config;
+        this.sender = sender;
+    }
+
+    /**
+     * Copies content to the server's clipboard, unless the server already has it
+     */
+    void copy(Map<MessageHeaderFlags, String> formats) throws IOException {
+        synchronized (this) {
+            queueCopy(formats);
+        }
+        drainQueued();
+    }
+
+    private void queueCopy(Map<MessageHeaderFlags, String> formats) throws IOException {
+        long hash = hash(formats);
+        if ((copied && hash == copiedHash) || (received && hash == receivedHash)) {
+            return;
+        }
+        copied = true;
+        copiedHash = hash;
+        received = false;
+        if (!extended) {
+            String text = formats.get(TEXT);
+            if (text != null) {
+                queue(new ClientCutText(text));
+            }
+            return;
+        }
+        local = new EnumMap<>(MessageHeaderFlags.class);
+        local.putAll(formats);
+        if (serverSupports(NOTIFY)) {
+            queue(new ClientCutTextExtendedAction(NOTIFY, available()));
+        } else if (serverSupports(PROVIDE)) {
+            provide(local.keySet());
+        }
+    }
+
+    /**
+     * Asks the server for the content of its clipboard, which is passed to the listeners when it arrives
+     */
+    void request(Set<MessageHeaderFlags> formats) throws IOException {
+        synchronized (this) {
+            if (extended && serverSupports(REQUEST)) {
+                queue(new ClientCutTextExtendedAction(REQUEST, formats));
+            }
+        }
+        drainQueued();
+    }
+
+    /**
+     * Handles a ServerCutText message
+     */
+    void received(ServerCutText message) throws IOException {
+        Map<MessageHeaderFlags, String> content = null;
+        Set<MessageHeaderFlags> available = null;
+        synchronized (this) {
+            if (message.hasFlag(CAPS)) {
+                // The action flags of a CAPS message are the actions the server supports
+                extended = true;
+                serverFlags = message.getFlags();
+                serverMaxSizes = message.getMaxSizes();
+                queue(new ClientCutTextCaps(acceptedSizes()));
+            } else if (message.getFlags() == 0 || message.hasFlag(PROVIDE)) {
+                content = message.getFormats();
+            } else if (message.hasFlag(REQUEST)) {
+                provide(MessageHeaderFlags.formats(message.getFlags()));
+            } else if (message.hasFlag(PEEK)) {
+                queue(new ClientCutTextExtendedAction(NOTIFY, available()));
+            } else if (message.hasFlag(NOTIFY)) {
+                available = MessageHeaderFlags.formats(message.getFlags());
+            }
+        }
+        drainQueued();
+
+        if (available != null) {
+            remoteClipboardChanged(available);
+        }
+        if (content != null && !content.isEmpty()) {
+            synchronized (this) {
+                long hash = hash(content);
+                if ((received && hash == receivedHash) || (copied && hash == copiedHash)) {
+                    return;
+                }
+                received = true;
+                receivedHash = hash;
+                copied = false;
+            }
+            remoteClipboardReceived(content);
+        }
+    }
+
+    private void remoteClipboardChanged(Set<MessageHeaderFlags> available) throws IOException {
+        Set<MessageHeaderFlags> wanted = EnumSet.noneOf(MessageHeaderFlags.class);
+        VernacularConfig.ClipboardListener listener = config.getClipboardListener();
+        if (listener != null) {
+            wanted.addAll(listener.remoteClipboardChanged(Collections.unmodifiableSet(available)));
+        }
+        if (config.getRemoteClipboardListener() != null && available.contains(TEXT)) {
+            wanted.add(TEXT);
+        }
+        wanted.retainAll(available);
+        if (!wanted.isEmpty()) {
+            request(wanted);
+        }
+    }
+
+    private void remoteClipboardReceived(Map<MessageHeaderFlags, String> content) {
+        VernacularConfig.ClipboardListener listener = config.getClipboardListener();
+        if (listener != null) {
+            listener.remoteClipboardReceived(content);
+        }
+        Consumer<String> textListener = config.getRemoteClipboardListener();
+        String text = content.get(TEXT);
+        if (textListener != null && text != null && !text.isEmpty()) {
+            textListener.accept(text);
+        }
+    }
+
+    private void provide(Set<MessageHeaderFlags> requested) throws IOException {
+        Map<MessageHeaderFlags, String> provided = new EnumMap<>(MessageHeaderFlags.class);
+        for (MessageHeaderFlags format : requested) {
+            String value = local.get(format);
+            Integer maxSize = serverMaxSizes.get(format);
+            if (value != null && maxSize != null && utf8Length(value) + 1 <= (maxSize & 0xffffffffL)) {
+                provided.put(format, value);
+            }
+        }
+        queue(new ClientCutTextExtendedClipboard(provided, deflater));
+    }
+
+    private void queue(Encodable message) throws IOException {
+        if (sender.queue(message)) {
+            drainPending = true;
+        }
+    }
+
+    /**
+     * Sends the messages queued while holding the lock, if nobody else is already sending them
+     */
+    private void drainQueued() throws IOException {
+        boolean drain;
+        synchronized (this) {
+            drain = drainPending;
+            drainPending = false;
+        }
+        if (drain) {
+            sender.drain();
+        }
+    }
+
+    private Set<MessageHeaderFlags> available() {
+        Set<MessageHeaderFlags> available = EnumSet.noneOf(MessageHeaderFlags.class);
+        for (MessageHeaderFlags format : local.keySet()) {
+            if (serverMaxSizes.containsKey(format)) {
+                available.add(format);
+            }
+        }
+        return available;
+    }
+
+    private boolean serverSupports(MessageHeaderFlags action) {
+        return (serverFlags & action.getCode()) != 0;
+    }
+
+    private Map<MessageHeaderFlags, Integer> acceptedSizes() {
+        Map<MessageHeaderFlags, Integer> sizes = config.getMaxSizePerFormat();
+        if (!sizes.isEmpty()) {
+            return sizes;
+        }
+        Map<MessageHeaderFlags, Integer> defaults = new EnumMap<>(MessageHeaderFlags.class);
+        defaults.put(TEXT, ServerCutText.DEFAULT_MAX_SIZE);
+        defaults.put(RTF, ServerCutText.DEFAULT_MAX_SIZE);
+        defaults.put(HTML, ServerCutText.DEFAULT_MAX_SIZE);
+        return defaults;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the content in each format
+     */
+    static long hash(Map<MessageHeaderFlags, String> formats) {
+        long hash = FNV_OFFSET_BASIS;
+        for (MessageHeaderFlags format : MessageHeaderFlags.values()) {
+            String value = formats.get(format);
+            if (value == null) {
+                continue;
+            }
+            hash = (hash ^ format.ordinal()) * FNV_PRIME;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+                hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+            }
+            hash = (hash ^ value.length()) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long utf8Length(String value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
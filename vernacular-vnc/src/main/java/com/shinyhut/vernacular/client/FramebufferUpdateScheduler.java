@@ -0,0 +1,57 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.client.rendering.UpdateStatistics;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Decides how many framebuffer update requests we keep in flight at once.
+ * <p>
+ * With a single outstanding request, a new frame can only be requested once the previous one has arrived, so on a
+ * long link we spend most of our time waiting for the network. Keeping several incremental requests in flight hides
+ * this latency. The window only needs to cover one round trip's worth of frames at the target frame rate, so it is
+ * sized from the fastest recent round trip, up to the configured maximum. If we take longer to decode an update than
+ * the interval between frames, more requests would just queue up updates we cannot keep up with, so the window drops
+ * to a single request until we catch up.
+ */
+class FramebufferUpdateScheduler implements Consumer<UpdateStatistics> {
+
+    private final int maxInFlight;
+
+    private final long[] roundTrips = new long[16];
+    private int roundTripCount;
+
+    private volatile long roundTripNanos = -1L;
+    private volatile long decodeNanos;
+
+    FramebufferUpdateScheduler(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public void accept(UpdateStatistics statistics) {
+        if (statistics.getRoundTripNanos() >= 0) {
+            roundTrips[roundTripCount++ % roundTrips.length] = statistics.getRoundTripNanos();
+            int count = Math.min(roundTripCount, roundTrips.length);
+            roundTripNanos = Arrays.stream(roundTrips, 0, count).min().getAsLong();
+        }
+        decodeNanos = statistics.getDecodeNanos();
+    }
+
+    /**
+     * @param updateIntervalNanos The interval between frames at the target frame rate
+     * @return The number of requests to keep in flight
+     */
+    int window(long updateIntervalNanos) {
+        if (maxInFlight <= 1 || decodeNanos > updateIntervalNanos) {
+            return 1;
+        }
+        long roundTrip = roundTripNanos;
+        if (roundTrip < 0 || updateIntervalNanos <= 0) {
+            return maxInFlight;
+        }
+        long needed = 1 + (roundTrip + updateIntervalNanos - 1) / updateIntervalNanos;
+        return (int) Math.min(maxInFlight, needed);
+    }
+}
@@ -0,0 +1,118 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.protocol.messages.Encodable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends messages to the server from any number of threads, without making them take turns to write.
+ * <p>
+ * Messages are added to a lock-free queue. Whichever thread finds nobody else writing becomes the writer: it encodes
+ * everything queued into a reusable buffer and sends it with a single write, and keeps going until the queue is empty.
+ * Threads which send while it is writing just queue their message and return, and their message goes out with the next
+ * batch. Messages are always sent in the order they were queued.
+ */
+class MessageWriter implements PointerEventQueue.Writer {
+
+    /**
+     * Buffers which grow beyond this size (to send a large clipboard, for example) are not kept for reuse
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private final OutputStream out;
+    private final Queue<Encodable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+    private volatile IOException failure;
+
+    MessageWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Queues a message, and sends it unless another thread is already sending and will send it for us
+     *
+     * @throws IOException if this thread sent the batch and writing it failed, or an earlier write failed
+     */
+    void send(Encodable message) throws IOException {
+        if (queue(message)) {
+            drain();
+        }
+    }
+
+    /**
+     * Queues raw bytes, which are copied, as a message
+     */
+    void send(byte[] data, int length) throws IOException {
+        if (queue(data, length)) {
+            drain();
+        }
+    }
+
+    /**
+     * Queues raw bytes, which are copied, as a message, without sending anything. This never blocks, so it can be
+     * called while holding a lock to keep messages in order, with {@link #drain()} called once the lock is released.
+     *
+     * @return true if nobody else is sending, so the caller must call {@link #drain()}
+     * @throws IOException if an earlier write failed
+     */
+    @Override
+    public boolean queue(byte[] data, int length) throws IOException {
+        byte[] copy = new byte[length];
+        System.arraycopy(data, 0, copy, 0, length);
+        return queue(o -> o.write(copy));
+    }
+
+    /**
+     * Queues a message without sending anything, as {@link #queue(byte[], int)} does
+     *
+     * @return true if nobody else is sending, so the caller must call {@link #drain()}
+     * @throws IOException if an earlier write failed
+     */
+    boolean queue(Encodable message) throws IOException {
+        IOException earlier = failure;
+        if (earlier != null) {
+            throw earlier;
+        }
+        queue.add(message);
+        return pending.getAndIncrement() == 0;
+    }
+
+    /**
+     * Sends everything queued, including messages queued by other threads while we are writing
+     */
+    @Override
+    public void drain() throws IOException {
+        int missed = 1;
+        try {
+            while (true) {
+                Encodable message;
+                while ((message = queue.poll()) != null) {
+                    message.encode(buffer);
+                }
+                if (buffer.size() > 0) {
+                    buffer.writeTo(out);
+                    out.flush();
+                    if (buffer.size() > MAX_RETAINED_BUFFER) {
+                        buffer = new ByteArrayOutputStream(1024);
+                    } else {
+                        buffer.reset();
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.protocol.messages.PointerEvent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Queues pointer events on their way to the server, so that a flood of mouse movements does not flood the connection.
+ * <p>
+ * A movement replaces the movement queued just before it, as long as no button has changed in between, so only the
+ * latest position is sent. Button presses and releases are never merged or reordered: each is sent at the position it
+ * happened, after everything queued before it. Queued events are sent in a single write, at most once per minimum
+ * interval. When an event arrives before the interval is up, a flush is scheduled for the end of the interval.
+ */
+class PointerEventQueue {
+
+    interface Writer {
+
+        /**
+         * Queues a batch of encoded events without blocking
+         *
+         * @return true if {@link #drain()} must be called to send it
+         */
+        boolean queue(byte[] data, int length) throws IOException;
+
+        /**
+         * Sends everything queued
+         */
+        void drain() throws IOException;
+    }
+
+    private final long minIntervalNanos;
+    private final Writer writer;
+    private final LongConsumer flushScheduler;
+    private final LongSupplier clock;
+
+    private final List<PointerEvent> queued = new ArrayList<>();
+    private boolean lastIsMovement;
+    private boolean flushScheduled;
+    private long nextFlushTime;
+    private int buttonMask;
+    private int x;
+    private int y;
+
+    private byte[] batch = new byte[PointerEvent.SIZE * 4];
+
+    /**
+     * @param minIntervalNanos The minimum time between writes, or 0 to write every event as soon as possible
+     * @param writer           Sends batches of encoded events to the server
+     * @param flushScheduler   Arranges for {@link #flush()} to be called after the specified number of nanoseconds
+     * @param clock            Source of the current time, in nanoseconds
+     */
+    PointerEventQueue(long minIntervalNanos, Writer writer, LongConsumer flushScheduler, LongSupplier clock) {
+        this.minIntervalNanos = minIntervalNanos;
+        this.writer = writer;
+        this.flushScheduler = flushScheduler;
+        this.clock = clock;
+    }
+
+    void moveMouse(int x, int y) throws IOException {
+        synchronized (this) {
+            this.x = x;
+            this.y = y;
+            PointerEvent event = new PointerEvent(x, y, buttonMask);
+            if (lastIsMovement) {
+                queued.set(queued.size() - 1, event);
+            } else {
+                queued.add(event);
+                lastIsMovement = true;
+            }
+        }
+        flushIfDue();
+    }
+
+    void updateMouseButton(int button, boolean pressed) throws IOException {
+        if (button < 1 || button > 8) {
+            throw new IllegalArgumentException("Mouse button must be between 1 and 8: " + button);
+        }
+        synchronized (this) {
+            int mask = pressed ? buttonMask | (1 << (button - 1)) : buttonMask & ~(1 << (button - 1));
+            if (mask == buttonMask) {
+                return;
+            }
+            buttonMask = mask;
+            queued.add(new PointerEvent(x, y, buttonMask));
+            lastIsMovement = false;
+        }
+        flushIfDue();
+    }
+
+    /**
+     * Writes every queued event now. This must be called before any other message is sent to the server, so that
+     * pointer events are never overtaken by messages sent after them. Batches are queued with the writer in the order
+     * they were taken from the queue, but written after the lock is released, so no thread blocks on the network
+     * while holding it.
+     */
+    void flush() throws IOException {
+        if (queueBatch()) {
+            writer.drain();
+        }
+    }
+
+    /**
+     * Hands every queued event to the writer as a single batch, without writing it. This never blocks, so it can be
+     * called while holding another lock, ahead of queueing a message which must not overtake the events.
+     *
+     * @return true if {@link Writer#drain()} must be called to send the batch
+     */
+    synchronized boolean queueBatch() throws IOException {
+        flushScheduled = false;
+        if (queued.isEmpty()) {
+            return false;
+        }
+        int length = queued.size() * PointerEvent.SIZE;
+        if (batch.length < length) {
+            batch = new byte[Math.max(length, batch.length * 2)];
+        }
+        for (int i = 0; i < queued.size(); i++) {
+            queued.get(i).encode(batch, i * PointerEvent.SIZE);
+        }
+        queued.clear();
+        lastIsMovement = false;
+        nextFlushTime = clock.getAsLong() + minIntervalNanos;
+        return writer.queue(batch, length);
+    }
+
+    private void flushIfDue() throws IOException {
+        long delay;
+        synchronized (this) {
+            if (flushScheduled) {
+                return;
+            }
+            delay = minIntervalNanos > 0 ? nextFlushTime - clock.getAsLong() : 0L;
+            if (delay > 0) {
+                flushScheduled = true;
+            }
+        }
+        if (delay > 0) {
+            flushScheduler.accept(delay);
+        } else {
+            flush();
+        }
+    }
+}
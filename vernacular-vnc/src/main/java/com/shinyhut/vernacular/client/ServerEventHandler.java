@@ -5,66 +5,51 @@ import com.shinyhut.vernacular.client.exceptions.UnknownMessageTypeException;
 import com.shinyhut.vernacular.client.exceptions.VncException;
 import com.shinyhut.vernacular.client.rendering.Framebuffer;
 import com.shinyhut.vernacular.protocol.messages.Bell;
+import com.shinyhut.vernacular.protocol.messages.EndOfContinuousUpdates;
+import com.shinyhut.vernacular.protocol.messages.Fence;
 import com.shinyhut.vernacular.protocol.messages.FramebufferUpdate;
 import com.shinyhut.vernacular.protocol.messages.ServerCutText;
 import com.shinyhut.vernacular.protocol.messages.SetColorMapEntries;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PushbackInputStream;
 import java.util.function.Consumer;
+import java.util.zip.Inflater;
 
 public class ServerEventHandler {
 
     private final VncSession session;
+    private final ClientEventHandler clientEventHandler;
     private final Consumer<VncException> errorHandler;
     private final Framebuffer framebuffer;
 
+    // Only used by the thread handling server messages. It is freed by its cleaner once the handler is discarded.
+    private final Inflater clipboardInflater = new Inflater();
+
     private volatile boolean running;
     private Thread eventLoop;
 
-    ServerEventHandler(VncSession session, Consumer<VncException> errorHandler) {
+    ServerEventHandler(VncSession session, ClientEventHandler clientEventHandler,
+                       Consumer<VncException> errorHandler) throws VncException {
         this.session = session;
+        this.clientEventHandler = clientEventHandler;
         this.errorHandler = errorHandler;
         this.framebuffer = new Framebuffer(session);
     }
 
     void start() {
-        PushbackInputStream in = new PushbackInputStream(session.getInputStream());
+        InputStream in = session.getInputStream().markSupported()
+                ? session.getInputStream()
+                : new PushbackInputStream(session.getInputStream());
 
         running = true;
 
-        eventLoop = new Thread(() -> {
+        eventLoop = session.getConfig().getThreadFactory().newThread(() -> {
             try {
                 int messageType;
-                while (running && ((messageType = in.read()) != -1)) {
-                    in.unread(messageType);
-
-                    switch (messageType) {
-                        case 0x00:
-                            FramebufferUpdate framebufferUpdate = FramebufferUpdate.decode(in);
-                            framebuffer.processUpdate(framebufferUpdate);
-                            break;
-                        case 0x01:
-                            SetColorMapEntries setColorMapEntries = SetColorMapEntries.decode(in);
-                            framebuffer.updateColorMap(setColorMapEntries);
-                            break;
-                        case 0x02:
-                            Bell.decode(in);
-                            Consumer<Void> bellListener = session.getConfig().getBellListener();
-                            if (bellListener != null) {
-                                bellListener.accept(null);
-                            }
-                            break;
-                        case 0x03:
-                            ServerCutText cutText = ServerCutText.decode(in);
-                            Consumer<String> cutTextListener = session.getConfig().getRemoteClipboardListener();
-                            if (cutTextListener != null && !cutText.getText().isEmpty()) {
-                                cutTextListener.accept(cutText.getText());
-                            }
-                            break;
-                        default:
-                            throw new UnknownMessageTypeException(messageType);
-                    }
+                while (running && ((messageType = peek(in)) != -1)) {
+                    handleMessage(messageType, in, -1L, -1L);
                 }
             } catch (IOException e) {
                 if (running) {
@@ -79,9 +64,72 @@ public class ServerEventHandler {
             }
         });
 
+        eventLoop.setName("vernacular-server-events");
         eventLoop.start();
     }
 
+    /**
+     * Decodes and handles a single message from the server
+     *
+     * @param messageType  The type of the message, which has not been consumed from the input yet
+     * @param in           Input to read the message from
+     * @param bytes        For a message which has already been received in full, its length, otherwise -1
+     * @param networkNanos For a message which has already been received in full, the time taken to receive it
+     */
+    void handleMessage(int messageType, InputStream in, long bytes, long networkNanos)
+            throws IOException, VncException {
+        switch (messageType) {
+            case 0x00:
+                FramebufferUpdate framebufferUpdate = FramebufferUpdate.decode(in);
+                if (bytes < 0) {
+                    framebuffer.processUpdate(framebufferUpdate);
+                } else {
+                    framebuffer.processUpdate(framebufferUpdate, in, bytes, networkNanos);
+                }
+                break;
+            case 0x01:
+                SetColorMapEntries setColorMapEntries = SetColorMapEntries.decode(in);
+                framebuffer.updateColorMap(setColorMapEntries);
+                break;
+            case 0x02:
+                Bell.decode(in);
+                Consumer<Void> bellListener = session.getConfig().getBellListener();
+                if (bellListener != null) {
+                    bellListener.accept(null);
+                }
+                break;
+            case 0x03:
+                ServerCutText cutText = ServerCutText.decode(in, clipboardInflater,
+                        session.getConfig().getMaxSizePerFormat());
+                clientEventHandler.clipboardReceived(cutText);
+                break;
+            case 0x96:
+                EndOfContinuousUpdates.decode(in);
+                clientEventHandler.endOfContinuousUpdates();
+                break;
+            case 0xF8:
+                Fence fence = Fence.decode(in);
+                clientEventHandler.respondToFence(fence);
+                break;
+            default:
+                throw new UnknownMessageTypeException(messageType);
+        }
+    }
+
+    private static int peek(InputStream in) throws IOException {
+        if (in instanceof PushbackInputStream) {
+            int b = in.read();
+            if (b != -1) {
+                ((PushbackInputStream) in).unread(b);
+            }
+            return b;
+        }
+        in.mark(1);
+        int b = in.read();
+        in.reset();
+        return b;
+    }
+
     void stop() {
         running = false;
         try {
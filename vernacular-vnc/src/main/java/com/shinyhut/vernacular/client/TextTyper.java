@@ -0,0 +1,149 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.protocol.messages.KeyEvent;
+import com.shinyhut.vernacular.utils.KeySyms;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.function.LongConsumer;
+
+import static java.lang.Character.isHighSurrogate;
+import static java.lang.Character.isLowSurrogate;
+import static java.lang.Character.toCodePoint;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Types text on the remote server, by sending a press and a release of the key for each character.
+ * <p>
+ * The text is read a chunk at a time, so it never has to be held in memory as a whole. Without a delay between keys,
+ * the key events for each chunk are encoded into one array and sent with a single write; with a delay, the events for
+ * each character are written on their own, and the typer sleeps between characters.
+ */
+class TextTyper {
+
+    interface Writer {
+
+        void write(byte[] data, int length) throws IOException;
+    }
+
+    /**
+     * The number of characters read and sent at a time. A character needs at most four key events (two for the key
+     * and two for the shift key), so a batch fits in 64 KiB.
+     */
+    private static final int CHUNK_SIZE = 2048;
+    private static final int MAX_EVENTS_PER_CHARACTER = 4;
+
+    private final Writer writer;
+    private final boolean pressShift;
+    private final long keyIntervalNanos;
+    private final LongConsumer progressListener;
+
+    private final char[] chunk = new char[CHUNK_SIZE];
+    private byte[] batch = new byte[0];
+    private int length;
+
+    private boolean lastWasCarriageReturn;
+    private char highSurrogate;
+
+    /**
+     * @param writer           Writes a batch of encoded key events to the server
+     * @param pressShift       Hold down the shift key while typing characters which need it on a US keyboard layout
+     * @param keyIntervalNanos The delay between characters, or 0 to send them as fast as possible
+     * @param progressListener Told the number of characters typed so far after each write, or null
+     */
+    TextTyper(Writer writer, boolean pressShift, long keyIntervalNanos, LongConsumer progressListener) {
+        this.writer = writer;
+        this.pressShift = pressShift;
+        this.keyIntervalNanos = keyIntervalNanos;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Types all the text from a Reader. A carriage return followed by a line feed is typed as a single ENTER.
+     *
+     * @param text The text to type
+     * @return The number of characters read from the text
+     * @throws IOException          if writing to the server fails
+     * @throws InterruptedException if the thread is interrupted while waiting between characters
+     * @throws UncheckedIOException if reading the text fails
+     */
+    long type(Reader text) throws IOException, InterruptedException {
+        long typed = 0;
+        int read;
+        while ((read = read(text)) >= 0) {
+            if (batch.length == 0) {
+                batch = new byte[(keyIntervalNanos > 0 ? 1 : CHUNK_SIZE) * MAX_EVENTS_PER_CHARACTER * KeyEvent.SIZE];
+            }
+            for (int i = 0; i < read; i++) {
+                typed++;
+                if (add(chunk[i]) && keyIntervalNanos > 0) {
+                    flush(typed);
+                    NANOSECONDS.sleep(keyIntervalNanos);
+                }
+            }
+            flush(typed);
+        }
+        return typed;
+    }
+
+    /**
+     * Adds the key events for a character to the batch
+     *
+     * @return true if the character produced any key events
+     */
+    private boolean add(char c) {
+        boolean carriageReturn = lastWasCarriageReturn;
+        lastWasCarriageReturn = c == '\r';
+        if (c == '\n' && carriageReturn) {
+            return false;
+        }
+
+        int codePoint = c;
+        if (isHighSurrogate(c)) {
+            highSurrogate = c;
+            return false;
+        } else if (isLowSurrogate(c)) {
+            if (highSurrogate == 0) {
+                return false;
+            }
+            codePoint = toCodePoint(highSurrogate, c);
+        }
+        highSurrogate = 0;
+
+        int keySym = KeySyms.forCharacter(codePoint);
+        boolean shift = pressShift && KeySyms.isShifted(codePoint);
+        if (shift) {
+            add(KeySyms.SHIFT, true);
+        }
+        add(keySym, true);
+        add(keySym, false);
+        if (shift) {
+            add(KeySyms.SHIFT, false);
+        }
+        return true;
+    }
+
+    private void add(int keySym, boolean pressed) {
+        new KeyEvent(keySym, pressed).encode(batch, length);
+        length += KeyEvent.SIZE;
+    }
+
+    private void flush(long typed) throws IOException {
+        if (length > 0) {
+            writer.write(batch, length);
+            length = 0;
+            if (progressListener != null) {
+                progressListener.accept(typed);
+            }
+        }
+    }
+
+    private int read(Reader text) {
+        try {
+            return text.read(chunk);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -2,19 +2,34 @@ package com.shinyhut.vernacular.client;
 
 import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
 import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.FrameDelivery;
+import com.shinyhut.vernacular.client.rendering.FrameSnapshot;
 import com.shinyhut.vernacular.protocol.handshaking.Handshaker;
 import com.shinyhut.vernacular.protocol.initialization.Initializer;
+import com.shinyhut.vernacular.protocol.messages.Encoding;
+import com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags;
 import com.shinyhut.vernacular.utils.KeySyms;
+import com.shinyhut.vernacular.utils.XtScancodes;
+import com.shinyhut.vernacular.utils.ChannelInputStream;
+import com.shinyhut.vernacular.utils.ChannelOutputStream;
 
 import java.awt.event.KeyEvent;
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
 
 import static java.awt.event.KeyEvent.*;
-import static java.util.stream.IntStream.range;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public class VernacularClient {
 
@@ -22,10 +37,12 @@ public class VernacularClient {
     private final Initializer initializer;
 
     private final VernacularConfig config;
+    private final VernacularReactor reactor;
 
-    private VncSession session;
+    private volatile VncSession session;
     private ClientEventHandler clientEventHandler;
     private ServerEventHandler serverEventHandler;
+    private AdaptiveEncodingController adaptiveEncodingController;
 
     private volatile boolean running;
 
@@ -35,7 +52,19 @@ public class VernacularClient {
      * @param config The VNC client configuration
      */
     public VernacularClient(VernacularConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * Creates a new VNC client using the specified configuration object, which runs on the specified reactor instead
+     * of threads of its own once it has connected
+     *
+     * @param config  The VNC client configuration
+     * @param reactor The reactor to run on, or null to use threads of its own
+     */
+    public VernacularClient(VernacularConfig config, VernacularReactor reactor) {
         this.config = config;
+        this.reactor = reactor;
         this.handshaker = new Handshaker();
         this.initializer = new Initializer();
     }
@@ -49,32 +78,56 @@ public class VernacularClient {
      */
     public void start(String host, int port) {
         try {
-            start(new Socket(host, port));
+            start(SocketChannel.open(new InetSocketAddress(host, port)).socket());
         } catch (IOException e) {
             handleError(new UnexpectedVncException(e));
         }
     }
 
     /**
-     * Starts the VNC client by connecting to the specified socket
+     * Starts the VNC client by connecting to the specified socket. If the socket has a channel, data is read from the
+     * channel directly, otherwise the socket's input stream is adapted to a channel.
      *
      * @param socket Socket to connect to
-     * @throws IllegalStateException if the client is already running
+     * @throws IllegalStateException    if the client is already running
+     * @throws IllegalArgumentException if the client runs on a reactor and the socket does not have a channel
      */
     public void start(Socket socket) {
         if (running) {
             throw new IllegalStateException("VNC Client is already running");
         }
+        if (reactor != null && socket.getChannel() == null) {
+            throw new IllegalArgumentException("A client running on a reactor needs a socket with a channel");
+        }
 
         running = true;
 
         try {
             createSession(socket);
-            clientEventHandler = new ClientEventHandler(session, this::handleError);
-            serverEventHandler = new ServerEventHandler(session, this::handleError);
+            if (config.isAsyncFrameDelivery()) {
+                FrameDelivery frameDelivery = new FrameDelivery(config, this::handleError);
+                session.setFrameDelivery(frameDelivery);
+                frameDelivery.start();
+            }
+            FramebufferUpdateScheduler scheduler =
+                    new FramebufferUpdateScheduler(config.getMaxFramebufferUpdatesInFlight());
+            if (config.isAdaptiveEncoding()) {
+                adaptiveEncodingController = new AdaptiveEncodingController(this::updateEncodings);
+                session.setUpdateStatisticsListener(scheduler.andThen(adaptiveEncodingController));
+            } else {
+                session.setUpdateStatisticsListener(scheduler);
+            }
+            clientEventHandler = new ClientEventHandler(session, scheduler, this::handleError);
+            serverEventHandler = new ServerEventHandler(session, clientEventHandler, this::handleError);
 
-            serverEventHandler.start();
-            clientEventHandler.start();
+            if (reactor != null) {
+                reactor.register(socket.getChannel(), session, serverEventHandler, clientEventHandler,
+                        this::handleError);
+                clientEventHandler.start(reactor.getTimer());
+            } else {
+                serverEventHandler.start();
+                clientEventHandler.start();
+            }
         } catch (IOException e) {
             handleError(new UnexpectedVncException(e));
         } catch (VncException e) {
@@ -94,10 +147,51 @@ public class VernacularClient {
             clientEventHandler.stop();
         }
         if (session != null) {
+            if (session.getFrameDelivery() != null) {
+                session.getFrameDelivery().stop();
+            }
             session.kill();
         }
     }
 
+    /**
+     * Gets the most recent complete frame of the remote desktop, when frame snapshots are enabled. The frame does not
+     * change until it is released, however long it is held, and holding it never delays decoding.
+     *
+     * @return The latest frame, which must be released once it is no longer needed, or null if frame snapshots are not
+     * enabled or no frame has been received yet
+     * @see VernacularConfig#setFrameSnapshots(boolean)
+     */
+    public FrameSnapshot acquireLatestFrame() {
+        VncSession current = session;
+        if (current == null || current.getFrameSnapshots() == null) {
+            return null;
+        }
+        return current.getFrameSnapshots().acquireLatest();
+    }
+
+    /**
+     * @return The number of frames passed to the screen listeners by asynchronous frame delivery, or 0 if it is not
+     * enabled
+     * @see VernacularConfig#setAsyncFrameDelivery(boolean)
+     */
+    public long getDeliveredFrames() {
+        VncSession current = session;
+        FrameDelivery delivery = current != null ? current.getFrameDelivery() : null;
+        return delivery != null ? delivery.getDeliveredFrames() : 0L;
+    }
+
+    /**
+     * @return The number of frames dropped by asynchronous frame delivery because the screen listeners had not finished
+     * with earlier frames, or 0 if it is not enabled
+     * @see VernacularConfig#setAsyncFrameDelivery(boolean)
+     */
+    public long getDroppedFrames() {
+        VncSession current = session;
+        FrameDelivery delivery = current != null ? current.getFrameDelivery() : null;
+        return delivery != null ? delivery.getDroppedFrames() : 0L;
+    }
+
     /**
      * Moves the remote mouse pointer to the specified coordinates (relative to the top-left of the screen).
      *
@@ -177,17 +271,24 @@ public class VernacularClient {
      * @see java.awt.event.KeyEvent KeyEvent
      */
     public void handleKeyEvent(KeyEvent event) {
-        KeySyms.map(event.getKeyCode(), event.getKeyChar(), event.isShiftDown()).ifPresent(k -> {
-            switch (event.getID()) {
-                case KEY_PRESSED:
-                case KEY_RELEASED:
-                    updateKey(k, event.getID() == KEY_PRESSED);
-                    break;
-                case KEY_TYPED:
-                    type(k);
-                    break;
-            }
-        });
+        // Both lookups go through primitive tables, so nothing is boxed or allocated for a key event
+        switch (event.getID()) {
+            case KEY_PRESSED:
+            case KEY_RELEASED:
+                int scancode = XtScancodes.forKeyCode(event.getKeyCode(), event.getKeyLocation());
+                updateKey(keySym(event), scancode, event.getID() == KEY_PRESSED);
+                break;
+            case KEY_TYPED:
+                int keySym = keySym(event);
+                if (keySym != KeySyms.NO_SYMBOL) {
+                    type(keySym);
+                }
+                break;
+        }
+    }
+
+    private static int keySym(KeyEvent event) {
+        return KeySyms.forKeyEvent(event.getKeyCode(), event.getKeyChar(), event.isShiftDown());
     }
 
     /**
@@ -208,6 +309,26 @@ public class VernacularClient {
         }
     }
 
+    /**
+     * Updates the status (pressed or not pressed) of the key with the specified scancode and KeySym.
+     * <p>
+     * If the server supports QEMU Extended Key Events, the scancode is sent along with the KeySym, and the server uses
+     * it to identify the key. Otherwise only the KeySym is sent, and nothing is sent if there is no KeySym.
+     *
+     * @param keySym   The KeySym for this key, or {@link KeySyms#NO_SYMBOL} if it has none
+     * @param scancode The XT scancode of the key (see {@link XtScancodes}), or {@link XtScancodes#NONE}
+     * @param pressed  Was the key pressed (true) or released (false)?
+     */
+    public void updateKey(int keySym, int scancode, boolean pressed) {
+        if (clientEventHandler != null) {
+            try {
+                clientEventHandler.updateKey(keySym, scancode, pressed);
+            } catch (IOException e) {
+                handleError(new UnexpectedVncException(e));
+            }
+        }
+    }
+
     /**
      * 'Types' (presses and releases) the key represented by the specified KeySym.
      * <p>
@@ -224,31 +345,58 @@ public class VernacularClient {
     /**
      * 'Types' (presses and releases) the key representing each character in the specified string, in order.
      * <p>
-     * Note that this is only guaranteed to work as expected for strings containing only printable ASCII characters -
-     * apart from line breaks, which are converted to ENTER key presses, and tabs, which are converted to TAB key
-     * presses.
+     * Line breaks are converted to ENTER key presses, and tabs to TAB key presses. Characters outside Latin-1 are sent
+     * as Unicode KeySyms, which not every server understands. The key events are sent in batches, rather than one
+     * write per key.
      *
      * @param text The text that will be typed on the remote server
+     * @see #type(Reader, long, LongConsumer)
      */
     public void type(String text) {
-        text = text.replaceAll("\r\n", "\n").replaceAll("\r", "\n");
-        range(0, text.length())
-                .map(text::charAt)
-                .map(c -> {
-                    switch (c) {
-                        case '\n':
-                            return KeySyms.forKeyCode(VK_ENTER).get();
-                        case '\t':
-                            return KeySyms.forKeyCode(VK_TAB).get();
-                        default:
-                            return c;
-                    }
-                })
-                .forEach(this::type);
+        type(new StringReader(text), 0, null);
+    }
+
+    /**
+     * 'Types' (presses and releases) the key representing each character read from the specified Reader, in order.
+     * <p>
+     * This is intended for typing large amounts of text, for example into a console with no clipboard. The text is read
+     * and sent a chunk at a time. Without a delay between keys, the key events for each chunk are sent in a single
+     * write; servers which drop keys typed too quickly may need a delay of a few milliseconds.
+     * <p>
+     * Line breaks are converted to ENTER key presses, and tabs to TAB key presses. If
+     * {@link VernacularConfig#setPressShiftWhenTyping(boolean)} is enabled, the shift key is held down while typing
+     * capital letters and shifted symbols.
+     * <p>
+     * This method returns once all the text has been sent. If the thread is interrupted while waiting between keys,
+     * typing stops and the thread's interrupt status is set.
+     *
+     * @param text              The text that will be typed on the remote server
+     * @param keyIntervalMillis The delay between characters, in milliseconds, or 0 for no delay
+     * @param progressListener  Called with the number of characters typed so far after each write, or null
+     * @return The number of characters typed
+     * @throws IllegalArgumentException if the delay is negative
+     * @throws UncheckedIOException     if the text cannot be read
+     */
+    public long type(Reader text, long keyIntervalMillis, LongConsumer progressListener) {
+        if (keyIntervalMillis < 0) {
+            throw new IllegalArgumentException("Key interval must not be negative: " + keyIntervalMillis);
+        }
+        if (clientEventHandler != null) {
+            try {
+                return clientEventHandler.type(text, MILLISECONDS.toNanos(keyIntervalMillis), progressListener);
+            } catch (IOException e) {
+                handleError(new UnexpectedVncException(e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return 0;
     }
 
     /**
-     * Copies the specified text to the remote clipboard
+     * Copies the specified text to the remote clipboard. Nothing is sent if the remote clipboard already holds the
+     * same content, whether it was copied from here or received from the server, so this may be called whenever the
+     * local clipboard might have changed.
      *
      * @param text The text to be copied to the remote clipboard
      */
@@ -262,6 +410,62 @@ public class VernacularClient {
         }
     }
 
+    /**
+     * Copies content in one or more formats to the remote clipboard. If the server does not support the extended
+     * clipboard, only the text is copied.
+     *
+     * @param formats The content in any of the {@link MessageHeaderFlags#TEXT}, {@link MessageHeaderFlags#RTF} and
+     *                {@link MessageHeaderFlags#HTML} formats
+     */
+    public void copyClipboard(Map<MessageHeaderFlags, String> formats) {
+        if (clientEventHandler != null) {
+            try {
+                clientEventHandler.copyClipboard(formats);
+            } catch (IOException e) {
+                handleError(new UnexpectedVncException(e));
+            }
+        }
+    }
+
+    /**
+     * Asks the server for the content of its clipboard, after it has announced a change to a
+     * {@link VernacularConfig.ClipboardListener} which chose not to fetch the content straight away. The content is
+     * passed to the listener when it arrives. Does nothing if the server does not support the extended clipboard.
+     *
+     * @param formats The formats to fetch
+     */
+    public void requestRemoteClipboard(Set<MessageHeaderFlags> formats) {
+        if (clientEventHandler != null) {
+            try {
+                clientEventHandler.requestRemoteClipboard(formats);
+            } catch (IOException e) {
+                handleError(new UnexpectedVncException(e));
+            }
+        }
+    }
+
+    /**
+     * Sends the encodings currently enabled in the configuration to the server, so that changes made to the
+     * configuration after the client has started (for example, to the compression level or JPEG quality) take effect
+     * on the live session.
+     * <p>
+     * Changes to the color depth only take effect when the client next connects. If adaptive encoding is enabled, the
+     * preferred encoding, compression level and JPEG quality are chosen by the client rather than the configuration.
+     */
+    public void updateEncodings() {
+        if (clientEventHandler != null) {
+            try {
+                List<Encoding> encodings = initializer.encodings(config);
+                if (adaptiveEncodingController != null) {
+                    encodings = adaptiveEncodingController.apply(encodings);
+                }
+                clientEventHandler.updateEncodings(encodings);
+            } catch (IOException e) {
+                handleError(new UnexpectedVncException(e));
+            }
+        }
+    }
+
     /**
      * Is the client currently running?
      *
@@ -272,9 +476,19 @@ public class VernacularClient {
     }
 
     private void createSession(Socket socket) throws IOException, VncException {
-        InputStream in = new BufferedInputStream(socket.getInputStream());
-        OutputStream out = socket.getOutputStream();
+        socket.setTcpNoDelay(config.isTcpNoDelay());
+        if (config.getSendBufferSize() > 0) {
+            socket.setSendBufferSize(config.getSendBufferSize());
+        }
+        ReadableByteChannel channel = socket.getChannel() != null
+                ? socket.getChannel()
+                : ChannelInputStream.channel(socket.getInputStream());
+        ChannelInputStream in = new ChannelInputStream(channel, config.getReadBufferSize(), config.isDirectReadBuffer());
+        OutputStream out = reactor != null
+                ? new ChannelOutputStream(socket.getChannel())
+                : socket.getOutputStream();
         session = new VncSession(config, in, out);
+        session.setInputMeter(in);
 
         handshaker.handshake(session);
         initializer.initialise(session);
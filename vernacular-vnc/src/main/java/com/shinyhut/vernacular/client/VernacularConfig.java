@@ -3,14 +3,24 @@ package com.shinyhut.vernacular.client;
 import com.shinyhut.vernacular.client.exceptions.VncException;
 import com.shinyhut.vernacular.client.rendering.ColorDepth;
 import com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags;
+import com.shinyhut.vernacular.utils.ChannelInputStream;
+import com.shinyhut.vernacular.utils.ThreadFactories;
 import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.client.rendering.UpdateStatistics;
 
+import java.awt.Rectangle;
+import java.io.IOException;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import static com.shinyhut.vernacular.client.rendering.ColorDepth.BPP_8_INDEXED;
+import static java.util.Objects.requireNonNull;
 
 public class VernacularConfig {
 
@@ -20,7 +30,10 @@ public class VernacularConfig {
     private Consumer<ImageBuffer> screenUpdateListener;
     private Consumer<Void> bellListener;
     private Consumer<String> remoteClipboardListener;
+    private ClipboardListener clipboardListener;
+    private ScreenDamageListener screenDamageListener;
     private MousePointerUpdateListener mousePointerUpdateListener;
+    private Consumer<UpdateStatistics> updateStatisticsListener;
     private boolean shared = true;
     private int targetFramesPerSecond = 30;
     private ColorDepth colorDepth = BPP_8_INDEXED;
@@ -31,6 +44,25 @@ public class VernacularConfig {
     private boolean enableHextileEncoding = true;
     private boolean enableZLibEncoding = false;
     private boolean enableTightEncoding = true;
+    private boolean enableZrleEncoding = true;
+    private boolean enableTrleEncoding = true;
+    private int compressionLevel = -1;
+    private int jpegQuality = -1;
+    private boolean adaptiveEncoding = false;
+    private boolean enableContinuousUpdates = true;
+    private int maxFramebufferUpdatesInFlight = 1;
+    private int readBufferSize = ChannelInputStream.DEFAULT_BUFFER_SIZE;
+    private boolean directReadBuffer = false;
+    private ThreadFactory threadFactory = ThreadFactories.defaultThreadFactory();
+    private ForkJoinPool decodePool = null;
+    private boolean frameSnapshots = false;
+    private int maxPointerEventsPerSecond = 0;
+    private boolean asyncFrameDelivery = false;
+    private boolean tcpNoDelay = true;
+    private int sendBufferSize = 0;
+    private boolean pressShiftWhenTyping = false;
+    private boolean enableExtendedKeyEvents = false;
+    private FramebufferAllocator framebufferAllocator = (width, height) -> new ImageBuffer(width, height, false);
     private final Map<MessageHeaderFlags, Integer> maxSizePerFormat = new EnumMap<>(MessageHeaderFlags.class);
 
     public Supplier<String> getUsernameSupplier() {
@@ -87,6 +119,29 @@ public class VernacularConfig {
         this.screenUpdateListener = screenUpdateListener;
     }
 
+    public static interface ScreenDamageListener {
+
+        void update(ImageBuffer imageBuffer, List<Rectangle> damage);
+    }
+
+    public ScreenDamageListener getScreenDamageListener() {
+        return screenDamageListener;
+    }
+
+    /**
+     * Specifies a listener which will be passed an Image representing the remote server's desktop, together with the
+     * list of rectangles which changed, every time we receive a screen update. Consumers can use the damaged
+     * rectangles to do work proportional to the size of the change rather than to the size of the screen.
+     * <p>
+     * This listener may be used instead of, or as well as, the screen update listener.
+     *
+     * @param screenDamageListener A listener which will receive the updated remote desktop and the damaged areas
+     * @see #setScreenUpdateListener(Consumer)
+     */
+    public void setScreenDamageListener(ScreenDamageListener screenDamageListener) {
+        this.screenDamageListener = screenDamageListener;
+    }
+
     public static interface MousePointerUpdateListener {
 
         void update(int x, int y, ImageBuffer imageBuffer);
@@ -107,6 +162,20 @@ public class VernacularConfig {
         this.mousePointerUpdateListener = mousePointerUpdateListener;
     }
 
+    public Consumer<UpdateStatistics> getUpdateStatisticsListener() {
+        return updateStatisticsListener;
+    }
+
+    /**
+     * Specifies a Consumer which will be passed measurements (bytes received, network and decoding time, and round
+     * trip time) for every screen update we receive. This can be used to monitor the performance of a connection.
+     *
+     * @param updateStatisticsListener A Consumer which will receive the measurements for each screen update
+     */
+    public void setUpdateStatisticsListener(Consumer<UpdateStatistics> updateStatisticsListener) {
+        this.updateStatisticsListener = updateStatisticsListener;
+    }
+
     public Consumer<String> getRemoteClipboardListener() {
         return remoteClipboardListener;
     }
@@ -120,6 +189,46 @@ public class VernacularConfig {
         this.remoteClipboardListener = remoteClipboardListener;
     }
 
+    public static interface ClipboardListener {
+
+        /**
+         * Called when the server announces that its clipboard has changed, without sending the content. Large content
+         * can be left on the server until it is needed, and fetched with
+         * {@link VernacularClient#requestRemoteClipboard(Set)}.
+         *
+         * @param formats The formats the content is available in
+         * @return The formats to fetch now. By default, all of them.
+         */
+        default Set<MessageHeaderFlags> remoteClipboardChanged(Set<MessageHeaderFlags> formats) {
+            return formats;
+        }
+
+        /**
+         * Called when content from the server's clipboard arrives. Content identical to the last content sent to or
+         * received from the server is not passed on.
+         *
+         * @param formats The content in each of the text, RTF and HTML formats the server provided
+         */
+        void remoteClipboardReceived(Map<MessageHeaderFlags, String> formats);
+    }
+
+    public ClipboardListener getClipboardListener() {
+        return clipboardListener;
+    }
+
+    /**
+     * Specifies a listener which is told about changes to the server's clipboard, and receives its content in every
+     * format the server provides. With the extended clipboard, the listener decides whether the content is fetched
+     * as soon as it changes, or only when it is needed.
+     * <p>
+     * This may be used alongside the remote clipboard listener, which receives just the text.
+     *
+     * @param clipboardListener The listener, or null for none
+     */
+    public void setClipboardListener(ClipboardListener clipboardListener) {
+        this.clipboardListener = clipboardListener;
+    }
+
     public Consumer<Void> getBellListener() {
         return bellListener;
     }
@@ -274,6 +383,397 @@ public class VernacularConfig {
    public void setEnableTightEncoding(boolean enableTightEncoding) {
        this.enableTightEncoding = enableTightEncoding;
    }
+
+    public boolean isEnableZrleEncoding() {
+        return enableZrleEncoding;
+    }
+
+    /**
+     * Enable or disable the ZRLE video encoding. This encoding is usually the most bandwidth efficient one after
+     * Tight, and servers which do not support Tight often support ZRLE.
+     *
+     * @param enableZrleEncoding enable or disable the ZRLE video encoding
+     */
+    public void setEnableZrleEncoding(boolean enableZrleEncoding) {
+        this.enableZrleEncoding = enableZrleEncoding;
+    }
+
+    public boolean isEnableTrleEncoding() {
+        return enableTrleEncoding;
+    }
+
+    /**
+     * Enable or disable the TRLE video encoding. This is ZRLE without the zlib compression, so it uses little CPU on
+     * either end of the connection while usually still needing less bandwidth than Hextile.
+     *
+     * @param enableTrleEncoding enable or disable the TRLE video encoding
+     */
+    public void setEnableTrleEncoding(boolean enableTrleEncoding) {
+        this.enableTrleEncoding = enableTrleEncoding;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Sets the compression level we ask the server to use for the Tight and ZRLE encodings, from 0 (least CPU) to 9
+     * (least bandwidth), or -1 to leave the choice to the server.
+     * <p>
+     * Changes take effect when the client connects, or on a live session when
+     * {@link VernacularClient#updateEncodings()} is called.
+     * <p>
+     * Default: -1
+     *
+     * @param compressionLevel The compression level, or -1 to use the server's default
+     * @throws IllegalArgumentException if the level is out of range
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = checkLevel(compressionLevel);
+    }
+
+    public int getJpegQuality() {
+        return jpegQuality;
+    }
+
+    /**
+     * Sets the JPEG quality level we ask the server to use for the Tight encoding, from 0 (least bandwidth) to 9 (best
+     * image quality), or -1 to disable JPEG compression. Lossy compression can greatly reduce the bandwidth needed for
+     * photographic content, such as desktop backgrounds or video.
+     * <p>
+     * Changes take effect when the client connects, or on a live session when
+     * {@link VernacularClient#updateEncodings()} is called.
+     * <p>
+     * Default: -1
+     *
+     * @param jpegQuality The JPEG quality level, or -1 to disable JPEG compression
+     * @throws IllegalArgumentException if the level is out of range
+     */
+    public void setJpegQuality(int jpegQuality) {
+        this.jpegQuality = checkLevel(jpegQuality);
+    }
+
+    public boolean isAdaptiveEncoding() {
+        return adaptiveEncoding;
+    }
+
+    /**
+     * Enable or disable adaptive encoding. When enabled, the client measures the bandwidth and latency of the
+     * connection and the time taken to decode each screen update, and automatically changes its preferred encoding,
+     * compression level and JPEG quality to suit: cheap encodings such as Hextile on a fast local network, and Tight
+     * with increasing compression and decreasing JPEG quality as the connection gets slower. The compression level and
+     * JPEG quality set in this configuration are overridden while adaptive encoding is in use.
+     * <p>
+     * The color depth is never changed automatically.
+     * <p>
+     * Default: false
+     *
+     * @param adaptiveEncoding enable or disable adaptive encoding
+     */
+    public void setAdaptiveEncoding(boolean adaptiveEncoding) {
+        this.adaptiveEncoding = adaptiveEncoding;
+    }
+
+    public boolean isEnableContinuousUpdates() {
+        return enableContinuousUpdates;
+    }
+
+    /**
+     * Enable or disable the Continuous Updates extension. If the server supports it, it pushes screen updates to us as
+     * soon as the screen changes, instead of waiting for us to request each one. This avoids paying a network round
+     * trip for every frame, which greatly improves the frame rate over high latency connections. The server paces the
+     * updates using Fence messages, which we answer as soon as we have processed everything sent before them.
+     * <p>
+     * When continuous updates are in use, the target frames per second setting has no effect.
+     * <p>
+     * Default: true
+     *
+     * @param enableContinuousUpdates enable or disable continuous updates
+     */
+    public void setEnableContinuousUpdates(boolean enableContinuousUpdates) {
+        this.enableContinuousUpdates = enableContinuousUpdates;
+    }
+
+    public int getMaxFramebufferUpdatesInFlight() {
+        return maxFramebufferUpdatesInFlight;
+    }
+
+    /**
+     * Sets the maximum number of framebuffer update requests we keep in flight at once, for servers which do not
+     * support continuous updates. Allowing more than one request in flight hides the network latency on long links:
+     * the number actually used is based on the measured round trip time and the target frame rate, and drops back to
+     * one whenever we cannot decode updates as fast as they arrive.
+     * <p>
+     * Default: 1
+     *
+     * @param maxFramebufferUpdatesInFlight The maximum number of requests in flight, from 1 to 16
+     * @throws IllegalArgumentException if the number is out of range
+     */
+    public void setMaxFramebufferUpdatesInFlight(int maxFramebufferUpdatesInFlight) {
+        if (maxFramebufferUpdatesInFlight < 1 || maxFramebufferUpdatesInFlight > 16) {
+            throw new IllegalArgumentException("Requests in flight must be between 1 and 16: "
+                    + maxFramebufferUpdatesInFlight);
+        }
+        this.maxFramebufferUpdatesInFlight = maxFramebufferUpdatesInFlight;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * Sets the size of the buffer used to read data from the server. A large buffer lets each network read fetch a
+     * large part of a screen update at once.
+     * <p>
+     * Default: 262144 (256 KB)
+     *
+     * @param readBufferSize The size of the read buffer, in bytes (at least 1024)
+     * @throws IllegalArgumentException if the size is too small
+     */
+    public void setReadBufferSize(int readBufferSize) {
+        if (readBufferSize < 1024) {
+            throw new IllegalArgumentException("Read buffer size must be at least 1024 bytes: " + readBufferSize);
+        }
+        this.readBufferSize = readBufferSize;
+    }
+
+    public boolean isDirectReadBuffer() {
+        return directReadBuffer;
+    }
+
+    /**
+     * Specifies whether the buffer used to read data from the server is a direct buffer. A direct buffer saves a copy
+     * when reading from a socket channel, but is allocated outside the Java heap.
+     * <p>
+     * Default: false
+     *
+     * @param directReadBuffer true to use a direct buffer, false to use a heap buffer
+     */
+    public void setDirectReadBuffer(boolean directReadBuffer) {
+        this.directReadBuffer = directReadBuffer;
+    }
+
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    /**
+     * Specifies the factory used to create the threads which run each session: one which reads messages from the
+     * server, and one which requests framebuffer updates.
+     * <p>
+     * On Java 21 and later the default creates virtual threads, so that a large number of sessions can run at once
+     * without using a platform thread each. Note that virtual threads are always daemon threads, so they will not keep
+     * the JVM alive on their own. On earlier versions, the default creates ordinary platform threads.
+     * <p>
+     * Default: {@link ThreadFactories#defaultThreadFactory()}
+     *
+     * @param threadFactory The thread factory to use
+     * @throws NullPointerException if the thread factory is null
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = requireNonNull(threadFactory);
+    }
+
+    public ForkJoinPool getDecodePool() {
+        return decodePool;
+    }
+
+    /**
+     * Specifies a pool on which to decode framebuffer updates in parallel.
+     * <p>
+     * Large Raw, RRE, Hextile and Tight (fill and JPEG) rectangles are decoded on this pool, while the next rectangle
+     * is read from the server. The results are always the same as when decoding serially. Rectangles which use a zlib
+     * stream shared with other rectangles (ZLib, ZRLE and Tight basic compression) are still decoded one at a time.
+     * <p>
+     * The same pool may be shared by many sessions, for example {@link ForkJoinPool#commonPool()}.
+     * <p>
+     * Default: null (updates are decoded serially on the thread which receives them)
+     *
+     * @param decodePool The pool to decode on, or null to decode serially
+     */
+    public void setDecodePool(ForkJoinPool decodePool) {
+        this.decodePool = decodePool;
+    }
+
+    public boolean isFrameSnapshots() {
+        return frameSnapshots;
+    }
+
+    /**
+     * Enable or disable frame snapshots. When enabled, the screen update and damage listeners are passed a snapshot of
+     * each complete frame, rather than the image the client is drawing into, so consumers which handle frames
+     * asynchronously never see a frame while the next update is being drawn into it. Only the areas which changed are
+     * copied into each snapshot.
+     * <p>
+     * A snapshot passed to a listener stays unchanged until at least the next frame is published. Consumers which need
+     * a frame for longer, or which just want the latest frame whenever they are ready for it, should use
+     * {@link VernacularClient#acquireLatestFrame()}.
+     * <p>
+     * Default: false
+     *
+     * @param frameSnapshots enable or disable frame snapshots
+     */
+    public void setFrameSnapshots(boolean frameSnapshots) {
+        this.frameSnapshots = frameSnapshots;
+    }
+
+    public boolean isAsyncFrameDelivery() {
+        return asyncFrameDelivery;
+    }
+
+    /**
+     * Enable or disable asynchronous frame delivery. When enabled, the screen update and damage listeners are called on
+     * a thread of their own, rather than on the thread which reads from the server, so a slow consumer cannot hold up
+     * the connection. Only the latest frame is kept waiting for the listeners: if they fall behind, frames are dropped,
+     * and the damage passed with the next frame they receive includes the damage of any frames dropped before it.
+     * <p>
+     * Listeners are passed frame snapshots (see {@link #setFrameSnapshots(boolean)}), which stay unchanged until the
+     * listener returns.
+     * <p>
+     * Default: false
+     *
+     * @param asyncFrameDelivery enable or disable asynchronous frame delivery
+     * @see VernacularClient#getDeliveredFrames()
+     * @see VernacularClient#getDroppedFrames()
+     */
+    public void setAsyncFrameDelivery(boolean asyncFrameDelivery) {
+        this.asyncFrameDelivery = asyncFrameDelivery;
+    }
+
+    public int getMaxPointerEventsPerSecond() {
+        return maxPointerEventsPerSecond;
+    }
+
+    /**
+     * Limits the rate at which pointer events are sent to the server. Mouse movements made faster than this are merged,
+     * so that only the latest position is sent, while button presses and releases are always sent, in order, at the
+     * position they happened. Events waiting to be sent are written together.
+     * <p>
+     * Default: 0 (no limit)
+     *
+     * @param maxPointerEventsPerSecond The maximum number of pointer event writes per second, or 0 for no limit
+     * @throws IllegalArgumentException if the rate is negative
+     */
+    public void setMaxPointerEventsPerSecond(int maxPointerEventsPerSecond) {
+        if (maxPointerEventsPerSecond < 0) {
+            throw new IllegalArgumentException("Pointer event rate must not be negative: " + maxPointerEventsPerSecond);
+        }
+        this.maxPointerEventsPerSecond = maxPointerEventsPerSecond;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Specifies whether small messages are sent to the server straight away, rather than held back by the operating
+     * system to be combined with later ones (Nagle's algorithm). Messages sent together by the client are already
+     * written in a single batch, so holding them back only delays key presses and pointer events.
+     * <p>
+     * Only applies when the client opens its own connection, or is given a socket by {@link VernacularClient#start}.
+     * <p>
+     * Default: true
+     *
+     * @param tcpNoDelay True to disable Nagle's algorithm on the connection
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * Specifies the size of the operating system's send buffer for the connection. A larger buffer lets a large
+     * message, such as a clipboard transfer, be written without waiting for the server to acknowledge it.
+     * <p>
+     * Default: 0 (the operating system's default)
+     *
+     * @param sendBufferSize The size of the send buffer in bytes, or 0 to leave it unchanged
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("Send buffer size must not be negative: " + sendBufferSize);
+        }
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public boolean isPressShiftWhenTyping() {
+        return pressShiftWhenTyping;
+    }
+
+    /**
+     * Specifies whether the shift key is held down while typing capital letters and shifted symbols with
+     * {@link VernacularClient#type(String)}, as if they were typed on a US keyboard. Most servers work out which
+     * modifiers are needed from the KeySym alone, but some (such as those which turn KeySyms into scancodes for a
+     * virtual machine's console) need the shift key to be pressed explicitly.
+     * <p>
+     * Default: false
+     *
+     * @param pressShiftWhenTyping True to press the shift key for characters which need it
+     */
+    public void setPressShiftWhenTyping(boolean pressShiftWhenTyping) {
+        this.pressShiftWhenTyping = pressShiftWhenTyping;
+    }
+
+    public boolean isEnableExtendedKeyEvents() {
+        return enableExtendedKeyEvents;
+    }
+
+    /**
+     * Enable or disable the QEMU Extended Key Event extension. If the server supports it (as QEMU and KVM do), key
+     * presses and releases passed to {@link VernacularClient#handleKeyEvent} are sent with an XT scancode as well as
+     * the KeySym, and the server uses the scancode to identify the key.
+     * <p>
+     * The scancode is worked out from the AWT key code, and for letter and punctuation keys the key code depends on the
+     * local keyboard layout: on an AZERTY keyboard, the key in the place of the US Q key reports VK_A. The mapping
+     * assumes a US layout (see {@link com.shinyhut.vernacular.utils.XtScancodes}), so this should only be enabled when
+     * the local keyboard has a US layout, or when key events are generated with US key codes. Applications which know
+     * the real scancode of each key can pass it to {@link VernacularClient#updateKey(int, int, boolean)} instead.
+     * <p>
+     * Default: false
+     *
+     * @param enableExtendedKeyEvents enable or disable extended key events
+     */
+    public void setEnableExtendedKeyEvents(boolean enableExtendedKeyEvents) {
+        this.enableExtendedKeyEvents = enableExtendedKeyEvents;
+    }
+
+    public static interface FramebufferAllocator {
+
+        ImageBuffer allocate(int width, int height) throws IOException;
+    }
+
+    public FramebufferAllocator getFramebufferAllocator() {
+        return framebufferAllocator;
+    }
+
+    /**
+     * Specifies how the image holding the remote desktop is allocated when a session starts. When the remote desktop
+     * is resized, the new image keeps its pixels in the same kind of storage as the first one.
+     * <p>
+     * With many sessions, or very large desktops, keeping the pixels off the heap with
+     * {@link ImageBuffer#allocateDirect(int, int, boolean)} reduces the size of the heap and the time spent collecting
+     * garbage. Allocating with {@link ImageBuffer#map(java.nio.file.Path, int, int, boolean)} (using a different file
+     * for each session) also lets other processes read the desktop as it is drawn, without copying it.
+     * <p>
+     * Default: an image on the heap
+     *
+     * @param framebufferAllocator The allocator to use
+     * @throws NullPointerException if the allocator is null
+     */
+    public void setFramebufferAllocator(FramebufferAllocator framebufferAllocator) {
+        this.framebufferAllocator = requireNonNull(framebufferAllocator);
+    }
+
+    private static int checkLevel(int level) {
+        if (level < -1 || level > 9) {
+            throw new IllegalArgumentException("Level must be between -1 and 9: " + level);
+        }
+        return level;
+    }
     
     public Map<MessageHeaderFlags, Integer> getMaxSizePerFormat() {
         return maxSizePerFormat;
@@ -0,0 +1,425 @@
+package com.shinyhut.vernacular.client;
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.MessageFramer;
+import com.shinyhut.vernacular.utils.ChannelInputStream;
+import com.shinyhut.vernacular.utils.ChannelOutputStream;
+import com.shinyhut.vernacular.utils.ThreadFactories;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.nio.channels.SelectionKey.OP_WRITE;
+
+/**
+ * Runs many VNC sessions on a small, fixed set of threads, instead of the two threads per session used by default.
+ * <p>
+ * Once a session's handshake is complete, its socket is switched to non-blocking mode and registered with one of the
+ * reactor's selector threads. The selector threads read whatever data has arrived and use a {@link MessageFramer} to
+ * split it into complete messages, which are then decoded by a shared pool of worker threads. The messages for any one
+ * session are always decoded one at a time, in the order they arrived, so the decoders (and their zlib streams) see
+ * exactly the same data as they would on a dedicated thread. Framebuffer update requests are sent from the worker
+ * threads after each message is handled, or from a shared timer when they have to wait for the target frame rate.
+ * <p>
+ * If a session's worker falls behind, the reactor stops reading from its socket until it catches up, so the data
+ * waiting to be decoded stays bounded and the server is slowed down by TCP flow control.
+ * <p>
+ * To run a client on a reactor, pass the reactor to
+ * {@link VernacularClient#VernacularClient(VernacularConfig, VernacularReactor)}. The handshake is still performed
+ * by the thread which starts the client.
+ */
+public class VernacularReactor implements Closeable {
+
+    private static final long MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_READS_PER_EVENT = 16;
+    private static final int MAX_MESSAGES_PER_TASK = 16;
+
+    private final SelectorLoop[] selectorLoops;
+    private final ExecutorService decodePool;
+    private final ScheduledExecutorService timer;
+    private final AtomicInteger nextSelectorLoop = new AtomicInteger();
+
+    /**
+     * Creates and starts a reactor using platform threads
+     *
+     * @param selectorThreads Number of threads reading from sockets
+     * @param decodeThreads   Number of threads decoding messages
+     * @throws IOException if a selector cannot be opened
+     */
+    public VernacularReactor(int selectorThreads, int decodeThreads) throws IOException {
+        this(selectorThreads, decodeThreads, ThreadFactories.platformThreadFactory());
+    }
+
+    /**
+     * Creates and starts a reactor
+     *
+     * @param selectorThreads Number of threads reading from sockets
+     * @param decodeThreads   Number of threads decoding messages
+     * @param threadFactory   Factory for all of the reactor's threads
+     * @throws IOException if a selector cannot be opened
+     */
+    public VernacularReactor(int selectorThreads, int decodeThreads, ThreadFactory threadFactory) throws IOException {
+        if (selectorThreads < 1 || decodeThreads < 1) {
+            throw new IllegalArgumentException("A reactor needs at least one selector thread and one decode thread");
+        }
+        decodePool = Executors.newFixedThreadPool(decodeThreads, named(threadFactory, "vernacular-decoder-"));
+        timer = Executors.newSingleThreadScheduledExecutor(named(threadFactory, "vernacular-timer-"));
+        selectorLoops = new SelectorLoop[selectorThreads];
+        ThreadFactory selectorThreadFactory = named(threadFactory, "vernacular-selector-");
+        try {
+            for (int i = 0; i < selectorThreads; i++) {
+                selectorLoops[i] = new SelectorLoop(Selector.open());
+                selectorThreadFactory.newThread(selectorLoops[i]).start();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the reactor, closing the connections of all sessions running on it
+     */
+    @Override
+    public void close() {
+        for (SelectorLoop loop : selectorLoops) {
+            if (loop != null) {
+                loop.stop();
+            }
+        }
+        decodePool.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    ScheduledExecutorService getTimer() {
+        return timer;
+    }
+
+    /**
+     * Hands a session over to the reactor once its handshake is complete. The session must have been created with a
+     * ChannelInputStream and ChannelOutputStream on the specified channel.
+     */
+    void register(SocketChannel channel, VncSession session, ServerEventHandler serverEventHandler,
+                  ClientEventHandler clientEventHandler, Consumer<VncException> errorHandler) throws IOException {
+        if (!(session.getInputStream() instanceof ChannelInputStream)
+                || !(session.getOutputStream() instanceof ChannelOutputStream)) {
+            throw new IllegalArgumentException("Session must read and write through the channel");
+        }
+        ChannelInputStream in = (ChannelInputStream) session.getInputStream();
+        ChannelOutputStream out = (ChannelOutputStream) session.getOutputStream();
+        SelectorLoop loop = selectorLoops[Math.floorMod(nextSelectorLoop.getAndIncrement(), selectorLoops.length)];
+        Connection connection = new Connection(channel, loop, session, out, serverEventHandler, clientEventHandler,
+                errorHandler);
+
+        // Anything the handshake read ahead belongs to the first messages
+        byte[] readAhead = new byte[in.available()];
+        in.readFully(readAhead);
+        connection.buffer.put(readAhead);
+
+        channel.configureBlocking(false);
+        out.setWriteListener(() -> loop.execute(connection::watchWritable));
+        loop.execute(connection::register);
+    }
+
+    private static ThreadFactory named(ThreadFactory threadFactory, String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = threadFactory.newThread(runnable);
+            thread.setName(prefix + count.incrementAndGet());
+            return thread;
+        };
+    }
+
+    private static class SelectorLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private volatile boolean running = true;
+
+        private SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isWritable()) {
+                            connection.writable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.readable();
+                        }
+                    }
+                }
+            } catch (IOException ignored) {
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private class Connection {
+
+        private final SocketChannel channel;
+        private final SelectorLoop loop;
+        private final ChannelOutputStream out;
+        private final ServerEventHandler serverEventHandler;
+        private final ClientEventHandler clientEventHandler;
+        private final Consumer<VncException> errorHandler;
+        private final MessageFramer framer;
+        private final int initialBufferSize;
+        private final boolean directBuffer;
+
+        private final Queue<Message> messages = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean decoding = new AtomicBoolean();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        private ByteBuffer buffer;
+        private SelectionKey key;
+        private long messageStartTime = -1L;
+        private volatile boolean readingPaused;
+
+        private Connection(SocketChannel channel, SelectorLoop loop, VncSession session, ChannelOutputStream out,
+                           ServerEventHandler serverEventHandler, ClientEventHandler clientEventHandler,
+                           Consumer<VncException> errorHandler) {
+            this.channel = channel;
+            this.loop = loop;
+            this.out = out;
+            this.serverEventHandler = serverEventHandler;
+            this.clientEventHandler = clientEventHandler;
+            this.errorHandler = errorHandler;
+            this.framer = new MessageFramer(session.getPixelFormat());
+            this.initialBufferSize = session.getConfig().getReadBufferSize();
+            this.directBuffer = session.getConfig().isDirectReadBuffer();
+            this.buffer = allocate(initialBufferSize);
+        }
+
+        void register() {
+            try {
+                key = channel.register(loop.selector, OP_READ, this);
+                if (buffer.position() > 0) {
+                    messageStartTime = System.nanoTime();
+                    frameMessages();
+                }
+            } catch (IOException e) {
+                fail(new UnexpectedVncException(e));
+            } catch (VncException e) {
+                fail(e);
+            }
+        }
+
+        void watchWritable() {
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | OP_WRITE);
+            }
+        }
+
+        void writable() {
+            try {
+                if (out.flushPending()) {
+                    key.interestOps(key.interestOps() & ~OP_WRITE);
+                }
+            } catch (IOException e) {
+                fail(new UnexpectedVncException(e));
+            }
+        }
+
+        void readable() {
+            try {
+                int read = 0;
+                for (int i = 0; i < MAX_READS_PER_EVENT && !readingPaused; i++) {
+                    read = channel.read(buffer);
+                    if (read > 0 && messageStartTime < 0) {
+                        messageStartTime = System.nanoTime();
+                    }
+                    frameMessages();
+                    if (read <= 0) {
+                        break;
+                    }
+                }
+                if (read < 0) {
+                    endOfStream();
+                }
+            } catch (IOException e) {
+                fail(new UnexpectedVncException(e));
+            } catch (VncException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Splits the data received so far into complete messages and queues them for decoding
+         */
+        private void frameMessages() throws VncException {
+            buffer.flip();
+            try {
+                int length;
+                while ((length = framer.frame(buffer)) != MessageFramer.INCOMPLETE) {
+                    byte[] data = new byte[length];
+                    buffer.get(data);
+                    long now = System.nanoTime();
+                    queue(new Message(data, now - messageStartTime));
+                    messageStartTime = buffer.hasRemaining() ? now : -1L;
+                }
+            } finally {
+                buffer.compact();
+            }
+            resizeBuffer();
+        }
+
+        /**
+         * Grows the buffer if the message being received will not fit, and shrinks it again once a large message has
+         * been received
+         */
+        private void resizeBuffer() {
+            int required = Math.max(framer.getRequiredLength(), buffer.position());
+            int capacity = buffer.capacity();
+            if (required > capacity) {
+                replaceBuffer(allocate((int) Math.min(Integer.MAX_VALUE, Math.max(required, 2L * capacity))));
+            } else if (capacity > initialBufferSize && buffer.position() == 0) {
+                replaceBuffer(allocate(initialBufferSize));
+            }
+        }
+
+        private void replaceBuffer(ByteBuffer replacement) {
+            buffer.flip();
+            replacement.put(buffer);
+            buffer = replacement;
+        }
+
+        private ByteBuffer allocate(int size) {
+            return directBuffer ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+
+        private void queue(Message message) {
+            messages.add(message);
+            if (queuedBytes.addAndGet(message.data.length) > MAX_QUEUED_BYTES && !readingPaused) {
+                readingPaused = true;
+                key.interestOps(key.interestOps() & ~OP_READ);
+            }
+            if (decoding.compareAndSet(false, true)) {
+                decodePool.execute(this::decode);
+            }
+        }
+
+        private void resumeReading() {
+            if (readingPaused && key.isValid()) {
+                readingPaused = false;
+                key.interestOps(key.interestOps() | OP_READ);
+            }
+        }
+
+        /**
+         * Decodes queued messages on a worker thread. A limited number are handled in each task so that a busy session
+         * cannot monopolize a worker.
+         */
+        private void decode() {
+            try {
+                Message message;
+                for (int i = 0; i < MAX_MESSAGES_PER_TASK && (message = messages.poll()) != null; i++) {
+                    if (!channel.isOpen()) {
+                        messages.clear();
+                        return;
+                    }
+                    long remaining = queuedBytes.addAndGet(-message.data.length);
+                    if (readingPaused && remaining <= MAX_QUEUED_BYTES / 2) {
+                        loop.execute(this::resumeReading);
+                    }
+                    serverEventHandler.handleMessage(message.data[0] & 0xFF, new ByteArrayInputStream(message.data),
+                            message.data.length, message.networkNanos);
+                    clientEventHandler.requestFramebufferUpdates();
+                }
+            } catch (IOException e) {
+                fail(new UnexpectedVncException(e));
+            } catch (VncException e) {
+                fail(e);
+            } finally {
+                decoding.set(false);
+                if (!messages.isEmpty() && !failed.get() && decoding.compareAndSet(false, true)) {
+                    decodePool.execute(this::decode);
+                }
+            }
+        }
+
+        private void endOfStream() {
+            if (buffer.position() > 0) {
+                fail(new UnexpectedVncException(new EOFException()));
+            } else {
+                key.cancel();
+            }
+        }
+
+        private void fail(VncException e) {
+            if (failed.compareAndSet(false, true) && channel.isOpen()) {
+                close();
+                errorHandler.accept(e);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static class Message {
+
+        private final byte[] data;
+        private final long networkNanos;
+
+        private Message(byte[] data, long networkNanos) {
+            this.data = data;
+            this.networkNanos = networkNanos;
+        }
+    }
+}
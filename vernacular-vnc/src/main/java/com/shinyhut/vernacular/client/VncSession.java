@@ -1,20 +1,27 @@
 package com.shinyhut.vernacular.client;
 
+import com.shinyhut.vernacular.client.rendering.FrameDelivery;
+import com.shinyhut.vernacular.client.rendering.FrameSnapshots;
+import com.shinyhut.vernacular.client.rendering.UpdateStatistics;
 import com.shinyhut.vernacular.protocol.messages.PixelFormat;
 import com.shinyhut.vernacular.protocol.messages.ProtocolVersion;
 import com.shinyhut.vernacular.protocol.messages.ServerInit;
+import com.shinyhut.vernacular.utils.InputMeter;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class VncSession {
 
     private final VernacularConfig config;
     private final InputStream inputStream;
     private final OutputStream outputStream;
+    private final FrameSnapshots frameSnapshots;
+    private FrameDelivery frameDelivery;
 
     private ProtocolVersion protocolVersion;
     private ServerInit serverInit;
@@ -22,8 +29,18 @@ public class VncSession {
 
     private volatile int framebufferWidth;
     private volatile int framebufferHeight;
+    private volatile boolean continuousUpdatesActive;
+    private volatile boolean extendedKeyEventsSupported;
 
-    private boolean receivedFramebufferUpdate = false;
+    private InputMeter inputMeter;
+    private volatile Consumer<UpdateStatistics> updateStatisticsListener;
+
+    private int framebufferUpdatesInFlight;
+    private long framebufferUpdateGeneration;
+    private final long[] framebufferUpdateRequestTimes = new long[64];
+    private int framebufferUpdateRequestHead;
+    private int framebufferUpdateRequestCount;
+    private int framebufferUpdateRequestsAnswered = -1;
     private final ReentrantLock framebufferUpdateLock = new ReentrantLock();
     private final Condition framebufferUpdatedCondition = framebufferUpdateLock.newCondition();
 
@@ -31,6 +48,9 @@ public class VncSession {
         this.config = config;
         this.inputStream = inputStream;
         this.outputStream = outputStream;
+        this.frameSnapshots = config.isFrameSnapshots() || config.isAsyncFrameDelivery()
+                ? new FrameSnapshots()
+                : null;
     }
 
     public InputStream getInputStream() {
@@ -45,6 +65,24 @@ public class VncSession {
         return config;
     }
 
+    /**
+     * @return The snapshots of the framebuffer passed to consumers, or null if frame snapshots are not enabled
+     */
+    public FrameSnapshots getFrameSnapshots() {
+        return frameSnapshots;
+    }
+
+    /**
+     * @return The thread which passes frames to consumers, or null if frames are passed to them as they are decoded
+     */
+    public FrameDelivery getFrameDelivery() {
+        return frameDelivery;
+    }
+
+    public void setFrameDelivery(FrameDelivery frameDelivery) {
+        this.frameDelivery = frameDelivery;
+    }
+
     public ProtocolVersion getProtocolVersion() {
         return protocolVersion;
     }
@@ -85,22 +123,193 @@ public class VncSession {
         this.framebufferHeight = framebufferHeight;
     }
 
-    public void waitForFramebufferUpdate() throws InterruptedException {
+    /**
+     * Sets the meter used to measure how much data is received from the network, and how long it takes to arrive
+     */
+    public void setInputMeter(InputMeter inputMeter) {
+        this.inputMeter = inputMeter;
+    }
+
+    /**
+     * @return The total number of bytes received from the network, or 0 if the input is not metered
+     */
+    public long getBytesReceived() {
+        return inputMeter != null ? inputMeter.getBytesRead() : 0L;
+    }
+
+    /**
+     * @return The total time, in nanoseconds, spent waiting for data from the network, or 0 if the input is not
+     * metered
+     */
+    public long getNetworkReadNanos() {
+        return inputMeter != null ? inputMeter.getReadNanos() : 0L;
+    }
+
+    public Consumer<UpdateStatistics> getUpdateStatisticsListener() {
+        return updateStatisticsListener;
+    }
+
+    /**
+     * Sets an internal listener which is notified with measurements of each framebuffer update as it is processed
+     */
+    public void setUpdateStatisticsListener(Consumer<UpdateStatistics> updateStatisticsListener) {
+        this.updateStatisticsListener = updateStatisticsListener;
+    }
+
+    public boolean isExtendedKeyEventsSupported() {
+        return extendedKeyEventsSupported;
+    }
+
+    /**
+     * Records that the server has acknowledged the QEMU Extended Key Event pseudo-encoding, so key events can be sent
+     * with scancodes
+     */
+    public void setExtendedKeyEventsSupported(boolean extendedKeyEventsSupported) {
+        this.extendedKeyEventsSupported = extendedKeyEventsSupported;
+    }
+
+    public boolean isContinuousUpdatesActive() {
+        return continuousUpdatesActive;
+    }
+
+    /**
+     * Records whether the server is pushing continuous updates. When continuous updates end, any requests still
+     * outstanding are forgotten, and threads waiting for framebuffer updates are woken up so that they can go back to
+     * requesting them.
+     */
+    public void setContinuousUpdatesActive(boolean continuousUpdatesActive) {
+        framebufferUpdateLock.lock();
+        try {
+            this.continuousUpdatesActive = continuousUpdatesActive;
+            if (!continuousUpdatesActive) {
+                framebufferUpdatesInFlight = 0;
+                framebufferUpdateRequestCount = 0;
+                framebufferUpdateRequestsAnswered = -1;
+            }
+            framebufferUpdateGeneration++;
+            framebufferUpdatedCondition.signalAll();
+        } finally {
+            framebufferUpdateLock.unlock();
+        }
+    }
+
+    /**
+     * Records that a framebuffer update has just been requested, so that we can tell how many requests are in flight,
+     * and measure the round trip time when the update arrives
+     */
+    public void framebufferUpdateRequested() {
+        framebufferUpdateLock.lock();
+        try {
+            if (framebufferUpdateRequestCount < framebufferUpdateRequestTimes.length) {
+                int index = (framebufferUpdateRequestHead + framebufferUpdateRequestCount)
+                        % framebufferUpdateRequestTimes.length;
+                framebufferUpdateRequestTimes[index] = System.nanoTime();
+            }
+            framebufferUpdatesInFlight++;
+            framebufferUpdateRequestCount = Math.min(framebufferUpdateRequestCount + 1,
+                    framebufferUpdateRequestTimes.length);
+        } finally {
+            framebufferUpdateLock.unlock();
+        }
+    }
+
+    /**
+     * Records that a framebuffer update is arriving now. Servers merge all the incremental requests they have received
+     * into a single update, so the update answers every request sent before it, not just the oldest one. Those
+     * requests stop counting as in flight once {@link #framebufferUpdated()} is called.
+     *
+     * @return The time (from System.nanoTime) at which the oldest outstanding framebuffer update was requested, or 0
+     * if none is outstanding
+     */
+    public long takeFramebufferUpdateRequestTime() {
+        framebufferUpdateLock.lock();
+        try {
+            framebufferUpdateRequestsAnswered = framebufferUpdatesInFlight;
+            if (framebufferUpdateRequestCount == 0) {
+                return 0L;
+            }
+            long requestTime = framebufferUpdateRequestTimes[framebufferUpdateRequestHead];
+            framebufferUpdateRequestHead = 0;
+            framebufferUpdateRequestCount = 0;
+            return requestTime;
+        } finally {
+            framebufferUpdateLock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of framebuffer update requests which have not yet been answered
+     */
+    public int getFramebufferUpdatesInFlight() {
+        framebufferUpdateLock.lock();
+        try {
+            return framebufferUpdatesInFlight;
+        } finally {
+            framebufferUpdateLock.unlock();
+        }
+    }
+
+    /**
+     * @return A number which changes every time a framebuffer update is processed, for use with
+     * {@link #waitForFramebufferUpdate(long)}
+     */
+    public long getFramebufferUpdateGeneration() {
+        framebufferUpdateLock.lock();
+        try {
+            return framebufferUpdateGeneration;
+        } finally {
+            framebufferUpdateLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a framebuffer update has been processed since the specified generation was read, or continuous
+     * updates have started or stopped
+     *
+     * @param generation A value previously returned by {@link #getFramebufferUpdateGeneration()}
+     */
+    public void waitForFramebufferUpdate(long generation) throws InterruptedException {
+        framebufferUpdateLock.lock();
+        try {
+            while (framebufferUpdateGeneration == generation) {
+                framebufferUpdatedCondition.await();
+            }
+        } finally {
+            framebufferUpdateLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until fewer than the specified number of framebuffer update requests are in flight
+     *
+     * @param limit The maximum number of requests which may be in flight after this method returns, minus one
+     */
+    public void waitForFramebufferUpdatesInFlightBelow(int limit) throws InterruptedException {
         framebufferUpdateLock.lock();
         try {
-            while (!receivedFramebufferUpdate) {
+            while (framebufferUpdatesInFlight >= limit && !continuousUpdatesActive) {
                 framebufferUpdatedCondition.await();
             }
-            receivedFramebufferUpdate = false;
         } finally {
             framebufferUpdateLock.unlock();
         }
     }
 
+    /**
+     * Records that a framebuffer update has been processed. Requests sent while it was being processed are still in
+     * flight, but all those sent before it arrived have been answered.
+     */
     public void framebufferUpdated() {
         framebufferUpdateLock.lock();
         try {
-            receivedFramebufferUpdate = true;
+            if (framebufferUpdateRequestsAnswered < 0) {
+                framebufferUpdatesInFlight = 0;
+            } else {
+                framebufferUpdatesInFlight = Math.max(0,
+                        framebufferUpdatesInFlight - framebufferUpdateRequestsAnswered);
+            }
+            framebufferUpdateRequestsAnswered = -1;
+            framebufferUpdateGeneration++;
             framebufferUpdatedCondition.signalAll();
         } finally {
             framebufferUpdateLock.unlock();
@@ -0,0 +1,11 @@
+package com.shinyhut.vernacular.client.exceptions;
+
+public class InvalidRleEncodingException extends VncException
+{
+   private static final long serialVersionUID = 1L;
+
+   public InvalidRleEncodingException(String message)
+   {
+      super(message);
+   }
+}
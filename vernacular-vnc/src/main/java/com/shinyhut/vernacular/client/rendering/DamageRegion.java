@@ -0,0 +1,99 @@
+package com.shinyhut.vernacular.client.rendering;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The set of framebuffer areas changed by one or more updates.
+ * <p>
+ * Rectangles are coalesced as they are added: a rectangle contained in another is dropped, and touching or
+ * overlapping rectangles are merged whenever their bounding box covers no more pixels than the two rectangles
+ * themselves (for example, neighbouring Hextile tiles in a row). If the region becomes too fragmented it collapses to
+ * its bounding box, so the cost of tracking damage stays bounded.
+ */
+public class DamageRegion {
+
+    private static final int MAX_RECTANGLES = 64;
+
+    private final List<Rectangle> rectangles = new ArrayList<>();
+
+    public void add(int x, int y, int width, int height) {
+        if (width > 0 && height > 0) {
+            add(new Rectangle(x, y, width, height));
+        }
+    }
+
+    public void add(DamageRegion other) {
+        for (Rectangle rectangle : other.rectangles) {
+            add(new Rectangle(rectangle));
+        }
+    }
+
+    private void add(Rectangle added) {
+        boolean merged;
+        do {
+            merged = false;
+            for (int i = 0; i < rectangles.size(); i++) {
+                Rectangle existing = rectangles.get(i);
+                if (existing.contains(added)) {
+                    return;
+                }
+                if (added.contains(existing) || shouldMerge(existing, added)) {
+                    added = added.union(existing);
+                    rectangles.remove(i);
+                    merged = true;
+                    break;
+                }
+            }
+        } while (merged);
+
+        rectangles.add(added);
+
+        if (rectangles.size() > MAX_RECTANGLES) {
+            Rectangle bounds = getBounds();
+            rectangles.clear();
+            rectangles.add(bounds);
+        }
+    }
+
+    private static boolean shouldMerge(Rectangle a, Rectangle b) {
+        boolean touching = a.x <= b.x + b.width && b.x <= a.x + a.width
+                && a.y <= b.y + b.height && b.y <= a.y + a.height;
+        if (!touching) {
+            return false;
+        }
+        Rectangle union = a.union(b);
+        return (long) union.width * union.height <= (long) a.width * a.height + (long) b.width * b.height;
+    }
+
+    public boolean isEmpty() {
+        return rectangles.isEmpty();
+    }
+
+    /**
+     * @return A copy of the rectangles making up this region
+     */
+    public List<Rectangle> getRectangles() {
+        List<Rectangle> copy = new ArrayList<>(rectangles.size());
+        for (Rectangle rectangle : rectangles) {
+            copy.add(new Rectangle(rectangle));
+        }
+        return copy;
+    }
+
+    /**
+     * @return The smallest rectangle containing the whole region, or an empty rectangle if the region is empty
+     */
+    public Rectangle getBounds() {
+        Rectangle bounds = null;
+        for (Rectangle rectangle : rectangles) {
+            bounds = bounds == null ? new Rectangle(rectangle) : bounds.union(rectangle);
+        }
+        return bounds == null ? new Rectangle() : bounds;
+    }
+
+    public void clear() {
+        rectangles.clear();
+    }
+}
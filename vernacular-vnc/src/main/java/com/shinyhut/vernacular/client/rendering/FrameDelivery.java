@@ -0,0 +1,149 @@
+package com.shinyhut.vernacular.client.rendering;
+
+import com.shinyhut.vernacular.client.VernacularConfig;
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Passes frames to the screen update and damage listeners on a thread of their own, so that a slow consumer never
+ * holds up reading from the server.
+ * <p>
+ * Only the latest frame is kept waiting. If a new frame arrives before the consumer is ready for the last one, the
+ * last one is dropped, but its damage is carried over to the new frame, so the damage passed to the listener always
+ * covers everything which changed since the previous frame it was given.
+ */
+public class FrameDelivery {
+
+    private final VernacularConfig config;
+    private final Consumer<VncException> errorHandler;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition frameAvailable = lock.newCondition();
+    private final DamageRegion pendingDamage = new DamageRegion();
+    private FrameSnapshot pending;
+
+    private volatile boolean running;
+    private volatile long deliveredFrames;
+    private volatile long droppedFrames;
+    private Thread deliveryThread;
+
+    public FrameDelivery(VernacularConfig config, Consumer<VncException> errorHandler) {
+        this.config = config;
+        this.errorHandler = errorHandler;
+    }
+
+    public void start() {
+        running = true;
+        deliveryThread = config.getThreadFactory().newThread(this::deliverFrames);
+        deliveryThread.setName("vernacular-frame-delivery");
+        deliveryThread.start();
+    }
+
+    public void stop() {
+        lock.lock();
+        try {
+            running = false;
+            if (pending != null) {
+                pending.release();
+                pending = null;
+            }
+            frameAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands over a frame to be delivered, replacing any frame still waiting
+     *
+     * @param snapshot The frame, which is released once it has been delivered or dropped
+     * @param damage   The areas which changed since the last frame handed over
+     */
+    public void offer(FrameSnapshot snapshot, List<Rectangle> damage) {
+        lock.lock();
+        try {
+            if (!running) {
+                snapshot.release();
+                return;
+            }
+            if (pending != null) {
+                pending.release();
+                droppedFrames++;
+            }
+            pending = snapshot;
+            for (Rectangle rectangle : damage) {
+                pendingDamage.add(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
+            }
+            frameAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of frames passed to the listeners
+     */
+    public long getDeliveredFrames() {
+        return deliveredFrames;
+    }
+
+    /**
+     * @return The number of frames replaced by a later frame before the listeners were ready for them
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private void deliverFrames() {
+        while (true) {
+            FrameSnapshot snapshot;
+            List<Rectangle> damage;
+            lock.lock();
+            try {
+                while (running && pending == null) {
+                    frameAvailable.awaitUninterruptibly();
+                }
+                if (!running) {
+                    return;
+                }
+                snapshot = pending;
+                damage = pendingDamage.getRectangles();
+                pending = null;
+                pendingDamage.clear();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                deliver(snapshot.getImage(), damage);
+                deliveredFrames++;
+            } catch (RuntimeException e) {
+                errorHandler.accept(new UnexpectedVncException(e));
+            } finally {
+                snapshot.release();
+            }
+        }
+    }
+
+    private void deliver(ImageBuffer image, List<Rectangle> damage) {
+        Consumer<ImageBuffer> listener = config.getScreenUpdateListener();
+        if (listener != null) {
+            listener.accept(image);
+        }
+        VernacularConfig.ScreenDamageListener damageListener = config.getScreenDamageListener();
+        if (damageListener != null) {
+            Rectangle bounds = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+            damage.replaceAll(bounds::intersection);
+            damage.removeIf(Rectangle::isEmpty);
+            if (!damage.isEmpty()) {
+                damageListener.update(image, damage);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.shinyhut.vernacular.client.rendering;
+
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A complete frame of the remote desktop, which does not change for as long as it is held.
+ * <p>
+ * Snapshots are recycled: once every holder has released a snapshot, its image may be reused for a later frame. A
+ * snapshot obtained from {@link com.shinyhut.vernacular.client.VernacularClient#acquireLatestFrame()} must therefore
+ * be released when it is no longer needed, and its image must not be used after that.
+ */
+public final class FrameSnapshot {
+
+    private final ImageBuffer image;
+    private final AtomicInteger references = new AtomicInteger();
+    private final FrameSnapshots owner;
+
+    private long frameNumber;
+    private List<Rectangle> damage;
+
+    FrameSnapshot(ImageBuffer image, FrameSnapshots owner) {
+        this.image = image;
+        this.owner = owner;
+    }
+
+    public ImageBuffer getImage() {
+        return image;
+    }
+
+    /**
+     * @return The number of the frame, which increases by one for each frame published
+     */
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * @return The areas which changed since the previous frame
+     */
+    public List<Rectangle> getDamage() {
+        return damage;
+    }
+
+    /**
+     * Releases this snapshot, so that its image can be reused once nothing else holds it
+     */
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            owner.recycle(this);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Frame snapshot released more times than it was acquired");
+        }
+    }
+
+    /**
+     * Takes another reference to this snapshot, unless it has already been released by every holder
+     */
+    boolean tryRetain() {
+        int count;
+        do {
+            count = references.get();
+            if (count <= 0) {
+                return false;
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    void reset(long frameNumber, List<Rectangle> damage) {
+        this.frameNumber = frameNumber;
+        this.damage = damage;
+        references.set(1);
+    }
+}
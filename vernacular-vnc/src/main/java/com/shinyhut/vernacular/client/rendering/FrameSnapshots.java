@@ -0,0 +1,118 @@
+package com.shinyhut.vernacular.client.rendering;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes snapshots of the framebuffer, so that consumers never see a frame while it is being drawn.
+ * <p>
+ * Each published frame is copied into a snapshot which is not otherwise in use: usually the one holding the frame
+ * before last, so that only the areas changed by the last two updates need copying. The latest snapshot is published
+ * through an atomic reference, without locking, and consumers which hold on to a snapshot simply cause another to be
+ * used for the next frame, so a slow consumer never holds up decoding.
+ */
+public class FrameSnapshots {
+
+    /**
+     * The number of frames of damage remembered, and so how old a recycled snapshot can be and still be brought up to
+     * date without copying the whole frame
+     */
+    private static final int HISTORY = 8;
+
+    private final AtomicReference<FrameSnapshot> latest = new AtomicReference<>();
+    private final Queue<FrameSnapshot> free = new ConcurrentLinkedQueue<>();
+    private final Deque<List<Rectangle>> history = new ArrayDeque<>(HISTORY);
+    private final DamageRegion pending = new DamageRegion();
+
+    private long frameNumber;
+
+    /**
+     * Publishes a frame. This must only be called by one thread at a time.
+     *
+     * @param frame  The frame, which may continue to be drawn into as soon as this returns
+     * @param damage The areas changed since the last frame published
+     * @return The published snapshot. It is held until the next frame is published, but callers which keep it for
+     * longer must {@link #acquireLatest() acquire} it.
+     */
+    public FrameSnapshot publish(ImageBuffer frame, List<Rectangle> damage) {
+        frameNumber++;
+        if (history.size() == HISTORY) {
+            history.removeLast();
+        }
+        history.addFirst(damage);
+
+        FrameSnapshot snapshot = takeFree(frame.getWidth(), frame.getHeight());
+        ImageBuffer image = snapshot.getImage();
+        long missed = frameNumber - snapshot.getFrameNumber();
+        if (snapshot.getFrameNumber() == 0 || missed > history.size()) {
+            frame.getRow(0, 0, image.getBuffer(), 0, frame.getWidth() * frame.getHeight());
+        } else {
+            pending.clear();
+            int i = 0;
+            for (List<Rectangle> rectangles : history) {
+                if (i++ == missed) {
+                    break;
+                }
+                for (Rectangle rectangle : rectangles) {
+                    pending.add(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
+                }
+            }
+            for (Rectangle rectangle : pending.getRectangles()) {
+                copy(frame, image, rectangle);
+            }
+        }
+        snapshot.reset(frameNumber, damage);
+
+        FrameSnapshot previous = latest.getAndSet(snapshot);
+        if (previous != null) {
+            previous.release();
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return The most recently published snapshot, which the caller must release, or null if no frame has been
+     * published yet
+     */
+    public FrameSnapshot acquireLatest() {
+        while (true) {
+            FrameSnapshot snapshot = latest.get();
+            if (snapshot == null) {
+                return null;
+            }
+            if (snapshot.tryRetain()) {
+                return snapshot;
+            }
+        }
+    }
+
+    void recycle(FrameSnapshot snapshot) {
+        free.add(snapshot);
+    }
+
+    private FrameSnapshot takeFree(int width, int height) {
+        FrameSnapshot snapshot;
+        while ((snapshot = free.poll()) != null) {
+            ImageBuffer image = snapshot.getImage();
+            if (image.getWidth() == width && image.getHeight() == height) {
+                return snapshot;
+            }
+        }
+        return new FrameSnapshot(new ImageBuffer(width, height, false), this);
+    }
+
+    private static void copy(ImageBuffer frame, ImageBuffer image, Rectangle rectangle) {
+        int x0 = Math.max(0, rectangle.x);
+        int y0 = Math.max(0, rectangle.y);
+        int x1 = Math.min(frame.getWidth(), rectangle.x + rectangle.width);
+        int y1 = Math.min(frame.getHeight(), rectangle.y + rectangle.height);
+        for (int y = y0; y < y1 && x0 < x1; y++) {
+            frame.getRow(x0, y, image.getBuffer(), y * frame.getWidth() + x0, x1 - x0);
+        }
+    }
+}
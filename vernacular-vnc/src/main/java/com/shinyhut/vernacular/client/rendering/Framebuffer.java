@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
 import static com.shinyhut.vernacular.protocol.messages.Encoding.*;
@@ -22,37 +23,92 @@ public class Framebuffer {
     private final Map<Long, ColorMapEntry> colorMap = new ConcurrentHashMap<>();
     private final Map<Encoding, Renderer> renderers = new ConcurrentHashMap<>();
     private final CursorRenderer cursorRenderer;
+    private final PixelDecoder pixelDecoder;
+    private final ParallelRectangleDecoder parallelDecoder;
+
+    private final DamageRegion damage = new DamageRegion();
 
     private ImageBuffer frame;
 
-    public Framebuffer(VncSession session) {
-        PixelDecoder pixelDecoder = new PixelDecoder(colorMap);
+    public Framebuffer(VncSession session) throws VncException {
+        pixelDecoder = new PixelDecoder(colorMap);
         RawRenderer rawRenderer = new RawRenderer(pixelDecoder, session.getPixelFormat());
+        RRERenderer rreRenderer = new RRERenderer(pixelDecoder, session.getPixelFormat());
+        HextileRenderer hextileRenderer = new HextileRenderer(rawRenderer, pixelDecoder, session.getPixelFormat());
+        TightRenderer tightRenderer = new TightRenderer(session.getPixelFormat(), colorMap);
         renderers.put(RAW, rawRenderer);
         renderers.put(COPYRECT, new CopyRectRenderer());
-        renderers.put(RRE, new RRERenderer(pixelDecoder, session.getPixelFormat()));
-        renderers.put(HEXTILE, new HextileRenderer(rawRenderer, pixelDecoder, session.getPixelFormat()));
+        renderers.put(RRE, rreRenderer);
+        renderers.put(HEXTILE, hextileRenderer);
         renderers.put(ZLIB, new ZLibRenderer(rawRenderer));
-        renderers.put(TIGHT, new TightRenderer(session.getPixelFormat(), colorMap));
+        renderers.put(TIGHT, tightRenderer);
+        renderers.put(TRLE, new TRLERenderer(pixelDecoder, session.getPixelFormat()));
+        renderers.put(ZRLE, new ZRLERenderer(pixelDecoder, session.getPixelFormat()));
         cursorRenderer = new CursorRenderer(rawRenderer);
 
-        frame = new ImageBuffer(session.getFramebufferWidth(), session.getFramebufferHeight(), false);
+        ForkJoinPool decodePool = session.getConfig().getDecodePool();
+        parallelDecoder = decodePool != null ? new ParallelRectangleDecoder(decodePool, session.getPixelFormat(),
+                rawRenderer, rreRenderer, hextileRenderer, tightRenderer) : null;
+
+        try {
+            frame = session.getConfig().getFramebufferAllocator()
+                    .allocate(session.getFramebufferWidth(), session.getFramebufferHeight());
+        } catch (IOException e) {
+            throw new UnexpectedVncException(e);
+        }
         this.session = session;
     }
 
     public void processUpdate(FramebufferUpdate update) throws VncException {
-        InputStream in = session.getInputStream();
+        long requestTime = session.takeFramebufferUpdateRequestTime();
+        long startTime = System.nanoTime();
+        long startBytes = session.getBytesReceived();
+        long startNetworkNanos = session.getNetworkReadNanos();
+        render(update, session.getInputStream());
+        long networkNanos = session.getNetworkReadNanos() - startNetworkNanos;
+        reportStatistics(update, requestTime, startTime, session.getBytesReceived() - startBytes, networkNanos);
+    }
+
+    /**
+     * Processes an update whose rectangles have already been received in full, rather than being read from the network
+     * as they are decoded
+     *
+     * @param update       The update to process
+     * @param in           Input to read the rectangles from
+     * @param bytes        The number of bytes received from the network for the update
+     * @param networkNanos The time taken to receive the update, in nanoseconds
+     * @throws VncException if the update cannot be processed
+     */
+    public void processUpdate(FramebufferUpdate update, InputStream in, long bytes, long networkNanos)
+            throws VncException {
+        long requestTime = session.takeFramebufferUpdateRequestTime();
+        long startTime = System.nanoTime();
+        render(update, in);
+        reportStatistics(update, requestTime, startTime - networkNanos, bytes, networkNanos);
+    }
+
+    private void render(FramebufferUpdate update, InputStream in) throws VncException {
         try {
+            damage.clear();
             for (int i = 0; i < update.getNumberOfRectangles(); i++) {
                 Rectangle rectangle = Rectangle.decode(in);
                 if (rectangle.getEncoding() == DESKTOP_SIZE) {
+                    awaitDecoding();
                     resizeFramebuffer(rectangle);
+                    damage.clear();
+                    damage.add(0, 0, frame.getWidth(), frame.getHeight());
                 } else if (rectangle.getEncoding() == CURSOR) {
                     updateCursor(rectangle, in);
+                } else if (rectangle.getEncoding() == QEMU_EXTENDED_KEY_EVENT) {
+                    session.setExtendedKeyEventsSupported(true);
                 } else {
-                    renderers.get(rectangle.getEncoding()).render(in, frame, rectangle);
+                    if (parallelDecoder == null || !parallelDecoder.decode(in, frame, rectangle)) {
+                        renderers.get(rectangle.getEncoding()).render(in, frame, rectangle);
+                    }
+                    addDamage(rectangle);
                 }
             }
+            awaitDecoding();
             paint();
             session.framebufferUpdated();
         } catch (IOException e) {
@@ -60,10 +116,64 @@ public class Framebuffer {
         }
     }
 
+    /**
+     * @param startTime    When we started receiving the update
+     * @param bytes        The number of bytes received for the update
+     * @param networkNanos Time spent waiting for the network while receiving the update
+     */
+    private void reportStatistics(FramebufferUpdate update, long requestTime, long startTime, long bytes,
+                                  long networkNanos) {
+        Consumer<UpdateStatistics> internalListener = session.getUpdateStatisticsListener();
+        Consumer<UpdateStatistics> listener = session.getConfig().getUpdateStatisticsListener();
+        if (internalListener == null && listener == null) {
+            return;
+        }
+        long decodeNanos = Math.max(0L, System.nanoTime() - startTime - networkNanos);
+        long roundTripNanos = requestTime != 0L ? startTime - requestTime : -1L;
+        UpdateStatistics statistics = new UpdateStatistics(update.getNumberOfRectangles(), bytes, networkNanos,
+                decodeNanos, roundTripNanos);
+        if (internalListener != null) {
+            internalListener.accept(statistics);
+        }
+        if (listener != null) {
+            listener.accept(statistics);
+        }
+    }
+
+    private void awaitDecoding() throws VncException {
+        if (parallelDecoder != null) {
+            parallelDecoder.await();
+        }
+    }
+
+    private void addDamage(Rectangle rectangle) {
+        int x = Math.min(rectangle.getX(), frame.getWidth());
+        int y = Math.min(rectangle.getY(), frame.getHeight());
+        int width = Math.min(rectangle.getWidth(), frame.getWidth() - x);
+        int height = Math.min(rectangle.getHeight(), frame.getHeight() - y);
+        damage.add(x, y, width, height);
+    }
+
     private void paint() {
+        ImageBuffer image = frame;
+        FrameSnapshots snapshots = session.getFrameSnapshots();
+        if (snapshots != null) {
+            FrameSnapshot snapshot = snapshots.publish(frame, damage.getRectangles());
+            FrameDelivery delivery = session.getFrameDelivery();
+            if (delivery != null) {
+                snapshot.tryRetain();
+                delivery.offer(snapshot, snapshot.getDamage());
+                return;
+            }
+            image = snapshot.getImage();
+        }
         Consumer<ImageBuffer> listener = session.getConfig().getScreenUpdateListener();
         if (listener != null) {
-            listener.accept(frame);
+            listener.accept(image);
+        }
+        VernacularConfig.ScreenDamageListener damageListener = session.getConfig().getScreenDamageListener();
+        if (damageListener != null && !damage.isEmpty()) {
+            damageListener.update(image, damage.getRectangles());
         }
     }
 
@@ -71,18 +181,15 @@ public class Framebuffer {
         for (int i = 0; i < update.getColors().size(); i++) {
            colorMap.put(Long.valueOf(i + update.getFirstColor()), update.getColors().get(i));
         }
+        pixelDecoder.updatePalette();
     }
 
-    private void resizeFramebuffer(Rectangle newSize) {
+    private void resizeFramebuffer(Rectangle newSize) throws IOException {
         int width = newSize.getWidth();
         int height = newSize.getHeight();
         session.setFramebufferWidth(width);
         session.setFramebufferHeight(height);
-        var resized = new ImageBuffer(width, height, false);
-        frame = resized;
-//        BufferedImage resized = new BufferedImage(width, height, TYPE_INT_RGB);
-//        resized.getGraphics().drawImage(frame, 0, 0, null);
-//        frame = resized;
+        frame = frame.resize(width, height);
     }
 
     private void updateCursor(Rectangle cursor, InputStream in) throws VncException {
@@ -1,61 +1,271 @@
 package com.shinyhut.vernacular.client.rendering;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An image made up of 32-bit (A)RGB pixels, stored row by row.
+ * <p>
+ * The pixels are kept on the Java heap by default. They can instead be kept off the heap in a direct buffer
+ * ({@link #allocateDirect(int, int, boolean)}), or in a file which is mapped into memory ({@link #map(Path, int, int,
+ * boolean)}), so that large images do not add to the size of the heap or to garbage collection pauses. Only images kept
+ * on the heap have an array ({@link #hasArray()}); every other operation works with any kind of storage.
+ */
 public class ImageBuffer {
 
     private final int width;
     private final int height;
     private final boolean alpha;
+    private final IntBuffer pixels;
     private final int[] buffer;
+    private final Path file;
 
     public ImageBuffer(int width, int height, boolean alpha) {
+        this(width, height, alpha, IntBuffer.allocate(width * height), null);
+    }
+
+    private ImageBuffer(int width, int height, boolean alpha, IntBuffer pixels, Path file) {
         this.width = width;
         this.height = height;
         this.alpha = alpha;
-        this.buffer = new int[width * height];
+        this.pixels = pixels;
+        this.buffer = pixels.hasArray() ? pixels.array() : null;
+        this.file = file;
+    }
+
+    /**
+     * Creates an image whose pixels are kept in a direct buffer, outside the Java heap, in native byte order
+     */
+    public static ImageBuffer allocateDirect(int width, int height, boolean alpha) {
+        return new ImageBuffer(width, height, alpha, directPixels(width * height), null);
     }
 
+    /**
+     * Creates an image whose pixels are kept in a file which is mapped into memory, so that other processes can read
+     * the image as it is drawn without it being copied. The file holds nothing but the pixels: one 32-bit little endian
+     * (A)RGB value for each, row by row from the top left. It is created if necessary, and extended if it is too
+     * small.
+     *
+     * @param file The file to map
+     * @throws IOException if the file cannot be mapped
+     */
+    public static ImageBuffer map(Path file, int width, int height, boolean alpha) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+            ByteBuffer mapped = channel.map(READ_WRITE, 0, (long) width * height * Integer.BYTES);
+            return new ImageBuffer(width, height, alpha, mapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(), file);
+        }
+    }
+
+    /**
+     * @return true if the pixels are kept in an array on the heap, which {@link #getBuffer()} returns
+     */
+    public boolean hasArray() {
+        return buffer != null;
+    }
+
+    /**
+     * @return The array holding the pixels, row by row
+     * @throws UnsupportedOperationException if the pixels are not kept on the heap
+     * @see #hasArray()
+     */
     public int[] getBuffer() {
+        if (buffer == null) {
+            throw new UnsupportedOperationException("Image pixels are not kept in an array");
+        }
         return buffer;
     }
 
-    public ImageBuffer extend(int nw, int nh) {
-        var b = new ImageBuffer(nw, nh, alpha);
-        for (int ox = 0; ox < nw; ox++) {
-            for (int oy = 0; oy < nh; oy++) {
-                b.buffer[b.flatIndex(ox, oy)] = ox < width && oy < height ? buffer[flatIndex(ox, oy)] : 0;
+    /**
+     * @return A view of the pixels, row by row. Its position and limit are independent of this image's, but its content
+     * is shared.
+     */
+    public IntBuffer getPixels() {
+        return pixels.duplicate();
+    }
+
+    /**
+     * @return The file holding the pixels, or null if they are not kept in a file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns a copy of this image at a different size, which keeps its pixels in the same kind of storage as this one.
+     * The pixels which fit within both sizes are kept, and any new pixels are blank. For a mapped file, the file is
+     * mapped again at the new size, so this image shares the file with the copy and must no longer be used.
+     *
+     * @throws IOException if a mapped file cannot be mapped again
+     */
+    public ImageBuffer extend(int nw, int nh) throws IOException {
+        int rowLength = Math.min(width, nw);
+        int rows = Math.min(height, nh);
+        if (file != null) {
+            // The file is about to be laid out at the new width, so the pixels we keep are copied out of it first
+            int[] kept = new int[rowLength * rows];
+            for (int y = 0; y < rows; y++) {
+                getRow(0, y, kept, y * rowLength, rowLength);
+            }
+            ImageBuffer b = resize(nw, nh);
+            for (int y = 0; y < rows; y++) {
+                b.setRow(0, y, kept, y * rowLength, rowLength);
+            }
+            return b;
+        }
+        ImageBuffer b = resize(nw, nh);
+        int[] row = b.buffer == null ? new int[rowLength] : null;
+        for (int y = 0; y < rows; y++) {
+            if (row == null) {
+                getRow(0, y, b.buffer, y * nw, rowLength);
+            } else {
+                getRow(0, y, row, 0, rowLength);
+                b.setRow(0, y, row, 0, rowLength);
             }
         }
         return b;
     }
 
+    /**
+     * Returns a blank image of a different size, which keeps its pixels in the same kind of storage as this one. Heap
+     * and direct images get new memory, so this image is left as it is for anyone still holding it. A mapped file is
+     * mapped again at the new size, so this image shares the file with the new one and must no longer be used.
+     *
+     * @throws IOException if a mapped file cannot be mapped again
+     */
+    public ImageBuffer resize(int nw, int nh) throws IOException {
+        if (file != null) {
+            ImageBuffer resized = map(file, nw, nh, alpha);
+            resized.fillRect(0, 0, nw, nh, 0);
+            return resized;
+        }
+        if (buffer != null) {
+            return new ImageBuffer(nw, nh, alpha);
+        }
+        return allocateDirect(nw, nh, alpha);
+    }
+
     private int flatIndex(int x, int y) {
-        return y * width + (x % width);
+        return y * width + x;
     }
 
     public void set(int x, int y, int color) {
-        buffer[flatIndex(x, y)] = color;
+        if (buffer != null) {
+            buffer[flatIndex(x, y)] = color;
+        } else {
+            pixels.put(flatIndex(x, y), color);
+        }
     }
 
+    /**
+     * Copies pixels into part of a row. The pixels must all lie within this image.
+     *
+     * @param source The pixels to copy
+     * @param offset The index of the first pixel to copy in the source array
+     * @param length The number of pixels to copy
+     */
+    public void setRow(int x, int y, int[] source, int offset, int length) {
+        if (buffer != null) {
+            System.arraycopy(source, offset, buffer, flatIndex(x, y), length);
+        } else {
+            IntBuffer target = pixels.duplicate();
+            target.position(flatIndex(x, y));
+            target.put(source, offset, length);
+        }
+    }
+
+    /**
+     * Copies pixels out of part of a row. The pixels must all lie within this image.
+     *
+     * @param destination The array to copy the pixels into
+     * @param offset      The index in the destination array of the first pixel
+     * @param length      The number of pixels to copy
+     */
+    public void getRow(int x, int y, int[] destination, int offset, int length) {
+        if (buffer != null) {
+            System.arraycopy(buffer, flatIndex(x, y), destination, offset, length);
+        } else {
+            IntBuffer source = pixels.duplicate();
+            source.position(flatIndex(x, y));
+            source.get(destination, offset, length);
+        }
+    }
+
+    /**
+     * Fills a rectangle with a single color. Any part of the rectangle outside this buffer is ignored.
+     */
     public void fillRect(int x, int y, int width, int height, int color) {
-        for (int ox = 0; ox < width; ox++) {
-            for (int oy = 0; oy < height; oy++) {
-                buffer[flatIndex(x + ox, y + oy)] = color;
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + width, this.width);
+        int y1 = Math.min(y + height, this.height);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        for (int row = y0; row < y1; row++) {
+            int offset = flatIndex(x0, row);
+            if (buffer != null) {
+                Arrays.fill(buffer, offset, offset + (x1 - x0), color);
+            } else {
+                for (int i = offset; i < offset + (x1 - x0); i++) {
+                    pixels.put(i, color);
+                }
             }
         }
     }
 
     public int get(int x, int y) {
-        return buffer[flatIndex(x, y)];
+        return buffer != null ? buffer[flatIndex(x, y)] : pixels.get(flatIndex(x, y));
     }
 
+    /**
+     * Copies a rectangle to another position within this buffer, as required by the CopyRect encoding. Source and
+     * target may overlap in either direction. Any part of either rectangle outside this buffer is ignored.
+     */
     public void duplicate(int x, int y, int width, int height, int targetX, int targetY) {
-        for (int ox = 0; ox < width; ox++) {
-            for (int oy = 0; oy < height; oy++) {
-                buffer[flatIndex(targetX + ox, targetY + oy)] = buffer[flatIndex(x + ox,y + oy)];
+        int clipLeft = Math.max(0, Math.max(-x, -targetX));
+        int clipTop = Math.max(0, Math.max(-y, -targetY));
+        x += clipLeft;
+        targetX += clipLeft;
+        y += clipTop;
+        targetY += clipTop;
+        int rowLength = Math.min(width - clipLeft, Math.min(this.width - x, this.width - targetX));
+        int rows = Math.min(height - clipTop, Math.min(this.height - y, this.height - targetY));
+        if (rowLength <= 0 || rows <= 0) {
+            return;
+        }
+        // Without an array, each row goes through a temporary copy, which also takes care of rows which overlap
+        int[] row = buffer == null ? new int[rowLength] : null;
+        if (targetY > y) {
+            // Moving down: copy from the bottom row upwards so we never read a row we've already overwritten
+            for (int r = rows - 1; r >= 0; r--) {
+                copyRow(x, y + r, targetX, targetY + r, rowLength, row);
+            }
+        } else {
+            for (int r = 0; r < rows; r++) {
+                copyRow(x, y + r, targetX, targetY + r, rowLength, row);
             }
         }
     }
 
+    private void copyRow(int x, int y, int targetX, int targetY, int length, int[] row) {
+        if (buffer != null) {
+            System.arraycopy(buffer, flatIndex(x, y), buffer, flatIndex(targetX, targetY), length);
+        } else {
+            getRow(x, y, row, 0, length);
+            setRow(targetX, targetY, row, 0, length);
+        }
+    }
+
     public int getWidth() {
         return width;
     }
@@ -67,4 +277,8 @@ public class ImageBuffer {
     public boolean isAlpha() {
         return alpha;
     }
+
+    private static IntBuffer directPixels(int size) {
+        return ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
 }
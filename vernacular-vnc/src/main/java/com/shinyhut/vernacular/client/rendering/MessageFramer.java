@@ -0,0 +1,497 @@
+package com.shinyhut.vernacular.client.rendering;
+
+import com.shinyhut.vernacular.client.exceptions.InvalidMessageException;
+import com.shinyhut.vernacular.client.exceptions.InvalidRleEncodingException;
+import com.shinyhut.vernacular.client.exceptions.InvalidTightEncodingException;
+import com.shinyhut.vernacular.client.exceptions.UnknownMessageTypeException;
+import com.shinyhut.vernacular.client.exceptions.UnsupportedEncodingException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.renderers.TRLERenderer;
+import com.shinyhut.vernacular.protocol.messages.Encoding;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Works out where each message from the server ends, without decoding it, so that messages can be read from a
+ * non-blocking channel and only handed to the (blocking) decoders once they have been received completely.
+ * <p>
+ * Most messages start with their length, but framebuffer updates have to be scanned rectangle by rectangle, and
+ * Hextile and TRLE rectangles tile by tile. Scanning is resumable: when the data received so far ends part way through
+ * a message, the framer remembers how far it got, and carries on from the last complete rectangle or tile when more
+ * data arrives, so each byte of a large update is only examined once.
+ * <p>
+ * A framer tracks the state of a single connection (the TRLE palette carries over from one tile to the next), so
+ * every message received on the connection must be passed through it in order.
+ */
+public class MessageFramer {
+
+    /**
+     * Returned by {@link #frame(ByteBuffer)} when the buffer does not yet hold a complete message
+     */
+    public static final int INCOMPLETE = -1;
+
+    private static final int HEXTILE_TILE_SIZE = 16;
+    private static final int TRLE_TILE_SIZE = 16;
+    private static final int TIGHT_MIN_TO_COMPRESS = 12;
+
+    private final int bytesPerPixel;
+    private final int compactBytesPerPixel;
+    private final int tightBytesPerPixel;
+
+    private ByteBuffer buffer;
+    private int start;
+    private int available;
+
+    private int messageType = -1;
+    private int offset;
+    private int requiredLength;
+    private int rectanglesRemaining = -1;
+
+    private boolean inRectangle;
+    private Encoding encoding;
+    private int width;
+    private int height;
+    private int tile;
+
+    private int trlePaletteSize;
+
+    /**
+     * @param pixelFormat Pixel format for the session
+     */
+    public MessageFramer(PixelFormat pixelFormat) {
+        this.bytesPerPixel = pixelFormat.getBytesPerPixel();
+        this.compactBytesPerPixel = TRLERenderer.compactBytesPerPixel(pixelFormat);
+        this.tightBytesPerPixel = Math.min(pixelFormat.getBytesPerPixel(), 3);
+    }
+
+    /**
+     * Looks for a complete message at the start of the specified buffer. The buffer is not modified.
+     * <p>
+     * If the message is incomplete, the data already scanned must still be at the start of the buffer the next time
+     * this is called (it may be moved or compacted, but not consumed).
+     *
+     * @param buffer Buffer holding data received from the server, from its position to its limit
+     * @return The length of the message at the buffer's position, or {@link #INCOMPLETE} if more data is needed
+     * @throws VncException if the message is invalid
+     */
+    public int frame(ByteBuffer buffer) throws VncException {
+        this.buffer = buffer;
+        this.start = buffer.position();
+        this.available = buffer.remaining();
+        try {
+            if (!scanMessage()) {
+                return INCOMPLETE;
+            }
+            int length = offset;
+            reset();
+            return length;
+        } finally {
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * Looks for the complete data of a single rectangle (not including its header) at the start of the specified buffer,
+     * in the same resumable way as {@link #frame(ByteBuffer)}. This must not be mixed with framing whole messages.
+     *
+     * @param buffer    Buffer holding the rectangle's data, from its position to its limit
+     * @param rectangle The rectangle's header
+     * @return The length of the rectangle's data, or {@link #INCOMPLETE} if more data is needed
+     * @throws VncException if the rectangle is invalid
+     */
+    public int frameRectangle(ByteBuffer buffer, Rectangle rectangle) throws VncException {
+        this.buffer = buffer;
+        this.start = buffer.position();
+        this.available = buffer.remaining();
+        try {
+            if (!inRectangle && rectanglesRemaining != 0) {
+                width = rectangle.getWidth();
+                height = rectangle.getHeight();
+                encoding = rectangle.getEncoding();
+                offset = 0;
+                tile = 0;
+                inRectangle = true;
+            }
+            if (inRectangle) {
+                if (!scanRectangle()) {
+                    return INCOMPLETE;
+                }
+                inRectangle = false;
+                rectanglesRemaining = 0;
+            }
+            if (!has(offset)) {
+                return INCOMPLETE;
+            }
+            int length = offset;
+            reset();
+            return length;
+        } finally {
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * @return After a frame method has returned {@link #INCOMPLETE}, the number of bytes (from the start of the
+     * message or rectangle) which must be available before scanning can progress
+     */
+    public int getRequiredLength() {
+        return requiredLength;
+    }
+
+    private void reset() {
+        messageType = -1;
+        offset = 0;
+        requiredLength = 0;
+        rectanglesRemaining = -1;
+        inRectangle = false;
+    }
+
+    private boolean scanMessage() throws VncException {
+        if (messageType < 0) {
+            if (!has(1)) {
+                return false;
+            }
+            messageType = u8(0);
+        }
+        switch (messageType) {
+            case 0x00:
+                return scanFramebufferUpdate();
+            case 0x01:
+                return has(6) && complete(6 + 6L * u16(4), "SetColorMapEntries");
+            case 0x02:
+            case 0x96:
+                return complete(1, null);
+            case 0x03:
+                return has(8) && complete(8 + Math.abs((long) s32(4)), "ServerCutText");
+            case 0xF8:
+                if (!has(9)) {
+                    return false;
+                }
+                if (u8(8) > 64) {
+                    throw new InvalidMessageException("Fence");
+                }
+                return complete(9 + u8(8), null);
+            default:
+                throw new UnknownMessageTypeException(messageType);
+        }
+    }
+
+    private boolean scanFramebufferUpdate() throws VncException {
+        if (rectanglesRemaining < 0) {
+            if (!has(4)) {
+                return false;
+            }
+            rectanglesRemaining = u16(2);
+            offset = 4;
+        }
+        while (true) {
+            if (!inRectangle) {
+                if (rectanglesRemaining == 0) {
+                    return has(offset);
+                }
+                if (!has(offset + 12)) {
+                    return false;
+                }
+                width = u16(offset + 4);
+                height = u16(offset + 6);
+                encoding = Encoding.resolve(s32(offset + 8));
+                offset += 12;
+                rectanglesRemaining--;
+                inRectangle = true;
+                tile = 0;
+            }
+            if (!scanRectangle()) {
+                return false;
+            }
+            inRectangle = false;
+        }
+    }
+
+    private boolean scanRectangle() throws VncException {
+        switch (encoding) {
+            case RAW:
+                return skip((long) width * height * bytesPerPixel);
+            case COPYRECT:
+                return skip(4);
+            case RRE:
+                return has(offset + 4) && skip(4 + bytesPerPixel + u32(offset) * (bytesPerPixel + 8));
+            case HEXTILE:
+                return scanHextileTiles();
+            case ZLIB:
+            case ZRLE:
+                return has(offset + 4) && skip(4 + u32(offset));
+            case TRLE:
+                return scanTrleTiles();
+            case TIGHT:
+                return scanTight();
+            case CURSOR:
+                return skip((long) width * height * bytesPerPixel + (long) ((width + 7) / 8) * height);
+            case DESKTOP_SIZE:
+            case QEMU_EXTENDED_KEY_EVENT:
+                return true;
+            default:
+                throw new UnsupportedEncodingException(encoding.getCode());
+        }
+    }
+
+    private boolean scanHextileTiles() throws VncException {
+        int horizontalTiles = (width + HEXTILE_TILE_SIZE - 1) / HEXTILE_TILE_SIZE;
+        int tileCount = horizontalTiles * ((height + HEXTILE_TILE_SIZE - 1) / HEXTILE_TILE_SIZE);
+        while (tile < tileCount) {
+            int tileWidth = tileSize(tile % horizontalTiles, width, HEXTILE_TILE_SIZE);
+            int tileHeight = tileSize(tile / horizontalTiles, height, HEXTILE_TILE_SIZE);
+            if (!has(offset + 1)) {
+                return false;
+            }
+            int subencoding = u8(offset);
+            long length = 1;
+            if ((subencoding & 0x01) != 0) {
+                length += (long) tileWidth * tileHeight * bytesPerPixel;
+            } else {
+                if ((subencoding & 0x02) != 0) {
+                    length += bytesPerPixel;
+                }
+                if ((subencoding & 0x04) != 0) {
+                    length += bytesPerPixel;
+                }
+                if ((subencoding & 0x08) != 0) {
+                    if (!has(offset + length + 1)) {
+                        return false;
+                    }
+                    int subrects = u8((int) (offset + length));
+                    length += 1 + (long) subrects * ((subencoding & 0x10) != 0 ? bytesPerPixel + 2 : 2);
+                }
+            }
+            advance(length);
+            tile++;
+        }
+        return true;
+    }
+
+    private boolean scanTrleTiles() throws VncException {
+        int horizontalTiles = (width + TRLE_TILE_SIZE - 1) / TRLE_TILE_SIZE;
+        int tileCount = horizontalTiles * ((height + TRLE_TILE_SIZE - 1) / TRLE_TILE_SIZE);
+        while (tile < tileCount) {
+            int tileWidth = tileSize(tile % horizontalTiles, width, TRLE_TILE_SIZE);
+            int tileHeight = tileSize(tile / horizontalTiles, height, TRLE_TILE_SIZE);
+            if (!scanTrleTile(tileWidth, tileHeight)) {
+                return false;
+            }
+            tile++;
+        }
+        return true;
+    }
+
+    /**
+     * Scans a single TRLE tile. The tile is only consumed (and the palette size updated) once all of it is available.
+     */
+    private boolean scanTrleTile(int tileWidth, int tileHeight) throws VncException {
+        if (!has(offset + 1)) {
+            return false;
+        }
+        int subencoding = u8(offset);
+        long position = offset + 1;
+        int paletteSize = trlePaletteSize;
+        int area = tileWidth * tileHeight;
+        if (subencoding == 0) {
+            position += (long) area * compactBytesPerPixel;
+        } else if (subencoding == 1) {
+            position += compactBytesPerPixel;
+        } else if (subencoding <= 16) {
+            paletteSize = subencoding;
+            position += (long) paletteSize * compactBytesPerPixel + packedLength(paletteSize, tileWidth, tileHeight);
+        } else if (subencoding == 127) {
+            requirePalette(paletteSize);
+            if (paletteSize > 16) {
+                throw new InvalidRleEncodingException("Palette of " + paletteSize + " colors cannot be packed");
+            }
+            position += packedLength(paletteSize, tileWidth, tileHeight);
+        } else if (subencoding == 128) {
+            position = scanRuns(position, area, -1);
+        } else if (subencoding == 129) {
+            requirePalette(paletteSize);
+            position = scanRuns(position, area, paletteSize);
+        } else if (subencoding >= 130) {
+            paletteSize = subencoding - 128;
+            position = scanRuns(position + (long) paletteSize * compactBytesPerPixel, area, paletteSize);
+        } else {
+            throw new InvalidRleEncodingException("Unsupported tile subencoding " + subencoding);
+        }
+        if (position < 0) {
+            return false;
+        }
+        advance(position - offset);
+        trlePaletteSize = paletteSize;
+        return true;
+    }
+
+    /**
+     * Scans the runs making up an RLE tile
+     *
+     * @param position    Position of the first run
+     * @param area        Number of pixels in the tile
+     * @param paletteSize Size of the palette, for palette RLE tiles, or -1 for plain RLE tiles
+     * @return The position after the last run, or -1 if more data is needed
+     */
+    private long scanRuns(long position, int area, int paletteSize) throws VncException {
+        int filled = 0;
+        while (filled < area) {
+            boolean hasRunLength = true;
+            if (paletteSize < 0) {
+                position += compactBytesPerPixel;
+            } else {
+                if (!has(position + 1)) {
+                    return -1;
+                }
+                int index = u8((int) position++);
+                hasRunLength = (index & 0x80) != 0;
+                if ((index & 0x7F) >= paletteSize) {
+                    throw new InvalidRleEncodingException("Palette index " + (index & 0x7F) + " out of range");
+                }
+            }
+            int run = 1;
+            if (hasRunLength) {
+                int b;
+                do {
+                    if (!has(position + 1)) {
+                        return -1;
+                    }
+                    b = u8((int) position++);
+                    run += b;
+                } while (b == 255);
+            }
+            if (run > area - filled) {
+                throw new InvalidRleEncodingException("RLE run extends beyond the end of the tile");
+            }
+            filled += run;
+        }
+        return position;
+    }
+
+    private boolean scanTight() throws VncException {
+        if (!has(offset + 1)) {
+            return false;
+        }
+        int subencoding = u8(offset);
+        long position = offset + 1;
+        if (subencoding == 0x80) {
+            position += tightBytesPerPixel;
+        } else if (subencoding == 0x90) {
+            position = skipCompactLength(position);
+        } else {
+            int colors = 0;
+            long rowSize = width;
+            if ((subencoding & 0x40) != 0) {
+                if (!has(position + 1)) {
+                    return false;
+                }
+                int filter = u8((int) position++);
+                if (filter == 1) {
+                    if (!has(position + 1)) {
+                        return false;
+                    }
+                    colors = u8((int) position++) + 1;
+                    position += (long) colors * tightBytesPerPixel;
+                    if (colors == 2) {
+                        rowSize = (width + 7) / 8;
+                    }
+                } else if (filter != 0) {
+                    throw new InvalidTightEncodingException("Unsupported tight filter " + filter);
+                }
+            }
+            if (colors == 0) {
+                rowSize *= tightBytesPerPixel;
+            }
+            long dataSize = height * rowSize;
+            position = dataSize >= TIGHT_MIN_TO_COMPRESS ? skipCompactLength(position) : position + dataSize;
+        }
+        if (position < 0) {
+            return false;
+        }
+        advance(position - offset);
+        return true;
+    }
+
+    /**
+     * @return The position after a Tight compact length and the data it describes, or -1 if more data is needed
+     */
+    private long skipCompactLength(long position) {
+        int length = 0;
+        for (int i = 0; i < 3; i++) {
+            if (!has(position + 1)) {
+                return -1;
+            }
+            int b = u8((int) position++);
+            length |= (i < 2 ? b & 0x7F : b) << (7 * i);
+            if (i < 2 && (b & 0x80) == 0) {
+                break;
+            }
+        }
+        return position + length;
+    }
+
+    private static int packedLength(int paletteSize, int tileWidth, int tileHeight) {
+        int bits = paletteSize == 2 ? 1 : paletteSize <= 4 ? 2 : 4;
+        int pixelsPerByte = 8 / bits;
+        return (tileWidth + pixelsPerByte - 1) / pixelsPerByte * tileHeight;
+    }
+
+    private static void requirePalette(int paletteSize) throws InvalidRleEncodingException {
+        if (paletteSize == 0) {
+            throw new InvalidRleEncodingException("Palette reuse requested but no palette has been sent");
+        }
+    }
+
+    private static int tileSize(int tileNo, int rectangleSize, int tileSize) {
+        return Math.min(tileSize, rectangleSize - tileNo * tileSize);
+    }
+
+    private boolean has(long length) {
+        if (available >= length) {
+            return true;
+        }
+        requiredLength = (int) Math.min(length, Integer.MAX_VALUE);
+        return false;
+    }
+
+    private boolean complete(long length, String messageName) throws VncException {
+        if (length > Integer.MAX_VALUE) {
+            throw new InvalidMessageException(messageName);
+        }
+        if (!has(length)) {
+            return false;
+        }
+        offset = (int) length;
+        return true;
+    }
+
+    private boolean skip(long length) throws VncException {
+        advance(length);
+        return true;
+    }
+
+    private void advance(long length) throws VncException {
+        if (offset + length > Integer.MAX_VALUE) {
+            throw new InvalidMessageException("FramebufferUpdate");
+        }
+        offset += (int) length;
+    }
+
+    private int u8(int index) {
+        return buffer.get(start + index) & 0xFF;
+    }
+
+    private int u16(int index) {
+        return buffer.getShort(start + index) & 0xFFFF;
+    }
+
+    private int s32(int index) {
+        return buffer.getInt(start + index);
+    }
+
+    private long u32(int index) {
+        return s32(index) & 0xFFFFFFFFL;
+    }
+}
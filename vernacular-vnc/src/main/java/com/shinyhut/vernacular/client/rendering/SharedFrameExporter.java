@@ -0,0 +1,232 @@
+package com.shinyhut.vernacular.client.rendering;
+
+import com.shinyhut.vernacular.client.VernacularConfig;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Publishes the remote desktop into a file which is mapped into memory, so that other processes on the same host can
+ * read each frame as soon as it is drawn, without it being serialised or copied through a pipe.
+ * <p>
+ * To use it, set it as the screen damage listener: {@code config.setScreenDamageListener(exporter)}. Each session needs
+ * its own exporter and file.
+ * <p>
+ * All values in the file are little endian. It starts with a header of {@link #HEADER_SIZE} bytes:
+ * <pre>
+ *  offset  type     field
+ *  0       int      magic number, {@link #MAGIC} ("VNCF")
+ *  4       int      layout version, {@link #VERSION}
+ *  8       long     sequence number: odd while a frame is being published, even otherwise
+ *  16      long     frame number, starting at 1 (0 means nothing has been published yet)
+ *  24      int      width of the frame
+ *  28      int      height of the frame
+ *  32      int      pixel area holding the frame: 0 or 1
+ *  36      int      capacity of each pixel area, in pixels
+ *  40      int      number of dirty rectangles, at most {@link #MAX_DIRTY_RECTANGLES}
+ *  44      int      reserved
+ *  48      int[4]*  dirty rectangles (x, y, width, height): the areas changed since the previous frame
+ * </pre>
+ * The header is followed by two pixel areas, each holding one 32-bit (A)RGB value per pixel, row by row from the top
+ * left. While readers look at the frame in one area, the next frame is drawn into the other, so readers are only held
+ * up if they take longer than a whole frame to read one.
+ * <p>
+ * A frame is read like a seqlock: read the sequence number and retry if it is odd; read the header and pixels; then
+ * read the sequence number again, and if it has changed, discard what was read and try again. If the area capacity
+ * has grown since the file was mapped, it must be mapped again. {@link SharedFrameReader} does all of this.
+ */
+public class SharedFrameExporter implements VernacularConfig.ScreenDamageListener, Closeable {
+
+    public static final int MAGIC = 0x46434E56;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 4096;
+    public static final int MAX_DIRTY_RECTANGLES = 64;
+
+    static final int SEQUENCE = 8;
+    static final int FRAME_NUMBER = 16;
+    static final int WIDTH = 24;
+    static final int HEIGHT = 28;
+    static final int ACTIVE_AREA = 32;
+    static final int AREA_CAPACITY = 36;
+    static final int DIRTY_COUNT = 40;
+    static final int DIRTY_RECTANGLES = 48;
+
+    static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, LITTLE_ENDIAN);
+
+    private final FileChannel channel;
+
+    private MappedByteBuffer mapped;
+    private IntBuffer[] areas;
+    private int capacity;
+
+    private long sequence;
+    private long frameNumber;
+    private int activeArea;
+    private int width = -1;
+    private int height = -1;
+
+    private final DamageRegion previousDamage = new DamageRegion();
+    private final DamageRegion pending = new DamageRegion();
+    private int[] row = new int[0];
+
+    /**
+     * @param file The file to publish frames into. It is created if necessary, and replaced if it already exists.
+     * @throws IOException if the file cannot be created
+     */
+    public SharedFrameExporter(Path file) throws IOException {
+        channel = FileChannel.open(file, CREATE, READ, WRITE, TRUNCATE_EXISTING);
+        try {
+            map(0);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void update(ImageBuffer imageBuffer, List<Rectangle> damage) {
+        try {
+            export(imageBuffer, damage);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Publishes a frame
+     *
+     * @param frame  The frame to publish
+     * @param damage The areas of the frame which have changed since the last one published
+     * @throws IOException if the file cannot be extended to hold a larger frame
+     */
+    public synchronized void export(ImageBuffer frame, List<Rectangle> damage) throws IOException {
+        int target = 1 - activeArea;
+        pending.clear();
+        if (frame.getWidth() != width || frame.getHeight() != height) {
+            if ((long) frame.getWidth() * frame.getHeight() > capacity) {
+                map(frame.getWidth() * frame.getHeight());
+            }
+            pending.add(0, 0, frame.getWidth(), frame.getHeight());
+            previousDamage.clear();
+            previousDamage.add(0, 0, frame.getWidth(), frame.getHeight());
+        } else {
+            // The target area last held the frame before the active one, so it has missed the previous frame's changes
+            pending.add(previousDamage);
+            previousDamage.clear();
+            for (Rectangle rectangle : damage) {
+                pending.add(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
+                previousDamage.add(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
+            }
+        }
+
+        // The sequence is odd before any pixel is written, so a reader still looking at the target area (because it
+        // is a whole frame behind) sees that the frame is changing underneath it. The fence stops the pixel writes
+        // from becoming visible before the odd sequence number.
+        LONG.setVolatile(mapped, SEQUENCE, ++sequence);
+        VarHandle.storeStoreFence();
+
+        IntBuffer area = areas[target];
+        for (Rectangle rectangle : pending.getRectangles()) {
+            copy(frame, rectangle, area);
+        }
+        publish(frame.getWidth(), frame.getHeight(), target);
+    }
+
+    private void copy(ImageBuffer frame, Rectangle rectangle, IntBuffer area) {
+        int x0 = Math.max(0, rectangle.x);
+        int y0 = Math.max(0, rectangle.y);
+        int x1 = Math.min(frame.getWidth(), rectangle.x + rectangle.width);
+        int y1 = Math.min(frame.getHeight(), rectangle.y + rectangle.height);
+        int length = x1 - x0;
+        if (length <= 0) {
+            return;
+        }
+        if (row.length < length) {
+            row = new int[length];
+        }
+        for (int y = y0; y < y1; y++) {
+            area.position(y * frame.getWidth() + x0);
+            if (frame.hasArray()) {
+                area.put(frame.getBuffer(), y * frame.getWidth() + x0, length);
+            } else {
+                frame.getRow(x0, y, row, 0, length);
+                area.put(row, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Writes the header for a frame whose pixels have been written, and makes the sequence number even again
+     */
+    private void publish(int width, int height, int target) {
+        List<Rectangle> dirty = previousDamage.getRectangles();
+        mapped.putLong(FRAME_NUMBER, ++frameNumber);
+        mapped.putInt(WIDTH, width);
+        mapped.putInt(HEIGHT, height);
+        mapped.putInt(ACTIVE_AREA, target);
+        mapped.putInt(AREA_CAPACITY, capacity);
+        mapped.putInt(DIRTY_COUNT, dirty.size());
+        int offset = DIRTY_RECTANGLES;
+        for (Rectangle rectangle : dirty) {
+            mapped.putInt(offset, rectangle.x);
+            mapped.putInt(offset + 4, rectangle.y);
+            mapped.putInt(offset + 8, rectangle.width);
+            mapped.putInt(offset + 12, rectangle.height);
+            offset += 16;
+        }
+
+        LONG.setRelease(mapped, SEQUENCE, ++sequence);
+
+        this.width = width;
+        this.height = height;
+        this.activeArea = target;
+    }
+
+    /**
+     * Maps the file with pixel areas large enough for the specified number of pixels. The previous contents of the
+     * areas are not kept, as the next frame is always published in full.
+     */
+    private void map(int pixels) throws IOException {
+        long size = HEADER_SIZE + 2L * pixels * Integer.BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Frame is too large to export: " + pixels + " pixels");
+        }
+        MappedByteBuffer remapped = channel.map(READ_WRITE, 0, size);
+        remapped.order(LITTLE_ENDIAN);
+        if (mapped == null) {
+            remapped.putInt(0, MAGIC);
+            remapped.putInt(4, VERSION);
+        }
+        areas = new IntBuffer[2];
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer area = remapped.duplicate().order(LITTLE_ENDIAN);
+            int start = HEADER_SIZE + i * pixels * Integer.BYTES;
+            area.position(start).limit(start + pixels * Integer.BYTES);
+            areas[i] = area.slice().order(LITTLE_ENDIAN).asIntBuffer();
+        }
+        mapped = remapped;
+        capacity = pixels;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,134 @@
+package com.shinyhut.vernacular.client.rendering;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.shinyhut.vernacular.client.rendering.SharedFrameExporter.*;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Reads the frames published by a {@link SharedFrameExporter}, possibly in another process. Frames are read in place,
+ * from the exporter's file, and a frame is only ever passed on once it has been checked not to have changed while it
+ * was being read.
+ */
+public class SharedFrameReader implements Closeable {
+
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+    private int capacity = -1;
+
+    /**
+     * @param file The file written by the exporter
+     * @throws IOException if the file cannot be opened, or was not written by an exporter
+     */
+    public SharedFrameReader(Path file) throws IOException {
+        channel = FileChannel.open(file, READ);
+        try {
+            map();
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                throw new IOException("Not a shared frame file, or an unsupported version: " + file);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static interface FrameVisitor<T> {
+
+        /**
+         * Looks at a frame. This may be called more than once for a single read, if the frame changes while it is
+         * being looked at; only the result of the last call is returned, so anything done here must be safe to repeat
+         * and must not act on the frame until the read has returned.
+         *
+         * @param frameNumber The number of the frame, which increases by one for each frame published
+         * @param width       The width of the frame
+         * @param height      The height of the frame
+         * @param pixels      The pixels of the frame, row by row
+         * @param dirty       The areas which changed since the previous frame
+         */
+        T visit(long frameNumber, int width, int height, IntBuffer pixels, List<Rectangle> dirty);
+    }
+
+    /**
+     * Reads the most recently published frame
+     *
+     * @param visitor Looks at the frame and returns a result, for example a copy of the area it needs
+     * @return The visitor's result, or null if no frame has been published yet
+     * @throws IOException if the file cannot be mapped again after the exporter has grown it
+     */
+    public <T> T read(FrameVisitor<T> visitor) throws IOException {
+        while (true) {
+            long sequence = (long) LONG.getAcquire(mapped, SEQUENCE);
+            if ((sequence & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long frameNumber = mapped.getLong(FRAME_NUMBER);
+            if (frameNumber == 0) {
+                return null;
+            }
+            int width = mapped.getInt(WIDTH);
+            int height = mapped.getInt(HEIGHT);
+            int area = mapped.getInt(ACTIVE_AREA);
+            int areaCapacity = mapped.getInt(AREA_CAPACITY);
+            int dirtyCount = Math.min(mapped.getInt(DIRTY_COUNT), MAX_DIRTY_RECTANGLES);
+            if (areaCapacity != capacity) {
+                VarHandle.loadLoadFence();
+                if ((long) LONG.getVolatile(mapped, SEQUENCE) == sequence) {
+                    map();
+                }
+                continue;
+            }
+
+            List<Rectangle> dirty = new ArrayList<>(dirtyCount);
+            for (int i = 0, offset = DIRTY_RECTANGLES; i < dirtyCount; i++, offset += 16) {
+                dirty.add(new Rectangle(mapped.getInt(offset), mapped.getInt(offset + 4),
+                        mapped.getInt(offset + 8), mapped.getInt(offset + 12)));
+            }
+            T result = null;
+            boolean consistent = (long) width * height <= capacity && (area == 0 || area == 1);
+            if (consistent) {
+                result = visitor.visit(frameNumber, width, height, pixels(area, width * height), dirty);
+            }
+            VarHandle.loadLoadFence();
+            if ((long) LONG.getVolatile(mapped, SEQUENCE) == sequence && consistent) {
+                return result;
+            }
+        }
+    }
+
+    private IntBuffer pixels(int area, int length) {
+        ByteBuffer pixels = mapped.duplicate().order(LITTLE_ENDIAN);
+        int start = HEADER_SIZE + area * capacity * Integer.BYTES;
+        pixels.position(start).limit(start + length * Integer.BYTES);
+        return pixels.slice().order(LITTLE_ENDIAN).asIntBuffer().asReadOnlyBuffer();
+    }
+
+    private void map() throws IOException {
+        mapped = channel.map(READ_ONLY, 0, channel.size());
+        mapped.order(LITTLE_ENDIAN);
+        capacity = channel.size() >= HEADER_SIZE
+                ? (int) Math.min((channel.size() - HEADER_SIZE) / (2L * Integer.BYTES), Integer.MAX_VALUE)
+                : 0;
+        if (mapped.capacity() < HEADER_SIZE) {
+            throw new IOException("Shared frame file is too short");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
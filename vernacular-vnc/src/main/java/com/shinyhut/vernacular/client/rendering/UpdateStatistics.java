@@ -0,0 +1,63 @@
+package com.shinyhut.vernacular.client.rendering;
+
+/**
+ * Measurements taken while receiving and decoding a single framebuffer update
+ */
+public class UpdateStatistics {
+
+    private final int rectangles;
+    private final long bytes;
+    private final long networkNanos;
+    private final long decodeNanos;
+    private final long roundTripNanos;
+
+    public UpdateStatistics(int rectangles, long bytes, long networkNanos, long decodeNanos, long roundTripNanos) {
+        this.rectangles = rectangles;
+        this.bytes = bytes;
+        this.networkNanos = networkNanos;
+        this.decodeNanos = decodeNanos;
+        this.roundTripNanos = roundTripNanos;
+    }
+
+    /**
+     * @return The number of rectangles in the update
+     */
+    public int getRectangles() {
+        return rectangles;
+    }
+
+    /**
+     * @return The number of bytes received from the network for the body of the update
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The time, in nanoseconds, spent waiting for the body of the update to arrive from the network
+     */
+    public long getNetworkNanos() {
+        return networkNanos;
+    }
+
+    /**
+     * @return The time, in nanoseconds, spent decoding and rendering the update, excluding network waits
+     */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * @return The time, in nanoseconds, between requesting a framebuffer update and the update starting to arrive, or
+     * -1 if the update was not requested. This includes any time the server spent waiting for the screen to change.
+     */
+    public long getRoundTripNanos() {
+        return roundTripNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateStatistics [rectangles=" + rectangles + ", bytes=" + bytes + ", networkNanos=" + networkNanos +
+                ", decodeNanos=" + decodeNanos + ", roundTripNanos=" + roundTripNanos + "]";
+    }
+}
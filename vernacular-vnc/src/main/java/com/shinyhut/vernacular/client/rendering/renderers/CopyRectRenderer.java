@@ -6,17 +6,18 @@ import com.shinyhut.vernacular.client.rendering.ImageBuffer;
 import com.shinyhut.vernacular.protocol.messages.Rectangle;
 
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
 
 public class CopyRectRenderer implements Renderer {
 
     @Override
     public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
         try {
-            DataInput dataInput = new DataInputStream(in);
+            DataInput dataInput = dataInput(in);
             int srcX = dataInput.readUnsignedShort();
             int srcY = dataInput.readUnsignedShort();
             destination.duplicate(srcX, srcY, rectangle.getWidth(), rectangle.getHeight(), rectangle.getX(), rectangle.getY());
@@ -5,11 +5,12 @@ import com.shinyhut.vernacular.client.exceptions.VncException;
 import com.shinyhut.vernacular.client.rendering.ImageBuffer;
 import com.shinyhut.vernacular.protocol.messages.Rectangle;
 
-import java.io.DataInputStream;
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
 
 import static com.shinyhut.vernacular.utils.ByteUtils.bitAt;
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
 
 public class CursorRenderer implements Renderer {
 
@@ -25,7 +26,7 @@ public class CursorRenderer implements Renderer {
             rawRenderer.render(in, destination, 0, 0, rectangle.getWidth(), rectangle.getHeight());
 
             byte[] bitmask = new byte[((rectangle.getWidth() + 7) / 8) * rectangle.getHeight()];
-            new DataInputStream(in).readFully(bitmask);
+            dataInput(in).readFully(bitmask);
 
             int x = 0;
             int y = 0;
@@ -7,11 +7,11 @@ import com.shinyhut.vernacular.protocol.messages.PixelFormat;
 import com.shinyhut.vernacular.protocol.messages.Rectangle;
 
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 import static com.shinyhut.vernacular.utils.ByteUtils.mask;
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
 
 public class HextileRenderer implements Renderer {
 
@@ -24,27 +24,41 @@ public class HextileRenderer implements Renderer {
     private static final int TILE_SIZE = 16;
 
     private final RawRenderer rawRenderer;
-    private final PixelDecoder pixelDecoder;
-    private final PixelFormat pixelFormat;
+    private final PixelConverter pixelConverter;
 
     public HextileRenderer(RawRenderer rawRenderer, PixelDecoder pixelDecoder, PixelFormat pixelFormat) {
-        this.pixelDecoder = pixelDecoder;
         this.rawRenderer = rawRenderer;
-        this.pixelFormat = pixelFormat;
+        this.pixelConverter = pixelDecoder.converterFor(pixelFormat);
     }
 
     @Override
     public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
-        DataInput dataInput = new DataInputStream(in);
+        int verticalTileCount = (rectangle.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+        renderTileRows(in, destination, rectangle, 0, verticalTileCount, 0, 0, rawRenderer);
+    }
+
+    /**
+     * Renders a range of rows of tiles from a rectangle
+     *
+     * @param in          Input positioned at the first tile of the first row
+     * @param firstRow    First row of tiles to render
+     * @param endRow      Row of tiles to stop at
+     * @param background  Background color in effect at the start of the first row
+     * @param foreground  Foreground color in effect at the start of the first row
+     * @param rawRenderer Renderer for raw tiles
+     */
+    void renderTileRows(InputStream in, ImageBuffer destination, Rectangle rectangle, int firstRow, int endRow,
+                        int background, int foreground, RawRenderer rawRenderer) throws VncException {
+        DataInput dataInput = dataInput(in);
 
         int horizontalTileCount = (rectangle.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
         int verticalTileCount = (rectangle.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
 
-        Pixel lastBackground = null;
-        Pixel lastForeground = null;
+        int lastBackground = background;
+        int lastForeground = foreground;
 
         try {
-            for (int tileY = 0; tileY < verticalTileCount; tileY++) {
+            for (int tileY = firstRow; tileY < endRow; tileY++) {
                 for (int tileX = 0; tileX < horizontalTileCount; tileX++) {
                     int tileTopLeftX = rectangle.getX() + (tileX * TILE_SIZE);
                     int tileTopLeftY = rectangle.getY() + (tileY * TILE_SIZE);
@@ -61,17 +75,17 @@ public class HextileRenderer implements Renderer {
                         boolean hasSubrects = mask(subencoding, SUB_ENCODING_MASK_ANY_SUBRECTS);
                         boolean subrectsColored = mask(subencoding, SUB_ENCODING_MASK_SUBRECTS_COLORED);
 
-                        Pixel background = hasBackground ? pixelDecoder.decode(in, pixelFormat) : lastBackground;
-                        Pixel foreground = hasForeground ? pixelDecoder.decode(in, pixelFormat) : lastForeground;
-                        lastBackground = background;
-                        lastForeground = foreground;
+                        int tileBackground = hasBackground ? pixelConverter.read(dataInput) : lastBackground;
+                        int tileForeground = hasForeground ? pixelConverter.read(dataInput) : lastForeground;
+                        lastBackground = tileBackground;
+                        lastForeground = tileForeground;
 
-                        destination.fillRect(tileTopLeftX, tileTopLeftY, tileWidth, tileHeight, background.toInt());
+                        destination.fillRect(tileTopLeftX, tileTopLeftY, tileWidth, tileHeight, tileBackground);
 
                         if (hasSubrects) {
                             int subrectCount = dataInput.readUnsignedByte();
                             for (int s = 0; s < subrectCount; s++) {
-                                Pixel subrectColor = subrectsColored ? pixelDecoder.decode(in, pixelFormat) : foreground;
+                                int subrectColor = subrectsColored ? pixelConverter.read(dataInput) : tileForeground;
                                 int coords = dataInput.readUnsignedByte();
                                 int dimensions = dataInput.readUnsignedByte();
                                 int subrectX = coords >> 4;
@@ -80,7 +94,7 @@ public class HextileRenderer implements Renderer {
                                 int subrectHeight = (dimensions & 0x0f) + 1;
                                 int subrectTopLeftX = tileTopLeftX + subrectX;
                                 int subrectTopLeftY = tileTopLeftY + subrectY;
-                                destination.fillRect(subrectTopLeftX, subrectTopLeftY, subrectWidth, subrectHeight, subrectColor.toInt());
+                                destination.fillRect(subrectTopLeftX, subrectTopLeftY, subrectWidth, subrectHeight, subrectColor);
                             }
                         }
                     }
@@ -91,6 +105,52 @@ public class HextileRenderer implements Renderer {
         }
     }
 
+    /**
+     * Scans the tiles of a rectangle which has already been read into an array, without drawing them, to find where
+     * each row of tiles starts and which background and foreground colors are in effect at that point. Rows of tiles
+     * can then be rendered independently of each other.
+     *
+     * @param data      The rectangle's data
+     * @param rectangle The rectangle
+     * @return Three values for each row of tiles: its offset in the data, and its background and foreground colors
+     */
+    int[] scanTileRows(byte[] data, Rectangle rectangle) {
+        int horizontalTileCount = (rectangle.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        int verticalTileCount = (rectangle.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+        int bytesPerPixel = pixelConverter.getBytesPerPixel();
+        int[] rows = new int[verticalTileCount * 3];
+        int position = 0;
+        int background = 0;
+        int foreground = 0;
+        for (int tileY = 0; tileY < verticalTileCount; tileY++) {
+            rows[tileY * 3] = position;
+            rows[tileY * 3 + 1] = background;
+            rows[tileY * 3 + 2] = foreground;
+            int tileHeight = tileSize(tileY, verticalTileCount, rectangle.getHeight());
+            for (int tileX = 0; tileX < horizontalTileCount; tileX++) {
+                int subencoding = data[position++] & 0xFF;
+                if (mask(subencoding, SUB_ENCODING_MASK_RAW)) {
+                    position += tileSize(tileX, horizontalTileCount, rectangle.getWidth()) * tileHeight * bytesPerPixel;
+                    continue;
+                }
+                if (mask(subencoding, SUB_ENCODING_MASK_BACKGROUND_SPECIFIED)) {
+                    background = pixelConverter.convert(data, position);
+                    position += bytesPerPixel;
+                }
+                if (mask(subencoding, SUB_ENCODING_MASK_FOREGROUND_SPECIFIED)) {
+                    foreground = pixelConverter.convert(data, position);
+                    position += bytesPerPixel;
+                }
+                if (mask(subencoding, SUB_ENCODING_MASK_ANY_SUBRECTS)) {
+                    int subrectCount = data[position++] & 0xFF;
+                    int subrectSize = mask(subencoding, SUB_ENCODING_MASK_SUBRECTS_COLORED) ? bytesPerPixel + 2 : 2;
+                    position += subrectCount * subrectSize;
+                }
+            }
+        }
+        return rows;
+    }
+
     private static int tileSize(int tileNo, int numberOfTiles, int rectangleSize) {
         int overlap = rectangleSize % TILE_SIZE;
         if (tileNo == numberOfTiles -1 && overlap != 0) {
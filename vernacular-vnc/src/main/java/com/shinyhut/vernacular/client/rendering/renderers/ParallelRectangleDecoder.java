@@ -0,0 +1,230 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.client.rendering.MessageFramer;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static com.shinyhut.vernacular.client.rendering.MessageFramer.INCOMPLETE;
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
+/**
+ * Decodes the rectangles of a framebuffer update on a fork/join pool, so that large updates use more than one core.
+ * <p>
+ * Raw, RRE and Hextile rectangles, and Tight rectangles which are filled or JPEG encoded, do not depend on any state
+ * left behind by earlier rectangles. Each of these is read off the wire in full, and then decoded by the pool while
+ * the next rectangle is read. Large Raw and Hextile rectangles are also split into bands of rows (for Hextile, after a
+ * quick pass over the tile headers to find where each row of tiles starts), so that even a single full screen
+ * rectangle is spread across cores.
+ * <p>
+ * Everything else is decoded in order on the calling thread: rectangles that use a shared zlib stream, small
+ * rectangles (which are not worth handing over), and CopyRect. Before anything is drawn over an area which a
+ * rectangle still being decoded will draw to, or copied from the framebuffer, the decoding of earlier rectangles is
+ * finished, so the result is always the same as decoding the rectangles one by one in protocol order.
+ */
+public class ParallelRectangleDecoder {
+
+    private static final int MIN_PARALLEL_PIXELS = 4096;
+    private static final int BAND_PIXELS = 64 * 1024;
+    private static final int TILE_SIZE = 16;
+
+    private static final int TIGHT_FILL = 0x80;
+    private static final int TIGHT_JPEG = 0x90;
+
+    private final ForkJoinPool pool;
+    private final RawRenderer rawRenderer;
+    private final RRERenderer rreRenderer;
+    private final HextileRenderer hextileRenderer;
+    private final TightRenderer tightRenderer;
+    private final MessageFramer framer;
+    private final int bytesPerPixel;
+
+    private final List<ForkJoinTask<?>> pending = new ArrayList<>();
+    private final List<Rectangle> pendingAreas = new ArrayList<>();
+
+    public ParallelRectangleDecoder(ForkJoinPool pool, PixelFormat pixelFormat, RawRenderer rawRenderer,
+                                    RRERenderer rreRenderer, HextileRenderer hextileRenderer,
+                                    TightRenderer tightRenderer) {
+        this.pool = pool;
+        this.rawRenderer = rawRenderer;
+        this.rreRenderer = rreRenderer;
+        this.hextileRenderer = hextileRenderer;
+        this.tightRenderer = tightRenderer;
+        this.framer = new MessageFramer(pixelFormat);
+        this.bytesPerPixel = pixelFormat.getBytesPerPixel();
+    }
+
+    /**
+     * Starts decoding a rectangle, if it can be decoded in parallel with others
+     *
+     * @param in          Input positioned at the rectangle's data
+     * @param destination Destination buffer
+     * @param rectangle   The rectangle's header
+     * @return true if the rectangle has been read and is being (or has been) decoded, or false if the caller must decode
+     * it now. In that case, any earlier rectangle which it depends on has already been finished.
+     * @throws VncException if the rectangle cannot be read, or an earlier rectangle failed to decode
+     */
+    public boolean decode(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
+        switch (rectangle.getEncoding()) {
+            case COPYRECT:
+                await();
+                return false;
+            case RAW:
+            case RRE:
+            case HEXTILE:
+            case TIGHT:
+                break;
+            default:
+                awaitOverlapping(rectangle);
+                return false;
+        }
+
+        awaitOverlapping(rectangle);
+        if ((long) rectangle.getWidth() * rectangle.getHeight() < MIN_PARALLEL_PIXELS) {
+            return false;
+        }
+
+        byte[] data = read(in, rectangle);
+        switch (rectangle.getEncoding()) {
+            case RAW:
+                submitRawBands(data, destination, rectangle);
+                break;
+            case RRE:
+                submit(rectangle, () -> rreRenderer.render(new ByteArrayInputStream(data), destination, rectangle));
+                break;
+            case HEXTILE:
+                submitHextileBands(data, destination, rectangle);
+                break;
+            default:
+                int subencoding = data[0] & 0xFF;
+                if (subencoding == TIGHT_FILL || subencoding == TIGHT_JPEG) {
+                    submit(rectangle, () -> tightRenderer.render(new ByteArrayInputStream(data), destination,
+                            rectangle));
+                } else {
+                    tightRenderer.render(new ByteArrayInputStream(data), destination, rectangle);
+                }
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until every rectangle started so far has been decoded
+     *
+     * @throws VncException if any of them failed to decode
+     */
+    public void await() throws VncException {
+        VncException failure = null;
+        for (ForkJoinTask<?> task : pending) {
+            try {
+                task.join();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = unwrap(e);
+                }
+            }
+        }
+        pending.clear();
+        pendingAreas.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void awaitOverlapping(Rectangle rectangle) throws VncException {
+        for (Rectangle area : pendingAreas) {
+            if (overlaps(area, rectangle)) {
+                await();
+                return;
+            }
+        }
+    }
+
+    private static boolean overlaps(Rectangle a, Rectangle b) {
+        return a.getX() < b.getX() + b.getWidth() && b.getX() < a.getX() + a.getWidth()
+                && a.getY() < b.getY() + b.getHeight() && b.getY() < a.getY() + a.getHeight();
+    }
+
+    /**
+     * Reads exactly the data for a rectangle from the input
+     */
+    private byte[] read(InputStream in, Rectangle rectangle) throws VncException {
+        try {
+            DataInput dataInput = dataInput(in);
+            byte[] data = new byte[Math.max(16, rectangle.getWidth() * rectangle.getHeight() * bytesPerPixel / 4)];
+            int available = 0;
+            int length;
+            while ((length = framer.frameRectangle(ByteBuffer.wrap(data, 0, available), rectangle)) == INCOMPLETE) {
+                int required = framer.getRequiredLength();
+                if (required > data.length) {
+                    data = Arrays.copyOf(data, Math.max(required, data.length * 2));
+                }
+                dataInput.readFully(data, available, required - available);
+                available = required;
+            }
+            return length == data.length ? data : Arrays.copyOf(data, length);
+        } catch (IOException e) {
+            throw new UnexpectedVncException(e);
+        }
+    }
+
+    private void submitRawBands(byte[] data, ImageBuffer destination, Rectangle rectangle) {
+        int rowsPerBand = Math.max(1, BAND_PIXELS / rectangle.getWidth());
+        int rowLength = rectangle.getWidth() * bytesPerPixel;
+        for (int row = 0; row < rectangle.getHeight(); row += rowsPerBand) {
+            int offset = row * rowLength;
+            int y = rectangle.getY() + row;
+            int rows = Math.min(rowsPerBand, rectangle.getHeight() - row);
+            submit(rectangle, () -> rawRenderer.render(data, offset, destination, rectangle.getX(), y,
+                    rectangle.getWidth(), rows));
+        }
+    }
+
+    private void submitHextileBands(byte[] data, ImageBuffer destination, Rectangle rectangle) {
+        int[] rows = hextileRenderer.scanTileRows(data, rectangle);
+        int tileRows = rows.length / 3;
+        int tileRowsPerBand = Math.max(1, BAND_PIXELS / (rectangle.getWidth() * TILE_SIZE));
+        for (int first = 0; first < tileRows; first += tileRowsPerBand) {
+            int firstRow = first;
+            int endRow = Math.min(tileRows, first + tileRowsPerBand);
+            submit(rectangle, () -> hextileRenderer.renderTileRows(
+                    new ByteArrayInputStream(data, rows[firstRow * 3], data.length - rows[firstRow * 3]),
+                    destination, rectangle, firstRow, endRow, rows[firstRow * 3 + 1], rows[firstRow * 3 + 2],
+                    rawRenderer.fork()));
+        }
+    }
+
+    private void submit(Rectangle area, DecodeTask task) {
+        pending.add(pool.submit(() -> {
+            task.run();
+            return null;
+        }));
+        pendingAreas.add(area);
+    }
+
+    private static VncException unwrap(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof VncException) {
+                return (VncException) cause;
+            }
+        }
+        return new UnexpectedVncException(e);
+    }
+
+    private interface DecodeTask {
+        void run() throws VncException;
+    }
+}
@@ -0,0 +1,381 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * Converts pixels in a particular RFB pixel format into 32-bit ARGB values.
+ * <p>
+ * Instances are obtained from {@link PixelDecoder#converterFor(PixelFormat)}, which selects an implementation
+ * specialised for the pixel format in use, with all per-channel scaling precomputed into lookup tables. Converters
+ * never allocate, so they can be used on the per-pixel hot path of every renderer.
+ */
+public abstract class PixelConverter {
+
+    private static final int OPAQUE = 0xFF000000;
+
+    private final int bytesPerPixel;
+
+    PixelConverter(int bytesPerPixel) {
+        this.bytesPerPixel = bytesPerPixel;
+    }
+
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * Converts a single pixel
+     *
+     * @param src    Source buffer
+     * @param offset Offset of the first byte of the pixel within the source buffer
+     * @return The ARGB value of the pixel
+     */
+    public abstract int convert(byte[] src, int offset);
+
+    /**
+     * Converts a run of consecutive pixels, for example a scanline
+     *
+     * @param src       Source buffer
+     * @param srcOffset Offset of the first byte of the first pixel within the source buffer
+     * @param dst       Destination ARGB buffer
+     * @param dstOffset Offset of the first pixel within the destination buffer
+     * @param count     Number of pixels to convert
+     */
+    public void convert(byte[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++, srcOffset += bytesPerPixel) {
+            dst[dstOffset + i] = convert(src, srcOffset);
+        }
+    }
+
+    /**
+     * Reads and converts a single pixel
+     *
+     * @param in Input to read the pixel from
+     * @return The ARGB value of the pixel
+     * @throws IOException on I/O error
+     */
+    public abstract int read(DataInput in) throws IOException;
+
+    static PixelConverter create(PixelFormat pixelFormat, PixelDecoder decoder) {
+        int bytesPerPixel = pixelFormat.getBytesPerPixel();
+        boolean bigEndian = pixelFormat.isBigEndian();
+
+        if (!pixelFormat.isTrueColor()) {
+            return new Indexed(bytesPerPixel, bigEndian, decoder);
+        }
+        if (bytesPerPixel == 1) {
+            return new TrueColor8(pixelFormat);
+        }
+        if (bytesPerPixel == 2) {
+            return new TrueColor16(pixelFormat);
+        }
+        if ((bytesPerPixel == 3 || bytesPerPixel == 4) && isByteAligned888(pixelFormat)) {
+            return new TrueColor888(pixelFormat);
+        }
+        return new Generic(pixelFormat);
+    }
+
+    private static boolean isByteAligned888(PixelFormat pixelFormat) {
+        int maxShift = pixelFormat.getBitsPerPixel() - 8;
+        return pixelFormat.getRedMax() == 255 && pixelFormat.getGreenMax() == 255 && pixelFormat.getBlueMax() == 255
+                && pixelFormat.getRedShift() % 8 == 0 && pixelFormat.getRedShift() <= maxShift
+                && pixelFormat.getGreenShift() % 8 == 0 && pixelFormat.getGreenShift() <= maxShift
+                && pixelFormat.getBlueShift() % 8 == 0 && pixelFormat.getBlueShift() <= maxShift;
+    }
+
+    private static int[] channelTable(int max, int shift) {
+        int[] table = new int[max + 1];
+        for (int i = 0; i <= max; i++) {
+            table[i] = PixelDecoder.stretch(i, max) << shift;
+        }
+        return table;
+    }
+
+    /**
+     * Color-mapped pixels, looked up in the palette maintained by the owning {@link PixelDecoder}
+     */
+    private static final class Indexed extends PixelConverter {
+
+        private final boolean bigEndian;
+        private final PixelDecoder decoder;
+
+        Indexed(int bytesPerPixel, boolean bigEndian, PixelDecoder decoder) {
+            super(bytesPerPixel);
+            this.bigEndian = bigEndian;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public int convert(byte[] src, int offset) {
+            return lookup(decoder.getPalette(), index(src, offset));
+        }
+
+        @Override
+        public void convert(byte[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+            int[] palette = decoder.getPalette();
+            if (getBytesPerPixel() == 1) {
+                for (int i = 0; i < count; i++) {
+                    dst[dstOffset + i] = lookup(palette, src[srcOffset + i] & 0xFF);
+                }
+            } else {
+                for (int i = 0; i < count; i++, srcOffset += getBytesPerPixel()) {
+                    dst[dstOffset + i] = lookup(palette, index(src, srcOffset));
+                }
+            }
+        }
+
+        @Override
+        public int read(DataInput in) throws IOException {
+            int index;
+            if (getBytesPerPixel() == 1) {
+                index = in.readUnsignedByte();
+            } else if (getBytesPerPixel() == 2) {
+                index = in.readUnsignedShort();
+                if (!bigEndian) {
+                    index = Integer.reverseBytes(index) >>> 16;
+                }
+            } else {
+                index = 0;
+                for (int i = 0; i < getBytesPerPixel(); i++) {
+                    int b = in.readUnsignedByte();
+                    index = bigEndian ? (index << 8) | b : index | (b << (8 * i));
+                }
+            }
+            return lookup(decoder.getPalette(), index);
+        }
+
+        private int index(byte[] src, int offset) {
+            if (getBytesPerPixel() == 1) {
+                return src[offset] & 0xFF;
+            }
+            if (getBytesPerPixel() == 2) {
+                int b0 = src[offset] & 0xFF;
+                int b1 = src[offset + 1] & 0xFF;
+                return bigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0;
+            }
+            int index = 0;
+            for (int i = 0; i < getBytesPerPixel(); i++) {
+                int b = src[offset + i] & 0xFF;
+                index = bigEndian ? (index << 8) | b : index | (b << (8 * i));
+            }
+            return index;
+        }
+
+        private static int lookup(int[] palette, int index) {
+            // A 32-bit index with the top bit set is negative, and like any index beyond the palette, has no color
+            return index >= 0 && index < palette.length ? palette[index] : OPAQUE;
+        }
+    }
+
+    /**
+     * 8 bits per pixel true color (e.g. BGR233), converted through a single 256 entry table
+     */
+    private static final class TrueColor8 extends PixelConverter {
+
+        private final int[] table = new int[256];
+
+        TrueColor8(PixelFormat pixelFormat) {
+            super(1);
+            int[] red = channelTable(pixelFormat.getRedMax(), 16);
+            int[] green = channelTable(pixelFormat.getGreenMax(), 8);
+            int[] blue = channelTable(pixelFormat.getBlueMax(), 0);
+            for (int i = 0; i < table.length; i++) {
+                table[i] = OPAQUE
+                        | red[(i >>> pixelFormat.getRedShift()) & pixelFormat.getRedMax()]
+                        | green[(i >>> pixelFormat.getGreenShift()) & pixelFormat.getGreenMax()]
+                        | blue[(i >>> pixelFormat.getBlueShift()) & pixelFormat.getBlueMax()];
+            }
+        }
+
+        @Override
+        public int convert(byte[] src, int offset) {
+            return table[src[offset] & 0xFF];
+        }
+
+        @Override
+        public void convert(byte[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+            for (int i = 0; i < count; i++) {
+                dst[dstOffset + i] = table[src[srcOffset + i] & 0xFF];
+            }
+        }
+
+        @Override
+        public int read(DataInput in) throws IOException {
+            return table[in.readUnsignedByte()];
+        }
+    }
+
+    /**
+     * 16 bits per pixel true color (e.g. RGB565 or RGB555) in either byte order, with one table per channel
+     */
+    private static final class TrueColor16 extends PixelConverter {
+
+        private final boolean bigEndian;
+        private final int redShift;
+        private final int greenShift;
+        private final int blueShift;
+        private final int redMax;
+        private final int greenMax;
+        private final int blueMax;
+        private final int[] red;
+        private final int[] green;
+        private final int[] blue;
+
+        TrueColor16(PixelFormat pixelFormat) {
+            super(2);
+            bigEndian = pixelFormat.isBigEndian();
+            redShift = pixelFormat.getRedShift();
+            greenShift = pixelFormat.getGreenShift();
+            blueShift = pixelFormat.getBlueShift();
+            redMax = pixelFormat.getRedMax();
+            greenMax = pixelFormat.getGreenMax();
+            blueMax = pixelFormat.getBlueMax();
+            red = channelTable(redMax, 16);
+            green = channelTable(greenMax, 8);
+            blue = channelTable(blueMax, 0);
+        }
+
+        @Override
+        public int convert(byte[] src, int offset) {
+            int b0 = src[offset] & 0xFF;
+            int b1 = src[offset + 1] & 0xFF;
+            return toArgb(bigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0);
+        }
+
+        @Override
+        public void convert(byte[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+            int hi = bigEndian ? 0 : 1;
+            int lo = 1 - hi;
+            for (int i = 0; i < count; i++, srcOffset += 2) {
+                dst[dstOffset + i] = toArgb(((src[srcOffset + hi] & 0xFF) << 8) | (src[srcOffset + lo] & 0xFF));
+            }
+        }
+
+        @Override
+        public int read(DataInput in) throws IOException {
+            int value = in.readUnsignedShort();
+            return toArgb(bigEndian ? value : Integer.reverseBytes(value) >>> 16);
+        }
+
+        private int toArgb(int value) {
+            return OPAQUE
+                    | red[(value >>> redShift) & redMax]
+                    | green[(value >>> greenShift) & greenMax]
+                    | blue[(value >>> blueShift) & blueMax];
+        }
+    }
+
+    /**
+     * 32 bits per pixel (or 24 bit compressed pixels, as used by ZRLE) true color with 8 bits per channel on byte
+     * boundaries, in either byte order. No scaling is required, so each channel is copied straight from its byte
+     * position.
+     */
+    private static final class TrueColor888 extends PixelConverter {
+
+        private final int redIndex;
+        private final int greenIndex;
+        private final int blueIndex;
+
+        TrueColor888(PixelFormat pixelFormat) {
+            super(pixelFormat.getBytesPerPixel());
+            redIndex = byteIndex(pixelFormat.getRedShift(), pixelFormat.isBigEndian());
+            greenIndex = byteIndex(pixelFormat.getGreenShift(), pixelFormat.isBigEndian());
+            blueIndex = byteIndex(pixelFormat.getBlueShift(), pixelFormat.isBigEndian());
+        }
+
+        private int byteIndex(int shift, boolean bigEndian) {
+            return bigEndian ? getBytesPerPixel() - 1 - shift / 8 : shift / 8;
+        }
+
+        @Override
+        public int convert(byte[] src, int offset) {
+            return OPAQUE
+                    | (src[offset + redIndex] & 0xFF) << 16
+                    | (src[offset + greenIndex] & 0xFF) << 8
+                    | (src[offset + blueIndex] & 0xFF);
+        }
+
+        @Override
+        public void convert(byte[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+            int step = getBytesPerPixel();
+            int r = srcOffset + redIndex;
+            int g = srcOffset + greenIndex;
+            int b = srcOffset + blueIndex;
+            for (int i = 0; i < count; i++, r += step, g += step, b += step) {
+                dst[dstOffset + i] = OPAQUE | (src[r] & 0xFF) << 16 | (src[g] & 0xFF) << 8 | (src[b] & 0xFF);
+            }
+        }
+
+        @Override
+        public int read(DataInput in) throws IOException {
+            int value = getBytesPerPixel() == 4
+                    ? in.readInt()
+                    : in.readUnsignedByte() << 24 | in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8;
+            return OPAQUE
+                    | ((value >>> (24 - redIndex * 8)) & 0xFF) << 16
+                    | ((value >>> (24 - greenIndex * 8)) & 0xFF) << 8
+                    | ((value >>> (24 - blueIndex * 8)) & 0xFF);
+        }
+    }
+
+    /**
+     * Any other true color format
+     */
+    private static final class Generic extends PixelConverter {
+
+        private final boolean bigEndian;
+        private final int redShift;
+        private final int greenShift;
+        private final int blueShift;
+        private final int redMax;
+        private final int greenMax;
+        private final int blueMax;
+        private final int[] red;
+        private final int[] green;
+        private final int[] blue;
+
+        Generic(PixelFormat pixelFormat) {
+            super(pixelFormat.getBytesPerPixel());
+            bigEndian = pixelFormat.isBigEndian();
+            redShift = pixelFormat.getRedShift();
+            greenShift = pixelFormat.getGreenShift();
+            blueShift = pixelFormat.getBlueShift();
+            redMax = pixelFormat.getRedMax();
+            greenMax = pixelFormat.getGreenMax();
+            blueMax = pixelFormat.getBlueMax();
+            red = channelTable(redMax, 16);
+            green = channelTable(greenMax, 8);
+            blue = channelTable(blueMax, 0);
+        }
+
+        @Override
+        public int convert(byte[] src, int offset) {
+            int value = 0;
+            for (int i = 0; i < getBytesPerPixel(); i++) {
+                int b = src[offset + i] & 0xFF;
+                value = bigEndian ? (value << 8) | b : value | (b << (8 * i));
+            }
+            return toArgb(value);
+        }
+
+        @Override
+        public int read(DataInput in) throws IOException {
+            int value = 0;
+            for (int i = 0; i < getBytesPerPixel(); i++) {
+                int b = in.readUnsignedByte();
+                value = bigEndian ? (value << 8) | b : value | (b << (8 * i));
+            }
+            return toArgb(value);
+        }
+
+        private int toArgb(int value) {
+            return OPAQUE
+                    | red[(value >>> redShift) & redMax]
+                    | green[(value >>> greenShift) & greenMax]
+                    | blue[(value >>> blueShift) & blueMax];
+        }
+    }
+}
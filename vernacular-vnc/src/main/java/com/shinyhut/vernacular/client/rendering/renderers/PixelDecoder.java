@@ -5,17 +5,58 @@ import com.shinyhut.vernacular.protocol.messages.PixelFormat;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
 
 public class PixelDecoder {
 
     private static final ColorMapEntry BLACK = new ColorMapEntry(0, 0, 0);
+    private static final int MIN_PALETTE_SIZE = 256;
+    private static final int MAX_PALETTE_SIZE = 65536;
 
     private final Map<Long, ColorMapEntry> colorMap;
 
+    private volatile int[] palette;
+
     public PixelDecoder(Map<Long, ColorMapEntry> colorMap) {
         this.colorMap = colorMap;
+        updatePalette();
+    }
+
+    /**
+     * Returns a converter specialised for the specified pixel format. Renderers should obtain a converter once and
+     * reuse it for every pixel they decode.
+     *
+     * @param pixelFormat The pixel format used by the server
+     * @return A converter for the specified pixel format
+     */
+    public PixelConverter converterFor(PixelFormat pixelFormat) {
+        return PixelConverter.create(pixelFormat, this);
+    }
+
+    /**
+     * Rebuilds the ARGB palette used for indexed color pixel formats. This must be called whenever the color map
+     * changes.
+     */
+    public void updatePalette() {
+        long maxIndex = colorMap.keySet().stream().mapToLong(Long::longValue).max().orElse(0L);
+        int size = (int) Math.min(Math.max(maxIndex + 1, MIN_PALETTE_SIZE), MAX_PALETTE_SIZE);
+        int[] updated = new int[size];
+        Arrays.fill(updated, 0xFF000000);
+        colorMap.forEach((index, color) -> {
+            if (index >= 0 && index < size) {
+                updated[index.intValue()] = 0xFF000000
+                        | shrink(color.getRed()) << 16
+                        | shrink(color.getGreen()) << 8
+                        | shrink(color.getBlue());
+            }
+        });
+        palette = updated;
+    }
+
+    int[] getPalette() {
+        return palette;
     }
 
     public Pixel decode(InputStream in, PixelFormat pixelFormat) throws IOException {
@@ -49,7 +90,7 @@ public class PixelDecoder {
         return new Pixel(red, green, blue);
     }
 
-    private static int stretch(int value, int max) {
+    static int stretch(int value, int max) {
         return max == 255 ? value : (int) (value * ((double) 255 / max));
     }
 
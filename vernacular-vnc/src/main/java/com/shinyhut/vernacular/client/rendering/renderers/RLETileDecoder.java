@@ -0,0 +1,344 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.client.exceptions.InvalidRleEncodingException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Decodes the run-length encoded tiles shared by the TRLE and ZRLE encodings: raw, solid, packed palette, plain RLE
+ * and palette RLE tiles, plus (for TRLE only) tiles which reuse the palette of the previous tile. Pixels are written
+ * straight into the destination buffer, and no memory is allocated per tile or per pixel.
+ * <p>
+ * Tile data can either be decoded from an array (ZRLE, where a whole rectangle is inflated up front) or read from a
+ * stream as it is needed (TRLE, where the length of the rectangle is not known in advance).
+ */
+class RLETileDecoder {
+
+    private static final int SUBENCODING_RAW = 0;
+    private static final int SUBENCODING_SOLID = 1;
+    private static final int SUBENCODING_MAX_PACKED_PALETTE = 16;
+    private static final int SUBENCODING_PACKED_PALETTE_REUSE = 127;
+    private static final int SUBENCODING_PLAIN_RLE = 128;
+    private static final int SUBENCODING_PALETTE_RLE_REUSE = 129;
+    private static final int SUBENCODING_MIN_PALETTE_RLE = 130;
+
+    private final int tileSize;
+    private final boolean paletteReuse;
+    private final PixelConverter pixelConverter;
+    private final int bytesPerPixel;
+    private final int[] palette = new int[128];
+    private int paletteSize;
+
+    private byte[] data;
+    private int position;
+    private int limit;
+
+    private DataInput in;
+    private byte[] scratch = new byte[0];
+    private final int[] row;
+
+    /**
+     * @param tileSize     Width and height of a tile: 16 for TRLE and 64 for ZRLE
+     * @param paletteReuse Whether the palette reuse subencodings (127 and 129) are permitted
+     * @param pixelDecoder Pixel decoder for the session
+     * @param pixelFormat  Pixel format for the session
+     */
+    RLETileDecoder(int tileSize, boolean paletteReuse, PixelDecoder pixelDecoder, PixelFormat pixelFormat) {
+        this.tileSize = tileSize;
+        this.paletteReuse = paletteReuse;
+        this.pixelConverter = pixelDecoder.converterFor(compactPixelFormat(pixelFormat));
+        this.bytesPerPixel = pixelConverter.getBytesPerPixel();
+        this.row = new int[tileSize];
+    }
+
+    /**
+     * Works out the format of the 'compressed pixels' (CPIXELs) used in tiles. These are the same as normal pixels,
+     * except that 32 bit true color pixels whose color channels all fit in either the most or least significant three
+     * bytes are sent as three bytes.
+     */
+    static PixelFormat compactPixelFormat(PixelFormat pixelFormat) {
+        if (!pixelFormat.isTrueColor() || pixelFormat.getBitsPerPixel() != 32 || pixelFormat.getDepth() > 24) {
+            return pixelFormat;
+        }
+        long mask = ((long) pixelFormat.getRedMax() << pixelFormat.getRedShift())
+                | ((long) pixelFormat.getGreenMax() << pixelFormat.getGreenShift())
+                | ((long) pixelFormat.getBlueMax() << pixelFormat.getBlueShift());
+        int offset;
+        if ((mask & 0xFF000000L) == 0) {
+            offset = 0;
+        } else if ((mask & 0x000000FFL) == 0) {
+            offset = 8;
+        } else {
+            return pixelFormat;
+        }
+        return new PixelFormat(24, pixelFormat.getDepth(), pixelFormat.isBigEndian(), true,
+                pixelFormat.getRedMax(), pixelFormat.getGreenMax(), pixelFormat.getBlueMax(),
+                pixelFormat.getRedShift() - offset, pixelFormat.getGreenShift() - offset,
+                pixelFormat.getBlueShift() - offset);
+    }
+
+    /**
+     * Decodes all of the tiles making up a rectangle
+     *
+     * @param data        Tile data
+     * @param offset      Offset of the first tile within the tile data
+     * @param length      Length of the tile data
+     * @param destination Destination buffer
+     * @param rectangle   Rectangle to decode
+     * @throws IOException  if the tile data ends prematurely
+     * @throws VncException if the tile data is invalid
+     */
+    void decode(byte[] data, int offset, int length, ImageBuffer destination, Rectangle rectangle)
+            throws IOException, VncException {
+        this.in = null;
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+        decodeTiles(destination, rectangle);
+    }
+
+    /**
+     * Decodes all of the tiles making up a rectangle, reading exactly as much tile data from the input as is needed
+     *
+     * @param in          Input to read tile data from
+     * @param destination Destination buffer
+     * @param rectangle   Rectangle to decode
+     * @throws IOException  if the tile data cannot be read
+     * @throws VncException if the tile data is invalid
+     */
+    void decode(DataInput in, ImageBuffer destination, Rectangle rectangle) throws IOException, VncException {
+        this.in = in;
+        this.data = scratch;
+        this.position = 0;
+        this.limit = 0;
+        try {
+            decodeTiles(destination, rectangle);
+        } finally {
+            this.in = null;
+        }
+    }
+
+    private void decodeTiles(ImageBuffer destination, Rectangle rectangle) throws IOException, VncException {
+        for (int ty = 0; ty < rectangle.getHeight(); ty += tileSize) {
+            int tileHeight = Math.min(tileSize, rectangle.getHeight() - ty);
+            for (int tx = 0; tx < rectangle.getWidth(); tx += tileSize) {
+                int tileWidth = Math.min(tileSize, rectangle.getWidth() - tx);
+                decodeTile(destination, rectangle.getX() + tx, rectangle.getY() + ty, tileWidth, tileHeight);
+            }
+        }
+    }
+
+    private void decodeTile(ImageBuffer destination, int x, int y, int width, int height)
+            throws IOException, VncException {
+        int subencoding = readUnsignedByte();
+        if (subencoding == SUBENCODING_RAW) {
+            decodeRawTile(destination, x, y, width, height);
+        } else if (subencoding == SUBENCODING_SOLID) {
+            destination.fillRect(x, y, width, height, readPixel());
+        } else if (subencoding <= SUBENCODING_MAX_PACKED_PALETTE) {
+            readPalette(subencoding);
+            decodePackedPaletteTile(destination, x, y, width, height, paletteSize);
+        } else if (subencoding == SUBENCODING_PACKED_PALETTE_REUSE && paletteReuse) {
+            requirePreviousPalette();
+            if (paletteSize > SUBENCODING_MAX_PACKED_PALETTE) {
+                throw new InvalidRleEncodingException("Palette of " + paletteSize + " colors cannot be packed");
+            }
+            decodePackedPaletteTile(destination, x, y, width, height, paletteSize);
+        } else if (subencoding == SUBENCODING_PLAIN_RLE) {
+            decodePlainRleTile(destination, x, y, width, height);
+        } else if (subencoding == SUBENCODING_PALETTE_RLE_REUSE && paletteReuse) {
+            requirePreviousPalette();
+            decodePaletteRleTile(destination, x, y, width, height, paletteSize);
+        } else if (subencoding >= SUBENCODING_MIN_PALETTE_RLE) {
+            readPalette(subencoding - 128);
+            decodePaletteRleTile(destination, x, y, width, height, paletteSize);
+        } else {
+            throw new InvalidRleEncodingException("Unsupported tile subencoding " + subencoding);
+        }
+    }
+
+    private void decodeRawTile(ImageBuffer destination, int x, int y, int width, int height) throws IOException {
+        int rowLength = width * bytesPerPixel;
+        require(rowLength * height);
+        int stride = destination.getWidth();
+        int visibleWidth = visibleWidth(destination, x, width);
+        int visibleHeight = visibleHeight(destination, y, height);
+        for (int r = 0; r < visibleHeight && visibleWidth > 0; r++) {
+            if (destination.hasArray()) {
+                pixelConverter.convert(data, position + r * rowLength, destination.getBuffer(), (y + r) * stride + x,
+                        visibleWidth);
+            } else {
+                pixelConverter.convert(data, position + r * rowLength, row, 0, visibleWidth);
+                destination.setRow(x, y + r, row, 0, visibleWidth);
+            }
+        }
+        position += rowLength * height;
+    }
+
+    private void decodePackedPaletteTile(ImageBuffer destination, int x, int y, int width, int height, int paletteSize)
+            throws IOException {
+        int bits = paletteSize == 2 ? 1 : paletteSize <= 4 ? 2 : 4;
+        int mask = (1 << bits) - 1;
+        int pixelsPerByte = 8 / bits;
+        int rowLength = (width + pixelsPerByte - 1) / pixelsPerByte;
+        require(rowLength * height);
+        int[] pixels = destination.hasArray() ? destination.getBuffer() : row;
+        int stride = destination.getWidth();
+        int visibleWidth = visibleWidth(destination, x, width);
+        int visibleHeight = visibleHeight(destination, y, height);
+        for (int r = 0; r < visibleHeight && visibleWidth > 0; r++) {
+            int rowStart = position + r * rowLength;
+            int offset = pixels == row ? 0 : (y + r) * stride + x;
+            for (int col = 0; col < visibleWidth; col++) {
+                int b = data[rowStart + col / pixelsPerByte] & 0xFF;
+                int shift = 8 - bits * (col % pixelsPerByte + 1);
+                pixels[offset + col] = palette[(b >> shift) & mask];
+            }
+            if (pixels == row) {
+                destination.setRow(x, y + r, row, 0, visibleWidth);
+            }
+        }
+        position += rowLength * height;
+    }
+
+    private void decodePlainRleTile(ImageBuffer destination, int x, int y, int width, int height)
+            throws IOException, VncException {
+        int area = width * height;
+        int filled = 0;
+        while (filled < area) {
+            int color = readPixel();
+            int run = readRunLength();
+            if (run < 1 || run > area - filled) {
+                throw new InvalidRleEncodingException("RLE run extends beyond the end of the tile");
+            }
+            fillRun(destination, x, y, width, height, filled, run, color);
+            filled += run;
+        }
+    }
+
+    private void decodePaletteRleTile(ImageBuffer destination, int x, int y, int width, int height, int paletteSize)
+            throws IOException, VncException {
+        int area = width * height;
+        int filled = 0;
+        while (filled < area) {
+            int index = readUnsignedByte();
+            int run = 1;
+            if ((index & 0x80) != 0) {
+                index &= 0x7F;
+                run = readRunLength();
+            }
+            if (index >= paletteSize) {
+                throw new InvalidRleEncodingException("Palette index " + index + " out of range");
+            }
+            if (run < 1 || run > area - filled) {
+                throw new InvalidRleEncodingException("RLE run extends beyond the end of the tile");
+            }
+            fillRun(destination, x, y, width, height, filled, run, palette[index]);
+            filled += run;
+        }
+    }
+
+    /**
+     * Fills a run of pixels which starts at the specified position within a tile and may wrap onto following rows
+     */
+    private static void fillRun(ImageBuffer destination, int x, int y, int width, int height, int start, int run,
+                                int color) {
+        int[] pixels = destination.hasArray() ? destination.getBuffer() : null;
+        int stride = destination.getWidth();
+        int visibleWidth = visibleWidth(destination, x, width);
+        int visibleHeight = visibleHeight(destination, y, height);
+        int row = start / width;
+        int col = start % width;
+        while (run > 0 && row < visibleHeight) {
+            int count = Math.min(run, width - col);
+            if (col < visibleWidth) {
+                int length = Math.min(count, visibleWidth - col);
+                if (pixels != null) {
+                    int offset = (y + row) * stride + x + col;
+                    Arrays.fill(pixels, offset, offset + length, color);
+                } else {
+                    destination.fillRect(x + col, y + row, length, 1, color);
+                }
+            }
+            run -= count;
+            col = 0;
+            row++;
+        }
+    }
+
+    private static int visibleWidth(ImageBuffer destination, int x, int width) {
+        return Math.max(0, Math.min(width, destination.getWidth() - x));
+    }
+
+    private static int visibleHeight(ImageBuffer destination, int y, int height) {
+        return Math.max(0, Math.min(height, destination.getHeight() - y));
+    }
+
+    private void readPalette(int size) throws IOException {
+        require(size * bytesPerPixel);
+        for (int i = 0; i < size; i++, position += bytesPerPixel) {
+            palette[i] = pixelConverter.convert(data, position);
+        }
+        paletteSize = size;
+    }
+
+    private void requirePreviousPalette() throws InvalidRleEncodingException {
+        if (paletteSize == 0) {
+            throw new InvalidRleEncodingException("Palette reuse requested but no palette has been sent");
+        }
+    }
+
+    private int readPixel() throws IOException {
+        require(bytesPerPixel);
+        int color = pixelConverter.convert(data, position);
+        position += bytesPerPixel;
+        return color;
+    }
+
+    private int readRunLength() throws IOException {
+        int run = 1;
+        int b;
+        do {
+            b = readUnsignedByte();
+            run += b;
+        } while (b == 255);
+        return run;
+    }
+
+    private int readUnsignedByte() throws IOException {
+        require(1);
+        return data[position++] & 0xFF;
+    }
+
+    /**
+     * Makes sure that at least the specified number of bytes of tile data are available from the current position.
+     * When reading from a stream, exactly the missing bytes are read, so nothing beyond the rectangle is consumed.
+     */
+    private void require(int length) throws IOException {
+        int available = limit - position;
+        if (available >= length) {
+            return;
+        }
+        if (in == null) {
+            throw new EOFException("Unexpected end of tile data");
+        }
+        if (scratch.length < length) {
+            byte[] grown = new byte[Math.max(length, scratch.length * 2)];
+            System.arraycopy(data, position, grown, 0, available);
+            scratch = grown;
+        } else {
+            System.arraycopy(data, position, scratch, 0, available);
+        }
+        in.readFully(scratch, available, length - available);
+        data = scratch;
+        position = 0;
+        limit = length;
+    }
+}
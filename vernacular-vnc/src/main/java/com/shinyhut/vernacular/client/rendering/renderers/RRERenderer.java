@@ -7,35 +7,34 @@ import com.shinyhut.vernacular.protocol.messages.PixelFormat;
 import com.shinyhut.vernacular.protocol.messages.Rectangle;
 
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
 public class RRERenderer implements Renderer {
 
-    private final PixelDecoder pixelDecoder;
-    private final PixelFormat pixelFormat;
+    private final PixelConverter pixelConverter;
 
     public RRERenderer(PixelDecoder pixelDecoder, PixelFormat pixelFormat) {
-        this.pixelDecoder = pixelDecoder;
-        this.pixelFormat = pixelFormat;
+        this.pixelConverter = pixelDecoder.converterFor(pixelFormat);
     }
 
     @Override
     public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
         try {
-            DataInput dataInput = new DataInputStream(in);
+            DataInput dataInput = dataInput(in);
             int numberOfSubrectangles = dataInput.readInt();
-            Pixel bgColor = pixelDecoder.decode(in, pixelFormat);
+            int bgColor = pixelConverter.read(dataInput);
 
-            destination.fillRect(rectangle.getX(), rectangle.getY(), rectangle.getWidth(), rectangle.getHeight(), bgColor.toInt());
+            destination.fillRect(rectangle.getX(), rectangle.getY(), rectangle.getWidth(), rectangle.getHeight(), bgColor);
             for (int i = 0; i < numberOfSubrectangles; i++) {
-                Pixel color = pixelDecoder.decode(in, pixelFormat);
+                int color = pixelConverter.read(dataInput);
                 int x = dataInput.readUnsignedShort();
                 int y = dataInput.readUnsignedShort();
                 int width = dataInput.readUnsignedShort();
                 int height = dataInput.readUnsignedShort();
-                destination.fillRect(x + rectangle.getX(), y + rectangle.getY(), width, height,color.toInt());
+                destination.fillRect(x + rectangle.getX(), y + rectangle.getY(), width, height, color);
             }
         } catch (IOException e) {
             throw new UnexpectedVncException(e);
@@ -6,17 +6,38 @@ import com.shinyhut.vernacular.client.rendering.ImageBuffer;
 import com.shinyhut.vernacular.protocol.messages.PixelFormat;
 import com.shinyhut.vernacular.protocol.messages.Rectangle;
 
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
 
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
 public class RawRenderer implements Renderer {
 
-    private final PixelDecoder pixelDecoder;
-    private final PixelFormat pixelFormat;
+    /**
+     * Preferred number of bytes read from the stream at a time. Rectangles are read in chunks of whole scanlines of
+     * roughly this size, or one scanline at a time if a single scanline is larger.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final PixelConverter pixelConverter;
+
+    private byte[] scratch = new byte[0];
+    private int[] scratchRow = new int[0];
 
     public RawRenderer(PixelDecoder pixelDecoder, PixelFormat pixelFormat) {
-        this.pixelDecoder = pixelDecoder;
-        this.pixelFormat = pixelFormat;
+        this(pixelDecoder.converterFor(pixelFormat));
+    }
+
+    private RawRenderer(PixelConverter pixelConverter) {
+        this.pixelConverter = pixelConverter;
+    }
+
+    /**
+     * @return A renderer for the same pixel format with its own read buffer, which can be used on another thread
+     */
+    RawRenderer fork() {
+        return new RawRenderer(pixelConverter);
     }
 
     @Override
@@ -25,16 +46,25 @@ public class RawRenderer implements Renderer {
     }
 
     void render(InputStream in, ImageBuffer destination, int x, int y, int width, int height) throws VncException {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
         try {
-            int sx = x;
-            int sy = y;
-            for (int i = 0; i < width * height; i++) {
-                Pixel pixel = pixelDecoder.decode(in, pixelFormat);
-                destination.set(sx, sy,pixel.toInt());
-                sx++;
-                if (sx == x + width) {
-                    sx = x;
-                    sy++;
+            DataInput dataInput = dataInput(in);
+            int bytesPerPixel = pixelConverter.getBytesPerPixel();
+            int rowLength = width * bytesPerPixel;
+            int rowsPerChunk = Math.max(1, Math.min(height, CHUNK_SIZE / rowLength));
+            byte[] chunk = scratch(rowLength * rowsPerChunk);
+
+            int visibleWidth = Math.max(0, Math.min(width, destination.getWidth() - x));
+            int visibleHeight = visibleWidth > 0 ? Math.max(0, Math.min(height, destination.getHeight() - y)) : 0;
+            int[] pixels = destination.hasArray() ? null : scratchRow(visibleWidth);
+
+            for (int row = 0; row < height; row += rowsPerChunk) {
+                int rows = Math.min(rowsPerChunk, height - row);
+                dataInput.readFully(chunk, 0, rows * rowLength);
+                for (int r = 0; r < rows && row + r < visibleHeight; r++) {
+                    convertRow(chunk, r * rowLength, destination, x, y + row + r, visibleWidth, pixels);
                 }
             }
         } catch (IOException e) {
@@ -42,4 +72,45 @@ public class RawRenderer implements Renderer {
         }
     }
 
+    /**
+     * Renders raw pixel data which has already been read into an array. Unlike the stream methods, this can be used by
+     * several threads at once.
+     */
+    void render(byte[] data, int offset, ImageBuffer destination, int x, int y, int width, int height) {
+        int rowLength = width * pixelConverter.getBytesPerPixel();
+        int visibleWidth = Math.max(0, Math.min(width, destination.getWidth() - x));
+        int visibleHeight = visibleWidth > 0 ? Math.max(0, Math.min(height, destination.getHeight() - y)) : 0;
+        int[] pixels = destination.hasArray() ? null : new int[visibleWidth];
+        for (int row = 0; row < visibleHeight; row++) {
+            convertRow(data, offset + row * rowLength, destination, x, y + row, visibleWidth, pixels);
+        }
+    }
+
+    /**
+     * Converts a row of pixels straight into the destination's array if it has one, or otherwise into the row buffer
+     * and from there into the destination
+     */
+    private void convertRow(byte[] data, int offset, ImageBuffer destination, int x, int y, int width, int[] row) {
+        if (row == null) {
+            pixelConverter.convert(data, offset, destination.getBuffer(), y * destination.getWidth() + x, width);
+        } else {
+            pixelConverter.convert(data, offset, row, 0, width);
+            destination.setRow(x, y, row, 0, width);
+        }
+    }
+
+    private int[] scratchRow(int size) {
+        if (scratchRow.length < size) {
+            scratchRow = new int[size];
+        }
+        return scratchRow;
+    }
+
+    private byte[] scratch(int size) {
+        if (scratch.length < size) {
+            scratch = new byte[size];
+        }
+        return scratch;
+    }
+
 }
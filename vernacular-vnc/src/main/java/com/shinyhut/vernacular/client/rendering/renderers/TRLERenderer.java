@@ -0,0 +1,46 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
+/**
+ * Renders TRLE encoded rectangles: 16x16 pixel RLE tiles, sent without compression. The tile data is read straight
+ * from the input as it is decoded.
+ */
+public class TRLERenderer implements Renderer {
+
+    private static final int TILE_SIZE = 16;
+
+    private final RLETileDecoder tileDecoder;
+
+    public TRLERenderer(PixelDecoder pixelDecoder, PixelFormat pixelFormat) {
+        this.tileDecoder = new RLETileDecoder(TILE_SIZE, true, pixelDecoder, pixelFormat);
+    }
+
+    @Override
+    public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
+        try {
+            tileDecoder.decode(dataInput(in), destination, rectangle);
+        } catch (IOException e) {
+            throw new UnexpectedVncException(e);
+        }
+    }
+
+    /**
+     * @param pixelFormat Pixel format for the session
+     * @return The number of bytes used for each pixel in TRLE and ZRLE tiles, which may be smaller than in the pixel
+     * format itself
+     */
+    public static int compactBytesPerPixel(PixelFormat pixelFormat) {
+        return RLETileDecoder.compactPixelFormat(pixelFormat).getBytesPerPixel();
+    }
+}
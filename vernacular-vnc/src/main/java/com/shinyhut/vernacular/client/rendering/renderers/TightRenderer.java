@@ -3,7 +3,6 @@ package com.shinyhut.vernacular.client.rendering.renderers;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
@@ -19,6 +18,8 @@ import com.shinyhut.vernacular.protocol.messages.ColorMapEntry;
 import com.shinyhut.vernacular.protocol.messages.PixelFormat;
 import com.shinyhut.vernacular.protocol.messages.Rectangle;
 
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
 public class TightRenderer implements Renderer
 {
    private static final int SUBENCODING_FILL = 0x80;
@@ -64,7 +65,7 @@ public class TightRenderer implements Renderer
    {
       try
       {
-         DataInput dataInput = new DataInputStream(in);
+         DataInput dataInput = dataInput(in);
          int subencoding = dataInput.readUnsignedByte();
 
          switch(subencoding)
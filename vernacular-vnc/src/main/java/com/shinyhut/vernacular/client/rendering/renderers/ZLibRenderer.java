@@ -9,6 +9,8 @@ import java.io.*;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
 public class ZLibRenderer implements Renderer {
 
     private final RawRenderer rawRenderer;
@@ -22,7 +24,7 @@ public class ZLibRenderer implements Renderer {
     @Override
     public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
         try {
-            DataInput dataInput = new DataInputStream(in);
+            DataInput dataInput = dataInput(in);
             int compressedLength = dataInput.readInt();
             byte[] compressedData = new byte[compressedLength];
             dataInput.readFully(compressedData);
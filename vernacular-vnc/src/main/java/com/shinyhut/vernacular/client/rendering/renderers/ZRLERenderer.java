@@ -0,0 +1,84 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.client.exceptions.InvalidRleEncodingException;
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException;
+import com.shinyhut.vernacular.client.exceptions.VncException;
+import com.shinyhut.vernacular.client.rendering.ImageBuffer;
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import com.shinyhut.vernacular.protocol.messages.Rectangle;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
+/**
+ * Renders ZRLE encoded rectangles: 64x64 pixel RLE tiles, compressed with a single zlib stream which persists for
+ * the whole session.
+ */
+public class ZRLERenderer implements Renderer {
+
+    private static final int TILE_SIZE = 64;
+
+    private final Inflater inflater = new Inflater();
+    private final RLETileDecoder tileDecoder;
+    private final int bytesPerPixel;
+
+    private byte[] compressed = new byte[0];
+    private byte[] inflated = new byte[64 * 1024];
+
+    public ZRLERenderer(PixelDecoder pixelDecoder, PixelFormat pixelFormat) {
+        this.tileDecoder = new RLETileDecoder(TILE_SIZE, false, pixelDecoder, pixelFormat);
+        this.bytesPerPixel = pixelFormat.getBytesPerPixel();
+    }
+
+    @Override
+    public void render(InputStream in, ImageBuffer destination, Rectangle rectangle) throws VncException {
+        try {
+            DataInput dataInput = dataInput(in);
+            int compressedLength = dataInput.readInt();
+            if (compressed.length < compressedLength) {
+                compressed = new byte[compressedLength];
+            }
+            dataInput.readFully(compressed, 0, compressedLength);
+
+            int length = inflate(compressedLength, maxInflatedLength(rectangle));
+            tileDecoder.decode(inflated, 0, length, destination, rectangle);
+        } catch (IOException | DataFormatException e) {
+            throw new UnexpectedVncException(e);
+        }
+    }
+
+    private int inflate(int compressedLength, long maxLength) throws DataFormatException, VncException {
+        inflater.setInput(compressed, 0, compressedLength);
+        int length = 0;
+        while (true) {
+            if (length == inflated.length) {
+                if (length >= maxLength) {
+                    throw new InvalidRleEncodingException("ZRLE data exceeds the maximum size for the rectangle");
+                }
+                inflated = Arrays.copyOf(inflated, (int) Math.min(maxLength, (long) inflated.length * 2));
+            }
+            int read = inflater.inflate(inflated, length, inflated.length - length);
+            length += read;
+            if (read == 0 && (inflater.needsInput() || inflater.needsDictionary() || inflater.finished())) {
+                return length;
+            }
+        }
+    }
+
+    /**
+     * The largest amount of tile data a rectangle could legitimately need: the worst case is a plain RLE tile with a
+     * run of length one for every pixel, plus a subencoding byte for every tile.
+     */
+    private long maxInflatedLength(Rectangle rectangle) {
+        long tiles = (long) ((rectangle.getWidth() + TILE_SIZE - 1) / TILE_SIZE)
+                * ((rectangle.getHeight() + TILE_SIZE - 1) / TILE_SIZE);
+        long pixels = (long) rectangle.getWidth() * rectangle.getHeight();
+        return Math.min(Integer.MAX_VALUE - 8, Math.max(inflated.length, pixels * (bytesPerPixel + 1) + tiles));
+    }
+}
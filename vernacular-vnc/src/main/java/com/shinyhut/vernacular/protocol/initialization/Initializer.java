@@ -15,15 +15,22 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.shinyhut.vernacular.protocol.messages.Encoding.CONTINUOUS_UPDATES;
 import static com.shinyhut.vernacular.protocol.messages.Encoding.COPYRECT;
 import static com.shinyhut.vernacular.protocol.messages.Encoding.CURSOR;
 import static com.shinyhut.vernacular.protocol.messages.Encoding.DESKTOP_SIZE;
 import static com.shinyhut.vernacular.protocol.messages.Encoding.EXTENDED_CLIPBOARD;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.FENCE;
 import static com.shinyhut.vernacular.protocol.messages.Encoding.HEXTILE;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.QEMU_EXTENDED_KEY_EVENT;
 import static com.shinyhut.vernacular.protocol.messages.Encoding.RAW;
 import static com.shinyhut.vernacular.protocol.messages.Encoding.RRE;
 import static com.shinyhut.vernacular.protocol.messages.Encoding.TIGHT;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.TRLE;
 import static com.shinyhut.vernacular.protocol.messages.Encoding.ZLIB;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.ZRLE;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.compressLevel;
+import static com.shinyhut.vernacular.protocol.messages.Encoding.qualityLevel;
 
 public class Initializer {
 
@@ -54,17 +61,40 @@ public class Initializer {
                 colorDepth.getBlueShift());
 
         SetPixelFormat setPixelFormat = new SetPixelFormat(pixelFormat);
+        SetEncodings setEncodings = new SetEncodings(encodings(config));
 
+        setPixelFormat.encode(out);
+        setEncodings.encode(out);
+
+        session.setPixelFormat(pixelFormat);
+    }
+
+    /**
+     * Builds the list of encodings and pseudo-encodings to send to the server, in order of preference, based on the
+     * specified configuration
+     *
+     * @param config The VNC client configuration
+     * @return The encodings to send to the server in a SetEncodings message
+     */
+    public List<Encoding> encodings(VernacularConfig config) {
         List<Encoding> encodings = new ArrayList<>();
 
        if (config.isEnableTightEncoding()) {
            encodings.add(TIGHT);
        }
+
+        if (config.isEnableZrleEncoding()) {
+            encodings.add(ZRLE);
+        }
         
         if (config.isEnableZLibEncoding()) {
             encodings.add(ZLIB);
         }
 
+        if (config.isEnableTrleEncoding()) {
+            encodings.add(TRLE);
+        }
+
         if (config.isEnableHextileEncoding()) {
             encodings.add(HEXTILE);
         }
@@ -88,11 +118,23 @@ public class Initializer {
             encodings.add(CURSOR);
         }
 
-        SetEncodings setEncodings = new SetEncodings(encodings);
+        if (config.isEnableContinuousUpdates()) {
+            encodings.add(FENCE);
+            encodings.add(CONTINUOUS_UPDATES);
+        }
 
-        setPixelFormat.encode(out);
-        setEncodings.encode(out);
+        if (config.isEnableExtendedKeyEvents()) {
+            encodings.add(QEMU_EXTENDED_KEY_EVENT);
+        }
 
-        session.setPixelFormat(pixelFormat);
+        if (config.getCompressionLevel() >= 0) {
+            encodings.add(compressLevel(config.getCompressionLevel()));
+        }
+
+        if (config.getJpegQuality() >= 0) {
+            encodings.add(qualityLevel(config.getJpegQuality()));
+        }
+
+        return encodings;
     }
 }
@@ -1,13 +1,15 @@
 package com.shinyhut.vernacular.protocol.messages;
 
-import java.io.DataInputStream;
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
 
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
 public class Bell {
 
     public static Bell decode(InputStream in) throws IOException {
-        DataInputStream dataInput = new DataInputStream(in);
+        DataInput dataInput = dataInput(in);
         dataInput.readFully(new byte[1]);
         return new Bell();
     }
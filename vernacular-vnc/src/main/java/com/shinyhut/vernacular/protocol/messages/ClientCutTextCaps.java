@@ -17,27 +17,32 @@ public class ClientCutTextCaps  implements Encodable {
 
     @Override
     public void encode(OutputStream out) throws IOException {
-        int[] flags = new int[]{ MessageHeaderFlags.CAPS.code
+        int flags = MessageHeaderFlags.CAPS.code
                 | MessageHeaderFlags.NOTIFY.code | MessageHeaderFlags.PEEK.code
                 | MessageHeaderFlags.PROVIDE.code
-                | MessageHeaderFlags.REQUEST.code
-        };
+                | MessageHeaderFlags.REQUEST.code;
 
+        // The sizes follow in the order of the format flags
         byte[] formatSizes = new byte[sizes.size() * 4];
-        sizes.forEach((format, size) -> {
-            flags[0] = flags[0] | format.code;
-            int startByte = format.ordinal();
-            byte[] sizeForCurrentFormat = ByteBuffer.allocate(4).putInt(size).array();
-            System.arraycopy(sizeForCurrentFormat, 0, formatSizes, startByte, 4);
-        });
+        int startByte = 0;
+        for (MessageHeaderFlags format : MessageHeaderFlags.values()) {
+            Integer size = sizes.get(format);
+            if (size != null) {
+                flags |= format.code;
+                byte[] sizeForCurrentFormat = ByteBuffer.allocate(4).putInt(size).array();
+                System.arraycopy(sizeForCurrentFormat, 0, formatSizes, startByte, 4);
+                startByte += 4;
+            }
+        }
 
         DataOutput dataOutput = new DataOutputStream(out);
 
         dataOutput.writeByte(0x06);
         dataOutput.write(new byte[3]);
 
-        dataOutput.writeInt(formatSizes.length + 4);
-        dataOutput.writeInt(flags[0]);
+        // Extended clipboard messages are marked by a negative length
+        dataOutput.writeInt(-(formatSizes.length + 4));
+        dataOutput.writeInt(flags);
         dataOutput.write(formatSizes);
     }
 }
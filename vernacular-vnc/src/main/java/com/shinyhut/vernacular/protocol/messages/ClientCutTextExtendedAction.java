@@ -0,0 +1,46 @@
+package com.shinyhut.vernacular.protocol.messages;
+
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * An extended clipboard message which carries no content: a REQUEST for the server's clipboard, a PEEK at which formats
+ * it holds, or a NOTIFY that our clipboard has changed
+ */
+public class ClientCutTextExtendedAction implements Encodable {
+
+    private final MessageHeaderFlags action;
+    private final Set<MessageHeaderFlags> formats;
+
+    /**
+     * @param action  One of {@link MessageHeaderFlags#REQUEST}, {@link MessageHeaderFlags#PEEK} or
+     *                {@link MessageHeaderFlags#NOTIFY}
+     * @param formats The formats requested, or available
+     */
+    public ClientCutTextExtendedAction(MessageHeaderFlags action, Set<MessageHeaderFlags> formats) {
+        this.action = action;
+        this.formats = formats;
+    }
+
+    public MessageHeaderFlags getAction() {
+        return action;
+    }
+
+    public Set<MessageHeaderFlags> getFormats() {
+        return formats;
+    }
+
+    @Override
+    public void encode(OutputStream out) throws IOException {
+        DataOutput dataOutput = new DataOutputStream(out);
+
+        dataOutput.writeByte(0x06);
+        dataOutput.write(new byte[3]);
+
+        dataOutput.writeInt(-4);
+        dataOutput.writeInt(action.code | MessageHeaderFlags.combine(formats));
+    }
+}
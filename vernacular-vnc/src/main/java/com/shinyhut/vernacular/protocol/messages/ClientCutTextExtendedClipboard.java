@@ -1,57 +1,82 @@
 package com.shinyhut.vernacular.protocol.messages;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.PROVIDE;
 import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.TEXT;
+import static com.shinyhut.vernacular.protocol.messages.ServerCutText.TEXT_FORMATS;
 
 public class ClientCutTextExtendedClipboard  implements Encodable {
 
-    private final String text;
+    private static final int DEFLATE_BUFFER_SIZE = 8192;
+
+    private final Map<MessageHeaderFlags, String> formats;
+    private final Deflater deflater;
 
     public ClientCutTextExtendedClipboard(String text) {
-        this.text = text;
+        this(Collections.singletonMap(TEXT, text), null);
+    }
+
+    /**
+     * @param formats  The contents of the clipboard in any of the text, RTF and HTML formats. Other formats are
+     *                 ignored.
+     * @param deflater Deflater to reuse, or null to use a new one. A shared deflater must not be used to encode more
+     *                 than one message at a time.
+     */
+    public ClientCutTextExtendedClipboard(Map<MessageHeaderFlags, String> formats, Deflater deflater) {
+        this.formats = formats;
+        this.deflater = deflater;
     }
 
     public String getText() {
-        return text;
+        String text = formats.get(TEXT);
+        return text != null ? text : "";
     }
 
     @Override
     public void encode(OutputStream out) throws IOException {
-        int flags = PROVIDE.code | TEXT.code;
-
-        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
-        byte[] testLengthInBytes = ByteBuffer.allocate(4).putInt(textBytes.length + 1).array();
-        byte[] input = new byte[4 + textBytes.length + 1];
-
-        System.arraycopy(testLengthInBytes, 0, input, 0, testLengthInBytes.length);
-        System.arraycopy(textBytes, 0, input, testLengthInBytes.length, textBytes.length);
-
-        byte[] output = new byte[20 * 1024 * 1024];
-
-        Deflater compresser = new Deflater();
-        compresser.setInput(input);
-        compresser.finish();
-        int compressedDataLength = compresser.deflate(output);
+        int flags = PROVIDE.code;
+
+        // The compressed length comes first, so the content is compressed into a buffer which grows as needed
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater zlib = deflater != null ? deflater : new Deflater();
+        zlib.reset();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(compressed, zlib, DEFLATE_BUFFER_SIZE)) {
+            DataOutput content = new DataOutputStream(deflate);
+            for (MessageHeaderFlags format : TEXT_FORMATS) {
+                String value = formats.get(format);
+                if (value == null) {
+                    continue;
+                }
+                flags |= format.code;
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                content.writeInt(bytes.length + 1);
+                content.write(bytes);
+                content.writeByte(0);
+            }
+        } finally {
+            if (deflater == null) {
+                zlib.end();
+            }
+        }
 
         DataOutput dataOutput = new DataOutputStream(out);
 
         dataOutput.writeByte(0x06);
         dataOutput.write(new byte[3]);
 
-        dataOutput.writeInt(-(compressedDataLength + 4));
+        dataOutput.writeInt(-(compressed.size() + 4));
         dataOutput.writeInt(flags);
 
-        byte[] result = Arrays.copyOfRange(output, 0, compressedDataLength);
-
-        dataOutput.write(result);
+        compressed.writeTo(out);
     }
 }
@@ -1,9 +1,11 @@
 package com.shinyhut.vernacular.protocol.messages;
 
-import java.io.DataInputStream;
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
 
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
 public class ColorMapEntry {
 
     private final int red;
@@ -29,7 +31,7 @@ public class ColorMapEntry {
     }
 
     public static ColorMapEntry decode(InputStream in) throws IOException {
-        DataInputStream dataInput = new DataInputStream(in);
+        DataInput dataInput = dataInput(in);
         int red = dataInput.readUnsignedShort();
         int green = dataInput.readUnsignedShort();
         int blue = dataInput.readUnsignedShort();
@@ -11,8 +11,33 @@ public enum Encoding {
     HEXTILE(5),
     ZLIB(6),
     TIGHT(7),
+    TRLE(15),
+    ZRLE(16),
     DESKTOP_SIZE(-223),
     CURSOR(-239),
+    FENCE(-312),
+    CONTINUOUS_UPDATES(-313),
+    QEMU_EXTENDED_KEY_EVENT(-258),
+    COMPRESS_LEVEL_0(-256),
+    COMPRESS_LEVEL_1(-255),
+    COMPRESS_LEVEL_2(-254),
+    COMPRESS_LEVEL_3(-253),
+    COMPRESS_LEVEL_4(-252),
+    COMPRESS_LEVEL_5(-251),
+    COMPRESS_LEVEL_6(-250),
+    COMPRESS_LEVEL_7(-249),
+    COMPRESS_LEVEL_8(-248),
+    COMPRESS_LEVEL_9(-247),
+    QUALITY_LEVEL_0(-32),
+    QUALITY_LEVEL_1(-31),
+    QUALITY_LEVEL_2(-30),
+    QUALITY_LEVEL_3(-29),
+    QUALITY_LEVEL_4(-28),
+    QUALITY_LEVEL_5(-27),
+    QUALITY_LEVEL_6(-26),
+    QUALITY_LEVEL_7(-25),
+    QUALITY_LEVEL_8(-24),
+    QUALITY_LEVEL_9(-23),
     EXTENDED_CLIPBOARD(0xC0A1E5CE)
     ;
 
@@ -26,6 +51,31 @@ public enum Encoding {
         return code;
     }
 
+    /**
+     * @param level Compression level, from 0 (fastest) to 9 (smallest)
+     * @return The pseudo-encoding which requests the specified compression level
+     * @throws IllegalArgumentException if the level is out of range
+     */
+    public static Encoding compressLevel(int level) {
+        return level(level, COMPRESS_LEVEL_0);
+    }
+
+    /**
+     * @param level JPEG quality level, from 0 (smallest) to 9 (best quality)
+     * @return The pseudo-encoding which requests the specified JPEG quality level
+     * @throws IllegalArgumentException if the level is out of range
+     */
+    public static Encoding qualityLevel(int level) {
+        return level(level, QUALITY_LEVEL_0);
+    }
+
+    private static Encoding level(int level, Encoding levelZero) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Level must be between 0 and 9: " + level);
+        }
+        return values()[levelZero.ordinal() + level];
+    }
+
     public static Encoding resolve(int code) throws UnsupportedEncodingException {
         return stream(values())
                 .filter(e -> e.code == code)
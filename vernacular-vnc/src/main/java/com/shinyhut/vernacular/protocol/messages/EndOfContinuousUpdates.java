@@ -0,0 +1,16 @@
+package com.shinyhut.vernacular.protocol.messages;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
+public class EndOfContinuousUpdates {
+
+    public static EndOfContinuousUpdates decode(InputStream in) throws IOException {
+        DataInput dataInput = dataInput(in);
+        dataInput.readFully(new byte[1]);
+        return new EndOfContinuousUpdates();
+    }
+}
@@ -0,0 +1,78 @@
+package com.shinyhut.vernacular.protocol.messages;
+
+import com.shinyhut.vernacular.client.exceptions.InvalidMessageException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
+/**
+ * A Fence message, which may be sent by either the client or the server to synchronise the two message streams.
+ */
+public class Fence implements Encodable {
+
+    public static final int FLAG_BLOCK_BEFORE = 1;
+    public static final int FLAG_BLOCK_AFTER = 1 << 1;
+    public static final int FLAG_SYNC_NEXT = 1 << 2;
+    public static final int FLAG_REQUEST = 1 << 31;
+
+    private static final int MAX_PAYLOAD_LENGTH = 64;
+
+    private final int flags;
+    private final byte[] payload;
+
+    public Fence(int flags, byte[] payload) {
+        this.flags = flags;
+        this.payload = payload;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public boolean isRequest() {
+        return (flags & FLAG_REQUEST) != 0;
+    }
+
+    /**
+     * Creates the response to a fence request. The response echoes the request's payload, and keeps only the flags we
+     * support (BlockBefore and BlockAfter).
+     *
+     * @return The response to send to the other side
+     */
+    public Fence response() {
+        return new Fence(flags & (FLAG_BLOCK_BEFORE | FLAG_BLOCK_AFTER), payload);
+    }
+
+    @Override
+    public void encode(OutputStream out) throws IOException {
+        DataOutput dataOutput = new DataOutputStream(out);
+        dataOutput.writeByte(248);
+        dataOutput.write(new byte[3]);
+        dataOutput.writeInt(flags);
+        dataOutput.writeByte(payload.length);
+        dataOutput.write(payload);
+    }
+
+    public static Fence decode(InputStream in) throws IOException, InvalidMessageException {
+        DataInput dataInput = dataInput(in);
+        dataInput.readFully(new byte[4]);
+        int flags = dataInput.readInt();
+        int length = dataInput.readUnsignedByte();
+        if (length > MAX_PAYLOAD_LENGTH) {
+            throw new InvalidMessageException("Fence");
+        }
+        byte[] payload = new byte[length];
+        dataInput.readFully(payload);
+        return new Fence(flags, payload);
+    }
+}
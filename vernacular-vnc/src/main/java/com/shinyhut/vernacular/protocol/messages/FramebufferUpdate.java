@@ -1,9 +1,11 @@
 package com.shinyhut.vernacular.protocol.messages;
 
-import java.io.DataInputStream;
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
 
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
 public class FramebufferUpdate {
 
     private final int numberOfRectangles;
@@ -17,7 +19,7 @@ public class FramebufferUpdate {
     }
 
     public static FramebufferUpdate decode(InputStream in) throws IOException {
-        DataInputStream dataInput = new DataInputStream(in);
+        DataInput dataInput = dataInput(in);
         dataInput.readFully(new byte[2]);
         int numberOfRectangles = dataInput.readUnsignedShort();
         return new FramebufferUpdate(numberOfRectangles);
@@ -1,12 +1,15 @@
 package com.shinyhut.vernacular.protocol.messages;
 
-import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
 public class KeyEvent implements Encodable {
 
+    /**
+     * The size of an encoded key event, in bytes
+     */
+    public static final int SIZE = 8;
+
     private final int keysym;
     private final boolean pressed;
 
@@ -15,12 +18,35 @@ public class KeyEvent implements Encodable {
         this.pressed = pressed;
     }
 
+    public int getKeysym() {
+        return keysym;
+    }
+
+    public boolean isPressed() {
+        return pressed;
+    }
+
     @Override
     public void encode(OutputStream out) throws IOException {
-        DataOutput dataOutput = new DataOutputStream(out);
-        dataOutput.writeByte(0x04);
-        dataOutput.writeBoolean(pressed);
-        dataOutput.write(new byte[]{0x00, 0x00});
-        dataOutput.writeInt(keysym);
+        byte[] message = new byte[SIZE];
+        encode(message, 0);
+        out.write(message);
+    }
+
+    /**
+     * Encodes this event into an array, so that several events can be sent in a single write
+     *
+     * @param buffer The array to encode into, which must have room for {@link #SIZE} bytes
+     * @param offset The index in the array at which to start
+     */
+    public void encode(byte[] buffer, int offset) {
+        buffer[offset] = 0x04;
+        buffer[offset + 1] = (byte) (pressed ? 1 : 0);
+        buffer[offset + 2] = 0x00;
+        buffer[offset + 3] = 0x00;
+        buffer[offset + 4] = (byte) (keysym >> 24);
+        buffer[offset + 5] = (byte) (keysym >> 16);
+        buffer[offset + 6] = (byte) (keysym >> 8);
+        buffer[offset + 7] = (byte) keysym;
     }
 }
@@ -1,5 +1,9 @@
 package com.shinyhut.vernacular.protocol.messages;
 
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+
 public enum MessageHeaderFlags {
 
     TEXT(1),
@@ -13,9 +17,41 @@ public enum MessageHeaderFlags {
     NOTIFY(1 << 27),
     PROVIDE(1 << 28);
 
+    private static final Set<MessageHeaderFlags> FORMATS = EnumSet.of(TEXT, RTF, HTML, DIB, FILES);
+
     final int code;
 
     MessageHeaderFlags(int code) {
         this.code = code;
     }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @param flags The flags of an extended clipboard message
+     * @return The clipboard formats whose flags are set
+     */
+    public static Set<MessageHeaderFlags> formats(int flags) {
+        Set<MessageHeaderFlags> formats = EnumSet.noneOf(MessageHeaderFlags.class);
+        for (MessageHeaderFlags format : FORMATS) {
+            if ((flags & format.code) != 0) {
+                formats.add(format);
+            }
+        }
+        return formats;
+    }
+
+    /**
+     * @param flags Any number of flags
+     * @return The flags combined into a single value
+     */
+    public static int combine(Collection<MessageHeaderFlags> flags) {
+        int combined = 0;
+        for (MessageHeaderFlags flag : flags) {
+            combined |= flag.code;
+        }
+        return combined;
+    }
 }
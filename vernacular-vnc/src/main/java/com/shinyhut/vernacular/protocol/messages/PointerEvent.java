@@ -1,37 +1,72 @@
 package com.shinyhut.vernacular.protocol.messages;
 
-import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
 
 public class PointerEvent implements Encodable {
 
+    /**
+     * The size of an encoded pointer event, in bytes
+     */
+    public static final int SIZE = 6;
+
     private final int x;
     private final int y;
-    private final List<Boolean> buttons;
+    private final int buttonMask;
 
     public PointerEvent(int x, int y, List<Boolean> buttons) {
+        this(x, y, buttonMask(buttons));
+    }
+
+    /**
+     * @param buttonMask The pressed buttons: bit 0 for button 1, up to bit 7 for button 8
+     */
+    public PointerEvent(int x, int y, int buttonMask) {
         this.x = x;
         this.y = y;
-        this.buttons = buttons;
+        this.buttonMask = buttonMask;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getButtonMask() {
+        return buttonMask;
     }
 
     @Override
     public void encode(OutputStream out) throws IOException {
-        DataOutput dataOutput = new DataOutputStream(out);
-        dataOutput.write(0x05);
-        dataOutput.write(buttonMask());
-        dataOutput.writeShort(x);
-        dataOutput.writeShort(y);
+        byte[] message = new byte[SIZE];
+        encode(message, 0);
+        out.write(message);
+    }
+
+    /**
+     * Encodes this event into an array, so that several events can be sent in a single write
+     *
+     * @param buffer The array to encode into, which must have room for {@link #SIZE} bytes
+     * @param offset The index in the array at which to start
+     */
+    public void encode(byte[] buffer, int offset) {
+        buffer[offset] = 0x05;
+        buffer[offset + 1] = (byte) buttonMask;
+        buffer[offset + 2] = (byte) (x >> 8);
+        buffer[offset + 3] = (byte) x;
+        buffer[offset + 4] = (byte) (y >> 8);
+        buffer[offset + 5] = (byte) y;
     }
 
-    private byte buttonMask() {
-        byte mask = 0x00;
+    private static int buttonMask(List<Boolean> buttons) {
+        int mask = 0x00;
         for (int i = 0; i < 8 && i < buttons.size(); i++) {
             if (buttons.get(i)) {
-                mask |= (0x80 >> (7 - i));
+                mask |= 1 << i;
             }
         }
         return mask;
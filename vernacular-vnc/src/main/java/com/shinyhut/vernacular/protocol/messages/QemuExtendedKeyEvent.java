@@ -0,0 +1,60 @@
+package com.shinyhut.vernacular.protocol.messages;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A key press or release identified by the scancode of the physical key, as well as by its KeySym. Only sent to
+ * servers which have acknowledged the QEMU Extended Key Event pseudo-encoding; they can use the scancode directly,
+ * rather than working out which key produces the KeySym on their keyboard layout.
+ */
+public class QemuExtendedKeyEvent implements Encodable {
+
+    /**
+     * The size of an encoded extended key event, in bytes
+     */
+    public static final int SIZE = 12;
+
+    private final int keysym;
+    private final int keycode;
+    private final boolean pressed;
+
+    /**
+     * @param keysym  The KeySym of the key, or 0 if it has none
+     * @param keycode The XT scancode of the key, with the high bit set for extended (0xe0 prefixed) scancodes
+     * @param pressed Was the key pressed (true) or released (false)?
+     */
+    public QemuExtendedKeyEvent(int keysym, int keycode, boolean pressed) {
+        this.keysym = keysym;
+        this.keycode = keycode;
+        this.pressed = pressed;
+    }
+
+    @Override
+    public void encode(OutputStream out) throws IOException {
+        byte[] message = new byte[SIZE];
+        encode(message, 0);
+        out.write(message);
+    }
+
+    /**
+     * Encodes this event into an array, so that several events can be sent in a single write
+     *
+     * @param buffer The array to encode into, which must have room for {@link #SIZE} bytes
+     * @param offset The index in the array at which to start
+     */
+    public void encode(byte[] buffer, int offset) {
+        buffer[offset] = (byte) 0xff;
+        buffer[offset + 1] = 0x00;
+        buffer[offset + 2] = 0x00;
+        buffer[offset + 3] = (byte) (pressed ? 1 : 0);
+        buffer[offset + 4] = (byte) (keysym >> 24);
+        buffer[offset + 5] = (byte) (keysym >> 16);
+        buffer[offset + 6] = (byte) (keysym >> 8);
+        buffer[offset + 7] = (byte) keysym;
+        buffer[offset + 8] = (byte) (keycode >> 24);
+        buffer[offset + 9] = (byte) (keycode >> 16);
+        buffer[offset + 10] = (byte) (keycode >> 8);
+        buffer[offset + 11] = (byte) keycode;
+    }
+}
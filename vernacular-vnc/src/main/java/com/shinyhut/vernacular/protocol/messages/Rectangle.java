@@ -2,10 +2,12 @@ package com.shinyhut.vernacular.protocol.messages;
 
 import com.shinyhut.vernacular.client.exceptions.UnsupportedEncodingException;
 
-import java.io.DataInputStream;
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
 
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
 public class Rectangle {
 
     private final int x;
@@ -43,7 +45,7 @@ public class Rectangle {
     }
 
     public static Rectangle decode(InputStream in) throws UnsupportedEncodingException, IOException {
-        DataInputStream dataInput = new DataInputStream(in);
+        DataInput dataInput = dataInput(in);
         int x = dataInput.readUnsignedShort();
         int y = dataInput.readUnsignedShort();
         int width = dataInput.readUnsignedShort();
@@ -1,77 +1,259 @@
 package com.shinyhut.vernacular.protocol.messages;
 
+import java.io.DataInput;
 import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigInteger;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.zip.DataFormatException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.CAPS;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.HTML;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.PROVIDE;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.RTF;
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.TEXT;
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
 
 public class ServerCutText {
 
-    private final String text;
+    /**
+     * The largest clipboard content accepted in a format for which no maximum size has been configured, in bytes
+     */
+    public static final int DEFAULT_MAX_SIZE = 20 * 1024 * 1024;
+
+    /**
+     * The formats which hold text, in the order they appear in an extended clipboard message. They are followed by
+     * the DIB and FILES formats, which are not supported.
+     */
+    static final MessageHeaderFlags[] TEXT_FORMATS = {TEXT, RTF, HTML};
+
+    private static final int INFLATE_BUFFER_SIZE = 8192;
+
+    private static final int FORMAT_FLAGS = 16;
+
+    private final int flags;
+    private final Map<MessageHeaderFlags, String> formats;
+    private final Map<MessageHeaderFlags, Integer> maxSizes;
 
     public ServerCutText(String text) {
-        this.text = text;
+        this(0, text.isEmpty() ? Collections.emptyMap() : Collections.singletonMap(TEXT, text),
+                Collections.emptyMap());
+    }
+
+    private ServerCutText(int flags, Map<MessageHeaderFlags, String> formats,
+                          Map<MessageHeaderFlags, Integer> maxSizes) {
+        this.flags = flags;
+        this.formats = formats;
+        this.maxSizes = maxSizes;
     }
 
+    /**
+     * @return The text on the clipboard, or an empty string if there is none
+     */
     public String getText() {
-        return text;
+        String text = formats.get(TEXT);
+        return text != null ? text : "";
+    }
+
+    /**
+     * @return The flags of an extended clipboard message, or 0 for a message in the original format
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * @param flag A format or action flag
+     * @return true if this is an extended clipboard message with the flag set
+     */
+    public boolean hasFlag(MessageHeaderFlags flag) {
+        return (flags & flag.code) != 0;
+    }
+
+    /**
+     * @return For a CAPS message, the largest content the server accepts in each format it supports
+     */
+    public Map<MessageHeaderFlags, Integer> getMaxSizes() {
+        return Collections.unmodifiableMap(maxSizes);
+    }
+
+    /**
+     * @return The contents of the clipboard in each of the text, RTF and HTML formats provided by the server
+     */
+    public Map<MessageHeaderFlags, String> getFormats() {
+        return Collections.unmodifiableMap(formats);
     }
 
     public static ServerCutText decode(InputStream in) throws IOException {
-        DataInputStream dataInput = new DataInputStream(in);
+        return decode(in, null, Collections.emptyMap());
+    }
+
+    /**
+     * Decodes a ServerCutText message. Compressed clipboard content is inflated as it is read, so only the content
+     * itself is held in memory, and content larger than the maximum size for its format is discarded.
+     *
+     * @param in       Input to read the message from
+     * @param inflater Inflater to reuse for extended clipboard messages, or null to use a new one
+     * @param maxSizes The largest content accepted in each format, in bytes; {@link #DEFAULT_MAX_SIZE} is used for
+     *                 formats not listed
+     */
+    public static ServerCutText decode(InputStream in, Inflater inflater, Map<MessageHeaderFlags, Integer> maxSizes)
+            throws IOException {
+        DataInput dataInput = dataInput(in);
         dataInput.readFully(new byte[4]);
 
         int textLength = dataInput.readInt();
 
         if (textLength < 0) {
-            return decodeExtendedMessageFormat(dataInput, -textLength);
+            return decodeExtendedMessageFormat(in, dataInput, -(long) textLength, inflater, maxSizes);
         }
 
-        return decodeOriginalFormat(dataInput, textLength);
+        return decodeOriginalFormat(in, dataInput, textLength, maxSizes);
     }
 
-    private static ServerCutText decodeOriginalFormat(DataInputStream dataInput, Integer textLength) throws IOException {
+    private static ServerCutText decodeOriginalFormat(InputStream in, DataInput dataInput, int textLength,
+                                                      Map<MessageHeaderFlags, Integer> maxSizes) throws IOException {
+        if (textLength > maxSizes.getOrDefault(TEXT, DEFAULT_MAX_SIZE)) {
+            skipFully(in, textLength);
+            return new ServerCutText("");
+        }
         byte[] textBytes = new byte[textLength];
         dataInput.readFully(textBytes);
         String text = new String(textBytes, StandardCharsets.ISO_8859_1);
         return new ServerCutText(text);
     }
 
-    private static ServerCutText decodeExtendedMessageFormat(DataInputStream dataInput, Integer textLength) throws IOException {
-        Charset charset = StandardCharsets.UTF_8;
-
+    private static ServerCutText decodeExtendedMessageFormat(InputStream in, DataInput dataInput, long length,
+                                                             Inflater inflater,
+                                                             Map<MessageHeaderFlags, Integer> maxSizes)
+            throws IOException {
+        if (length < 4) {
+            throw new IOException("Extended clipboard message is too short: " + length + " bytes");
+        }
         int flags = dataInput.readInt();
+        LimitedInputStream payload = new LimitedInputStream(in, length - 4);
+        Map<MessageHeaderFlags, String> formats = new EnumMap<>(MessageHeaderFlags.class);
+        Map<MessageHeaderFlags, Integer> serverMaxSizes = new EnumMap<>(MessageHeaderFlags.class);
 
-        byte[] textBytes = new byte[textLength - 4];
-        dataInput.readFully(textBytes);
+        if ((flags & CAPS.code) != 0) {
+            // A size follows for each format flag set, including formats we do not know about
+            DataInputStream sizes = new DataInputStream(payload);
+            Set<MessageHeaderFlags> known = MessageHeaderFlags.formats(flags);
+            for (int bit = 0; bit < FORMAT_FLAGS; bit++) {
+                if ((flags & (1 << bit)) != 0) {
+                    int size = sizes.readInt();
+                    for (MessageHeaderFlags format : known) {
+                        if (format.code == 1 << bit) {
+                            serverMaxSizes.put(format, size);
+                        }
+                    }
+                }
+            }
+        } else if ((flags & PROVIDE.code) != 0) {
+            Inflater zlib = inflater != null ? inflater : new Inflater();
+            zlib.reset();
+            try {
+                DataInputStream content = new DataInputStream(new InflaterInputStream(payload, zlib,
+                        INFLATE_BUFFER_SIZE));
+                for (MessageHeaderFlags format : TEXT_FORMATS) {
+                    if ((flags & format.code) == 0) {
+                        continue;
+                    }
+                    int size = content.readInt();
+                    if (size < 0 || size > maxSizes.getOrDefault(format, DEFAULT_MAX_SIZE)) {
+                        // The formats which follow cannot be found without inflating this one, so give up here
+                        break;
+                    }
+                    byte[] bytes = new byte[size];
+                    content.readFully(bytes);
+                    formats.put(format, nulTerminatedString(bytes));
+                }
+            } finally {
+                if (inflater == null) {
+                    zlib.end();
+                }
+            }
+        }
 
-        if ((flags & MessageHeaderFlags.CAPS.code) != 0) {
-            return new ServerCutText("");
+        payload.skipRemaining();
+        return new ServerCutText(flags, formats, serverMaxSizes);
+    }
+
+    private static String nulTerminatedString(byte[] bytes) {
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == 0 ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            length -= skipped;
         }
+    }
 
-        if ((flags & MessageHeaderFlags.PROVIDE.code) != 0) {
-            Inflater inflater = new Inflater();
+    /**
+     * Reads no more than the specified number of bytes from the underlying stream
+     */
+    private static class LimitedInputStream extends FilterInputStream {
 
-            inflater.setInput(textBytes, 0, textBytes.length);
-            byte[] result = new byte[20 * 1024 * 1024];
-            try {
-                inflater.inflate(result);
-            } catch (DataFormatException e) {
-                throw new RuntimeException(e);
-            } finally {
-                inflater.end();
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
             }
-            int length = new BigInteger(Arrays.copyOfRange(result, 0, 4)).intValue();
-            String text = new String(result, 4, length - 1, charset);
-            return new ServerCutText(text);
+            return b;
         }
 
-        return new ServerCutText("");
-    }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
 
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        void skipRemaining() throws IOException {
+            skipFully(in, remaining);
+            remaining = 0;
+        }
+    }
 }
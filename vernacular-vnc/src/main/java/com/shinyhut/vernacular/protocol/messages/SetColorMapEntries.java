@@ -1,11 +1,13 @@
 package com.shinyhut.vernacular.protocol.messages;
 
-import java.io.DataInputStream;
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import static com.shinyhut.vernacular.utils.ChannelInputStream.dataInput;
+
 public class SetColorMapEntries {
 
     private final int firstColor;
@@ -25,7 +27,7 @@ public class SetColorMapEntries {
     }
 
     public static SetColorMapEntries decode(InputStream in) throws IOException {
-        DataInputStream dataInput = new DataInputStream(in);
+        DataInput dataInput = dataInput(in);
         dataInput.readFully(new byte[2]);
         int firstColor = dataInput.readUnsignedShort();
         int numberOfColors = dataInput.readUnsignedShort();
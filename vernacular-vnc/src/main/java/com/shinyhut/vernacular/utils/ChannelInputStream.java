@@ -0,0 +1,370 @@
+package com.shinyhut.vernacular.utils;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A buffered input stream which reads from a channel into a single large, reusable ByteBuffer (which may be direct).
+ * <p>
+ * As well as the usual InputStream methods, it implements DataInput and offers unsigned read methods which work
+ * directly on the buffer, so decoders can read from it without wrapping it in a new DataInputStream for every
+ * message. Use {@link #dataInput(InputStream)} to get a DataInput for any stream without creating a wrapper if one is
+ * not needed.
+ * <p>
+ * It also counts the bytes read from the channel, and the time spent waiting for them.
+ */
+public class ChannelInputStream extends InputStream implements DataInput, InputMeter {
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    private int mark = -1;
+    private int markLimit;
+
+    private volatile long bytesRead;
+    private volatile long readNanos;
+
+    /**
+     * @param channel    Channel to read from. This must be in blocking mode.
+     * @param bufferSize Size of the read buffer
+     * @param direct     Whether to allocate a direct buffer
+     */
+    public ChannelInputStream(ReadableByteChannel channel, int bufferSize, boolean direct) {
+        this.channel = channel;
+        this.buffer = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        this.buffer.flip();
+    }
+
+    /**
+     * @return The specified stream, if it already implements DataInput, otherwise a new DataInputStream reading from it
+     */
+    public static DataInput dataInput(InputStream in) {
+        return in instanceof DataInput ? (DataInput) in : new DataInputStream(in);
+    }
+
+    /**
+     * Adapts an input stream to a channel. Unlike {@link java.nio.channels.Channels#newChannel(InputStream)}, the
+     * channel does not hold a monitor while it blocks reading from the stream, so it does not pin the carrier thread
+     * when it is read from a virtual thread. It must only be read by one thread at a time.
+     *
+     * @param in The stream to read from
+     * @return A channel which reads from the stream
+     */
+    public static ReadableByteChannel channel(InputStream in) {
+        return new StreamChannel(in);
+    }
+
+    /**
+     * Makes sure that at least the specified number of bytes are buffered, reading from the channel as necessary
+     *
+     * @param length The number of bytes required, which must not exceed the size of the buffer
+     * @throws EOFException if the channel reaches end of stream first
+     */
+    private void require(int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        if (length > buffer.capacity()) {
+            throw new IllegalArgumentException("Cannot buffer " + length + " bytes");
+        }
+        while (buffer.remaining() < length) {
+            if (fill() < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Reads more data from the channel into the buffer, keeping any unread (or marked) data
+     *
+     * @return The number of bytes read, or -1 at end of stream
+     */
+    private int fill() throws IOException {
+        if (mark >= 0 && (buffer.position() - mark > markLimit || mark == 0 && buffer.limit() == buffer.capacity())) {
+            mark = -1;
+        }
+        int keepFrom = mark >= 0 ? mark : buffer.position();
+        int position = buffer.position() - keepFrom;
+        buffer.position(keepFrom);
+        buffer.compact();
+        if (mark >= 0) {
+            mark = 0;
+        }
+        int read;
+        long start = System.nanoTime();
+        try {
+            read = channel.read(buffer);
+        } finally {
+            readNanos += System.nanoTime() - start;
+            buffer.flip();
+            buffer.position(position);
+        }
+        if (read > 0) {
+            bytesRead += read;
+        }
+        return read;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && fill() < 0) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && fill() < 0) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        mark = buffer.position();
+        markLimit = readLimit;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        if (mark < 0) {
+            throw new IOException("Stream not marked, or mark invalidated");
+        }
+        buffer.position(mark);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public int readU8() throws IOException {
+        require(1);
+        return buffer.get() & 0xFF;
+    }
+
+    public int readU16() throws IOException {
+        require(2);
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    public int readS32() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int read = read(b, off, len);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            off += read;
+            len -= read;
+        }
+    }
+
+    /**
+     * Reads exactly enough bytes to fill the remaining space in the specified buffer
+     */
+    public void readFully(ByteBuffer destination) throws IOException {
+        while (destination.hasRemaining()) {
+            if (!buffer.hasRemaining() && fill() < 0) {
+                throw new EOFException();
+            }
+            int count = Math.min(destination.remaining(), buffer.remaining());
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + count);
+            destination.put(buffer);
+            buffer.limit(limit);
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        int skipped = 0;
+        while (skipped < n) {
+            if (!buffer.hasRemaining() && fill() < 0) {
+                break;
+            }
+            int count = Math.min(n - skipped, buffer.remaining());
+            buffer.position(buffer.position() + count);
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readU8() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readU8();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        require(2);
+        return buffer.getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readU16();
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        require(2);
+        return buffer.getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return readS32();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads a line of text as {@link DataInputStream#readLine()} does: each byte becomes one character, and the line
+     * ends with a line feed, a carriage return, or a carriage return followed by a line feed
+     *
+     * @return The line, without its terminator, or null if the stream has already ended
+     */
+    @Override
+    public String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b = read();
+        if (b < 0) {
+            return null;
+        }
+        while (b >= 0 && b != '\n') {
+            if (b == '\r') {
+                if ((buffer.hasRemaining() || fill() > 0) && buffer.get(buffer.position()) == '\n') {
+                    buffer.get();
+                }
+                break;
+            }
+            line.append((char) b);
+            b = read();
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    private static class StreamChannel implements ReadableByteChannel {
+
+        private final InputStream in;
+        private final byte[] transfer = new byte[8192];
+
+        private volatile boolean open = true;
+
+        private StreamChannel(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (destination.hasArray()) {
+                int read = in.read(destination.array(), destination.arrayOffset() + destination.position(),
+                        destination.remaining());
+                if (read > 0) {
+                    destination.position(destination.position() + read);
+                }
+                return read;
+            }
+            int read = in.read(transfer, 0, Math.min(transfer.length, destination.remaining()));
+            if (read > 0) {
+                destination.put(transfer, 0, read);
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.shinyhut.vernacular.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An output stream which writes to a channel, which may be in either blocking or non-blocking mode.
+ * <p>
+ * In blocking mode every write completes before it returns. In non-blocking mode, whatever the channel cannot accept
+ * straight away is kept in a pending buffer, and the write listener is told that the channel should be watched for
+ * space; whoever is watching it then calls {@link #flushPending()}. Writes never block, so they can safely be made
+ * from threads which are shared between many connections.
+ */
+public class ChannelOutputStream extends OutputStream {
+
+    /**
+     * The maximum amount of data which can be waiting to be written before writes fail
+     */
+    public static final int MAX_PENDING = 4 * 1024 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final byte[] single = new byte[1];
+
+    private ByteBuffer pending = ByteBuffer.allocate(0);
+    private volatile Runnable writeListener;
+
+    public ChannelOutputStream(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Sets a listener which is notified when data has been left pending because a non-blocking channel was full
+     */
+    public void setWriteListener(Runnable writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        lock.lock();
+        try {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        lock.lock();
+        try {
+            ByteBuffer data = ByteBuffer.wrap(b, off, len);
+            if (pending.position() == 0) {
+                writeToChannel(data);
+            }
+            if (data.hasRemaining()) {
+                boolean wasEmpty = pending.position() == 0;
+                appendPending(data);
+                Runnable listener = writeListener;
+                if (wasEmpty && listener != null) {
+                    listener.run();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes as much pending data to the channel as it will accept
+     *
+     * @return true if all pending data has now been written
+     */
+    public boolean flushPending() throws IOException {
+        lock.lock();
+        try {
+            pending.flip();
+            try {
+                writeToChannel(pending);
+            } finally {
+                pending.compact();
+            }
+            return pending.position() == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeToChannel(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (channel.write(data) == 0 && isNonBlocking()) {
+                return;
+            }
+        }
+    }
+
+    private boolean isNonBlocking() {
+        return channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking();
+    }
+
+    private void appendPending(ByteBuffer data) throws IOException {
+        int required = pending.position() + data.remaining();
+        if (required > MAX_PENDING) {
+            throw new IOException("Too much data waiting to be sent to the server");
+        }
+        if (required > pending.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.min(MAX_PENDING, Math.max(required, pending.capacity() * 2)));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.put(data);
+    }
+}
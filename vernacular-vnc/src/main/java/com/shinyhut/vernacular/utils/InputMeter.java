@@ -0,0 +1,17 @@
+package com.shinyhut.vernacular.utils;
+
+/**
+ * Measures how much data has been received from the network, and how long it took to arrive
+ */
+public interface InputMeter {
+
+    /**
+     * @return The total number of bytes read from the network
+     */
+    long getBytesRead();
+
+    /**
+     * @return The total time, in nanoseconds, spent blocked reading from the network
+     */
+    long getReadNanos();
+}
@@ -0,0 +1,51 @@
+package com.shinyhut.vernacular.utils;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factories for the threads which run a VNC session.
+ * <p>
+ * Virtual threads are only available from Java 21, but we still build for Java 11, so they are created by reflection
+ * when the running JVM supports them.
+ */
+public class ThreadFactories {
+
+    private static final ThreadFactory PLATFORM_THREAD_FACTORY = Thread::new;
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+    private ThreadFactories() {
+    }
+
+    /**
+     * @return A factory for virtual threads if the JVM supports them, otherwise a factory for platform threads
+     */
+    public static ThreadFactory defaultThreadFactory() {
+        return virtualThreadFactory().orElse(PLATFORM_THREAD_FACTORY);
+    }
+
+    /**
+     * @return A factory for ordinary (non-daemon) platform threads
+     */
+    public static ThreadFactory platformThreadFactory() {
+        return PLATFORM_THREAD_FACTORY;
+    }
+
+    /**
+     * @return A factory for virtual threads, or an empty Optional if the JVM does not support them
+     */
+    public static Optional<ThreadFactory> virtualThreadFactory() {
+        return Optional.ofNullable(VIRTUAL_THREAD_FACTORY);
+    }
+
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(ofVirtual.invoke(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.shinyhut.vernacular.utils;
+
+import static java.awt.event.KeyEvent.*;
+
+/**
+ * Maps AWT key codes to XT (PC scancode set 1) scancodes, as sent in QEMU Extended Key Events. Extended scancodes,
+ * which a keyboard sends with an 0xe0 prefix, have the high bit set instead: right control (0xe0 0x1d) is 0x9d.
+ * <p>
+ * The mapping assumes a US keyboard layout. AWT key codes for letter, digit and punctuation keys follow the active
+ * layout rather than the physical key (on an AZERTY keyboard, the key in the place of the US Q key reports VK_A), so
+ * with any other layout those keys are mapped to the wrong physical key. Function, navigation, keypad and modifier
+ * keys do not depend on the layout.
+ */
+public class XtScancodes {
+
+    /**
+     * Returned for keys which have no scancode here
+     */
+    public static final int NONE = 0;
+
+    private static final int EXTENDED = 0x80;
+
+    /**
+     * Scancodes indexed by AWT key code, with 0 for key codes which are not mapped. Key codes beyond the end of the
+     * array are handled separately.
+     */
+    private static final int[] SCANCODES = new int[0x100];
+
+    static {
+        SCANCODES[VK_ESCAPE] = 0x01;
+        for (int key = VK_1; key <= VK_9; key++) {
+            SCANCODES[key] = 0x02 + key - VK_1;
+        }
+        SCANCODES[VK_0] = 0x0b;
+        SCANCODES[VK_MINUS] = 0x0c;
+        SCANCODES[VK_EQUALS] = 0x0d;
+        SCANCODES[VK_BACK_SPACE] = 0x0e;
+        SCANCODES[VK_TAB] = 0x0f;
+        row("QWERTYUIOP", 0x10);
+        SCANCODES[VK_OPEN_BRACKET] = 0x1a;
+        SCANCODES[VK_CLOSE_BRACKET] = 0x1b;
+        SCANCODES[VK_ENTER] = 0x1c;
+        SCANCODES[VK_CONTROL] = 0x1d;
+        row("ASDFGHJKL", 0x1e);
+        SCANCODES[VK_SEMICOLON] = 0x27;
+        SCANCODES[VK_QUOTE] = 0x28;
+        SCANCODES[VK_BACK_QUOTE] = 0x29;
+        SCANCODES[VK_SHIFT] = 0x2a;
+        SCANCODES[VK_BACK_SLASH] = 0x2b;
+        row("ZXCVBNM", 0x2c);
+        SCANCODES[VK_COMMA] = 0x33;
+        SCANCODES[VK_PERIOD] = 0x34;
+        SCANCODES[VK_SLASH] = 0x35;
+        SCANCODES[VK_MULTIPLY] = 0x37;
+        SCANCODES[VK_ALT] = 0x38;
+        SCANCODES[VK_SPACE] = 0x39;
+        SCANCODES[VK_CAPS_LOCK] = 0x3a;
+        for (int key = VK_F1; key <= VK_F10; key++) {
+            SCANCODES[key] = 0x3b + key - VK_F1;
+        }
+        SCANCODES[VK_NUM_LOCK] = 0x45;
+        SCANCODES[VK_SCROLL_LOCK] = 0x46;
+        SCANCODES[VK_NUMPAD7] = 0x47;
+        SCANCODES[VK_NUMPAD8] = 0x48;
+        SCANCODES[VK_NUMPAD9] = 0x49;
+        SCANCODES[VK_SUBTRACT] = 0x4a;
+        SCANCODES[VK_NUMPAD4] = 0x4b;
+        SCANCODES[VK_NUMPAD5] = 0x4c;
+        SCANCODES[VK_NUMPAD6] = 0x4d;
+        SCANCODES[VK_ADD] = 0x4e;
+        SCANCODES[VK_NUMPAD1] = 0x4f;
+        SCANCODES[VK_NUMPAD2] = 0x50;
+        SCANCODES[VK_NUMPAD3] = 0x51;
+        SCANCODES[VK_NUMPAD0] = 0x52;
+        SCANCODES[VK_DECIMAL] = 0x53;
+        SCANCODES[VK_KP_UP] = 0x48;
+        SCANCODES[VK_KP_LEFT] = 0x4b;
+        SCANCODES[VK_KP_RIGHT] = 0x4d;
+        SCANCODES[VK_KP_DOWN] = 0x50;
+        SCANCODES[VK_LESS] = 0x56;
+        SCANCODES[VK_F11] = 0x57;
+        SCANCODES[VK_F12] = 0x58;
+
+        SCANCODES[VK_DIVIDE] = EXTENDED | 0x35;
+        SCANCODES[VK_PRINTSCREEN] = EXTENDED | 0x37;
+        SCANCODES[VK_PAUSE] = EXTENDED | 0x46;
+        SCANCODES[VK_HOME] = EXTENDED | 0x47;
+        SCANCODES[VK_UP] = EXTENDED | 0x48;
+        SCANCODES[VK_PAGE_UP] = EXTENDED | 0x49;
+        SCANCODES[VK_LEFT] = EXTENDED | 0x4b;
+        SCANCODES[VK_RIGHT] = EXTENDED | 0x4d;
+        SCANCODES[VK_END] = EXTENDED | 0x4f;
+        SCANCODES[VK_DOWN] = EXTENDED | 0x50;
+        SCANCODES[VK_PAGE_DOWN] = EXTENDED | 0x51;
+        SCANCODES[VK_INSERT] = EXTENDED | 0x52;
+        SCANCODES[VK_DELETE] = EXTENDED | 0x53;
+        SCANCODES[VK_META] = EXTENDED | 0x5b;
+    }
+
+    private XtScancodes() {
+    }
+
+    private static void row(String letters, int firstScancode) {
+        for (int i = 0; i < letters.length(); i++) {
+            SCANCODES[letters.charAt(i)] = firstScancode + i;
+        }
+    }
+
+    /**
+     * Finds the scancode for a key
+     *
+     * @param keyCode     The AWT key code of the key
+     * @param keyLocation The location of the key, as returned by {@link java.awt.event.KeyEvent#getKeyLocation()}
+     * @return The scancode, or {@link #NONE} if the key has no scancode
+     */
+    public static int forKeyCode(int keyCode, int keyLocation) {
+        switch (keyCode) {
+            case VK_WINDOWS:
+                return keyLocation == KEY_LOCATION_RIGHT ? EXTENDED | 0x5c : EXTENDED | 0x5b;
+            case VK_CONTEXT_MENU:
+                return EXTENDED | 0x5d;
+            case VK_ALT_GRAPH:
+                return EXTENDED | 0x38;
+        }
+        if (keyCode < 0 || keyCode >= SCANCODES.length) {
+            return NONE;
+        }
+        int scancode = SCANCODES[keyCode];
+        if (keyLocation == KEY_LOCATION_RIGHT) {
+            switch (keyCode) {
+                case VK_SHIFT:
+                    return 0x36;
+                case VK_CONTROL:
+                case VK_ALT:
+                    return scancode | EXTENDED;
+                case VK_META:
+                    return EXTENDED | 0x5c;
+            }
+        } else if (keyLocation == KEY_LOCATION_NUMPAD) {
+            switch (keyCode) {
+                case VK_ENTER:
+                    return scancode | EXTENDED;
+                case VK_HOME:
+                case VK_UP:
+                case VK_PAGE_UP:
+                case VK_LEFT:
+                case VK_RIGHT:
+                case VK_END:
+                case VK_DOWN:
+                case VK_PAGE_DOWN:
+                case VK_INSERT:
+                case VK_DELETE:
+                    // With num lock off, the keypad sends the keys it is marked with, but from its own keys
+                    return scancode & ~EXTENDED;
+                case VK_CLEAR:
+                    return 0x4c;
+            }
+        }
+        return scancode;
+    }
+}
@@ -0,0 +1,102 @@
+package com.shinyhut.vernacular.client
+
+import com.shinyhut.vernacular.client.rendering.UpdateStatistics
+import spock.lang.Specification
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.*
+import static java.util.concurrent.TimeUnit.MILLISECONDS
+import static java.util.concurrent.TimeUnit.SECONDS
+
+class AdaptiveEncodingControllerTest extends Specification {
+
+    def now = 0L
+    def changes = 0
+    def controller = new AdaptiveEncodingController({ changes++ }, { now })
+
+    def "should not choose a level until several large updates have been measured"() {
+        when:
+        controller.accept(update(1_000, 1))
+        controller.accept(update(100_000, 800))
+        controller.accept(update(100_000, 800))
+
+        then:
+        controller.level == -1
+        changes == 0
+
+        when:
+        controller.accept(update(100_000, 800))
+
+        then:
+        controller.level == 4
+        changes == 1
+    }
+
+    def "should prefer Hextile on a fast network with a low round trip time"() {
+        when:
+        3.times { controller.accept(update(1_000_000, 10, 1)) }
+
+        then:
+        controller.level == 0
+        controller.apply([TIGHT, HEXTILE, RAW, COMPRESS_LEVEL_6]) == [HEXTILE, TIGHT, RAW]
+    }
+
+    def "should not use Hextile on a fast network with a high round trip time"() {
+        when:
+        3.times { controller.accept(update(1_000_000, 10, 50)) }
+
+        then:
+        controller.level == 1
+        controller.apply([HEXTILE, TIGHT, RAW]) == [TIGHT, HEXTILE, RAW, COMPRESS_LEVEL_1]
+    }
+
+    def "should use JPEG with low quality on a slow link"() {
+        when:
+        3.times { controller.accept(update(100_000, 4_000)) }
+
+        then:
+        controller.level == 5
+        controller.apply([TIGHT, RAW, QUALITY_LEVEL_9]) == [TIGHT, RAW, COMPRESS_LEVEL_9, QUALITY_LEVEL_2]
+    }
+
+    def "should wait before changing level again"() {
+        given:
+        3.times { controller.accept(update(100_000, 4_000)) }
+
+        when:
+        3.times { controller.accept(update(1_000_000, 400)) }
+
+        then:
+        controller.level == 5
+
+        when:
+        now += SECONDS.toNanos(2)
+        controller.accept(update(1_000_000, 400))
+
+        then:
+        controller.level == 2
+        changes == 2
+    }
+
+    def "should not increase compression when decoding is the bottleneck"() {
+        given:
+        3.times { controller.accept(update(1_000_000, 10, 50)) }
+        now += SECONDS.toNanos(2)
+
+        when:
+        10.times { controller.accept(update(100_000, 400, -1, 800)) }
+
+        then:
+        controller.level == 1
+    }
+
+    def "should leave the encodings unchanged until a level has been chosen"() {
+        expect:
+        controller.apply([TIGHT, RAW, COMPRESS_LEVEL_3]) == [TIGHT, RAW, COMPRESS_LEVEL_3]
+    }
+
+    private static UpdateStatistics update(long bytes, long networkMillis, long roundTripMillis = -1,
+                                           long decodeMillis = 1) {
+        new UpdateStatistics(1, bytes, MILLISECONDS.toNanos(networkMillis), MILLISECONDS.toNanos(decodeMillis),
+                roundTripMillis < 0 ? -1L : MILLISECONDS.toNanos(roundTripMillis))
+    }
+}
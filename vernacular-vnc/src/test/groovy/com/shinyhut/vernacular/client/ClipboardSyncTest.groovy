@@ -0,0 +1,184 @@
+package com.shinyhut.vernacular.client
+
+import com.shinyhut.vernacular.protocol.messages.ClientCutText
+import com.shinyhut.vernacular.protocol.messages.ClientCutTextCaps
+import com.shinyhut.vernacular.protocol.messages.ClientCutTextExtendedAction
+import com.shinyhut.vernacular.protocol.messages.ClientCutTextExtendedClipboard
+import com.shinyhut.vernacular.protocol.messages.Encodable
+import com.shinyhut.vernacular.protocol.messages.ServerCutText
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.*
+
+class ClipboardSyncTest extends Specification {
+
+    def config = new VernacularConfig()
+    def sent = []
+    def drains = []
+    ClipboardSync sync = new ClipboardSync(config, new ClipboardSync.Sender() {
+        @Override
+        boolean queue(Encodable message) {
+            assert Thread.holdsLock(sync)
+            sent << message
+            true
+        }
+
+        @Override
+        void drain() {
+            drains << Thread.holdsLock(sync)
+        }
+    })
+
+    static ServerCutText serverMessage(int flags, List<Integer> sizes = []) {
+        def buffer = ByteBuffer.allocate(12 + sizes.size() * 4)
+        buffer.put(3 as byte).put(new byte[3]).putInt(-(4 + sizes.size() * 4)).putInt(flags)
+        sizes.each { buffer.putInt(it) }
+        ServerCutText.decode(new ByteArrayInputStream(buffer.array()))
+    }
+
+    static ServerCutText serverProvide(Map formats) {
+        def output = new ByteArrayOutputStream()
+        new ClientCutTextExtendedClipboard(formats, null).encode(output)
+        ServerCutText.decode(new ByteArrayInputStream(output.toByteArray()))
+    }
+
+    def serverCaps() {
+        sync.received(serverMessage(CAPS.code | NOTIFY.code | REQUEST.code | PROVIDE.code | TEXT.code, [1000]))
+        sent.clear()
+        drains.clear()
+    }
+
+    def "sends plain text until the server announces the extended clipboard, and only when it has changed"() {
+        when:
+        sync.copy([(TEXT): 'one'])
+        sync.copy([(TEXT): 'one'])
+        sync.copy([(TEXT): 'two'])
+
+        then:
+        sent.size() == 2
+        sent.every { it instanceof ClientCutText }
+        sent*.text == ['one', 'two']
+    }
+
+    def "answers the server's capabilities with our own"() {
+        when:
+        sync.received(serverMessage(CAPS.code | NOTIFY.code | TEXT.code, [1000]))
+
+        then:
+        sent.size() == 1
+        sent[0] instanceof ClientCutTextCaps
+    }
+
+    def "notifies the server of a copy, and only sends the content when it is requested"() {
+        given:
+        serverCaps()
+
+        when:
+        sync.copy([(TEXT): 'hello', (HTML): '<p>hello</p>'])
+
+        then: 'only formats the server accepts are announced'
+        sent.size() == 1
+        sent[0] instanceof ClientCutTextExtendedAction
+        sent[0].action == NOTIFY
+        sent[0].formats == [TEXT] as Set
+
+        when:
+        sync.received(serverMessage(REQUEST.code | TEXT.code))
+
+        then:
+        sent.size() == 2
+        sent[1] instanceof ClientCutTextExtendedClipboard
+        sent[1].text == 'hello'
+
+        and: 'messages are queued while holding the lock, but sent after releasing it'
+        drains == [false, false]
+    }
+
+    def "passes received content to the listeners, and does not send it back"() {
+        given:
+        def received = []
+        def texts = []
+        config.clipboardListener = { received << it } as VernacularConfig.ClipboardListener
+        config.remoteClipboardListener = { texts << it }
+        serverCaps()
+
+        when:
+        sync.received(serverProvide([(TEXT): 'remote']))
+        sync.received(serverProvide([(TEXT): 'remote']))
+        sync.copy([(TEXT): 'remote'])
+
+        then:
+        received == [[(TEXT): 'remote']]
+        texts == ['remote']
+        sent.isEmpty()
+    }
+
+    def "requests the content of a changed remote clipboard only if a listener wants it"() {
+        given:
+        config.clipboardListener = new VernacularConfig.ClipboardListener() {
+            @Override
+            Set remoteClipboardChanged(Set formats) {
+                [] as Set
+            }
+
+            @Override
+            void remoteClipboardReceived(Map formats) {
+            }
+        }
+        serverCaps()
+
+        when:
+        sync.received(serverMessage(NOTIFY.code | TEXT.code))
+
+        then:
+        sent.isEmpty()
+
+        when:
+        config.remoteClipboardListener = { }
+        sync.received(serverMessage(NOTIFY.code | TEXT.code))
+
+        then:
+        sent.size() == 1
+        sent[0].action == REQUEST
+        sent[0].formats == [TEXT] as Set
+    }
+
+    def "does not take the clipboard back by offering unchanged local content after the remote clipboard changes"() {
+        given:
+        serverCaps()
+        sync.copy([(TEXT): 'mine'])
+        sync.received(serverMessage(NOTIFY.code | TEXT.code))
+        sent.clear()
+
+        when: 'the application polls the local clipboard before the remote content arrives'
+        sync.copy([(TEXT): 'mine'])
+
+        then:
+        sent.isEmpty()
+
+        when:
+        sync.copy([(TEXT): 'new'])
+
+        then:
+        sent.size() == 1
+        sent[0].action == NOTIFY
+    }
+
+    def "offers earlier local content again once content has been received from the server"() {
+        given:
+        serverCaps()
+        sync.copy([(TEXT): 'mine'])
+        sync.received(serverProvide([(TEXT): 'remote']))
+        sync.copy([(TEXT): 'remote'])
+        sent.clear()
+
+        when:
+        sync.copy([(TEXT): 'mine'])
+
+        then:
+        sent.size() == 1
+        sent[0].action == NOTIFY
+    }
+}
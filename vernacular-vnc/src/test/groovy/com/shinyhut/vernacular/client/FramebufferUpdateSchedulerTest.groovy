@@ -0,0 +1,123 @@
+package com.shinyhut.vernacular.client
+
+import com.shinyhut.vernacular.client.rendering.UpdateStatistics
+import spock.lang.Specification
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS
+
+class FramebufferUpdateSchedulerTest extends Specification {
+
+    static final long INTERVAL = MILLISECONDS.toNanos(33)
+
+    def "should use the maximum window until the round trip time is known"() {
+        expect:
+        new FramebufferUpdateScheduler(4).window(INTERVAL) == 4
+    }
+
+    def "should size the window to cover the fastest recent round trip"() {
+        given:
+        def scheduler = new FramebufferUpdateScheduler(8)
+
+        when:
+        scheduler.accept(update(300, 1))
+        scheduler.accept(update(70, 1))
+
+        then:
+        scheduler.window(INTERVAL) == 4
+    }
+
+    def "should not exceed the maximum window"() {
+        given:
+        def scheduler = new FramebufferUpdateScheduler(3)
+
+        when:
+        scheduler.accept(update(1000, 1))
+
+        then:
+        scheduler.window(INTERVAL) == 3
+    }
+
+    def "should drop to a single request while decoding cannot keep up"() {
+        given:
+        def scheduler = new FramebufferUpdateScheduler(8)
+        scheduler.accept(update(150, 1))
+
+        when:
+        scheduler.accept(update(-1, 50))
+
+        then:
+        scheduler.window(INTERVAL) == 1
+
+        when:
+        scheduler.accept(update(-1, 5))
+
+        then:
+        scheduler.window(INTERVAL) == 6
+    }
+
+    def "should track the requests in flight"() {
+        given:
+        def session = new VncSession(new VernacularConfig(), new ByteArrayInputStream(), new ByteArrayOutputStream())
+
+        when:
+        3.times { session.framebufferUpdateRequested() }
+        session.takeFramebufferUpdateRequestTime()
+        session.framebufferUpdateRequested()
+
+        then:
+        session.framebufferUpdatesInFlight == 4
+
+        when:
+        session.framebufferUpdated()
+
+        then: 'the update answers every request sent before it arrived'
+        session.framebufferUpdatesInFlight == 1
+
+        when:
+        session.takeFramebufferUpdateRequestTime()
+        session.framebufferUpdated()
+
+        then:
+        session.framebufferUpdatesInFlight == 0
+        session.takeFramebufferUpdateRequestTime() == 0L
+
+        when:
+        session.framebufferUpdateRequested()
+        session.continuousUpdatesActive = false
+
+        then:
+        session.framebufferUpdatesInFlight == 0
+        session.takeFramebufferUpdateRequestTime() == 0L
+    }
+
+    def "should not wait for updates the server has merged when the window shrinks"() {
+        given:
+        def session = new VncSession(new VernacularConfig(), new ByteArrayInputStream(), new ByteArrayOutputStream())
+        def scheduler = new FramebufferUpdateScheduler(4)
+        scheduler.window(INTERVAL).times { session.framebufferUpdateRequested() }
+
+        when: 'the server answers all four requests with a single update'
+        def requestTime = session.takeFramebufferUpdateRequestTime()
+        session.framebufferUpdated()
+
+        and: 'decoding falls behind, so the window drops to one request'
+        scheduler.accept(update(-1, 50))
+        def waiter = Thread.start { session.waitForFramebufferUpdatesInFlightBelow(scheduler.window(INTERVAL)) }
+        waiter.join(1000)
+
+        then:
+        requestTime > 0L
+        scheduler.window(INTERVAL) == 1
+        !waiter.alive
+        session.framebufferUpdatesInFlight == 0
+        session.takeFramebufferUpdateRequestTime() == 0L
+
+        cleanup:
+        waiter?.interrupt()
+    }
+
+    private static UpdateStatistics update(long roundTripMillis, long decodeMillis) {
+        new UpdateStatistics(1, 1000, 0, MILLISECONDS.toNanos(decodeMillis),
+                roundTripMillis < 0 ? -1L : MILLISECONDS.toNanos(roundTripMillis))
+    }
+}
@@ -0,0 +1,104 @@
+package com.shinyhut.vernacular.client
+
+import com.shinyhut.vernacular.protocol.messages.KeyEvent
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class MessageWriterTest extends Specification {
+
+    def "sends each message with a single write when nobody else is writing"() {
+        given:
+        def writes = []
+        def out = new OutputStream() {
+            @Override
+            void write(int b) {
+                writes << [b]
+            }
+
+            @Override
+            void write(byte[] b, int off, int len) {
+                writes << b[off..<(off + len)].collect { it as int }
+            }
+        }
+        def writer = new MessageWriter(out)
+
+        when:
+        writer.send(new KeyEvent(0x61, true))
+        writer.send([1, 2, 3] as byte[], 2)
+
+        then:
+        writes.size() == 2
+        writes[0] == [4, 1, 0, 0, 0, 0, 0, 0x61]
+        writes[1] == [1, 2]
+    }
+
+    def "messages sent while another thread is writing go out together, in order"() {
+        given:
+        def writes = []
+        def firstWriteStarted = new CountDownLatch(1)
+        def releaseFirstWrite = new CountDownLatch(1)
+        def out = new OutputStream() {
+            @Override
+            void write(int b) {
+                throw new UnsupportedOperationException()
+            }
+
+            @Override
+            void write(byte[] b, int off, int len) {
+                writes << b[off..<(off + len)].collect { it as int }
+                if (writes.size() == 1) {
+                    firstWriteStarted.countDown()
+                    releaseFirstWrite.await()
+                }
+            }
+        }
+        def writer = new MessageWriter(out)
+        def executor = Executors.newSingleThreadExecutor()
+
+        when:
+        def first = executor.submit({ writer.send([1] as byte[], 1) } as Runnable)
+        firstWriteStarted.await()
+        writer.send([2] as byte[], 1)
+        writer.send([3, 4] as byte[], 2)
+        releaseFirstWrite.countDown()
+        first.get(5, TimeUnit.SECONDS)
+
+        then:
+        writes == [[1], [2, 3, 4]]
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "a failed write is reported to later senders"() {
+        given:
+        def out = new OutputStream() {
+            @Override
+            void write(int b) {
+                throw new IOException("Connection reset")
+            }
+
+            @Override
+            void write(byte[] b, int off, int len) {
+                throw new IOException("Connection reset")
+            }
+        }
+        def writer = new MessageWriter(out)
+
+        when:
+        writer.send([1] as byte[], 1)
+
+        then:
+        thrown(IOException)
+
+        when:
+        writer.send([2] as byte[], 1)
+
+        then:
+        def e = thrown(IOException)
+        e.message == "Connection reset"
+    }
+}
@@ -0,0 +1,127 @@
+package com.shinyhut.vernacular.client
+
+import spock.lang.Specification
+
+class PointerEventQueueTest extends Specification {
+
+    def writes = []
+    def scheduled = []
+    long now = 0L
+
+    def queue(long minIntervalNanos) {
+        def writer = new PointerEventQueue.Writer() {
+            @Override
+            boolean queue(byte[] data, int length) {
+                writes << ((data as List).subList(0, length) as List<Integer>)
+                true
+            }
+
+            @Override
+            void drain() {
+            }
+        }
+        new PointerEventQueue(minIntervalNanos, writer, { scheduled << it }, { now })
+    }
+
+    def "should send every event straight away when the rate is not limited"() {
+        given:
+        def events = queue(0L)
+
+        when:
+        events.moveMouse(1, 2)
+        events.moveMouse(3, 4)
+
+        then:
+        writes == [event(0, 1, 2), event(0, 3, 4)]
+        scheduled.empty
+    }
+
+    def "should merge movements made before the interval is up"() {
+        given:
+        def events = queue(100L)
+        events.moveMouse(1, 1)
+
+        when:
+        now = 10L
+        events.moveMouse(2, 2)
+        events.moveMouse(3, 3)
+        events.moveMouse(300, 4)
+
+        then:
+        writes == [event(0, 1, 1)]
+        scheduled == [90L]
+
+        when:
+        events.flush()
+
+        then:
+        writes == [event(0, 1, 1), event(0, 300, 4)]
+    }
+
+    def "should keep button changes in order and at the position they happened"() {
+        given:
+        def events = queue(100L)
+        events.moveMouse(0, 0)
+
+        when:
+        now = 10L
+        events.moveMouse(5, 5)
+        events.updateMouseButton(1, true)
+        events.moveMouse(6, 6)
+        events.moveMouse(7, 7)
+        events.updateMouseButton(1, false)
+        events.updateMouseButton(3, true)
+        events.flush()
+
+        then:
+        writes[1] == event(0, 5, 5) + event(1, 5, 5) + event(1, 7, 7) + event(0, 7, 7) + event(4, 7, 7)
+    }
+
+    def "should ignore a button which is already in the requested state"() {
+        given:
+        def events = queue(0L)
+
+        when:
+        events.updateMouseButton(2, false)
+
+        then:
+        writes.empty
+    }
+
+    def "should reject an unknown button"() {
+        when:
+        queue(0L).updateMouseButton(9, true)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "should queue a batch while holding the lock, and write it after releasing the lock"() {
+        given:
+        def locked = []
+        PointerEventQueue events
+        def writer = new PointerEventQueue.Writer() {
+            @Override
+            boolean queue(byte[] data, int length) {
+                locked << Thread.holdsLock(events)
+                true
+            }
+
+            @Override
+            void drain() {
+                locked << Thread.holdsLock(events)
+            }
+        }
+        events = new PointerEventQueue(0L, writer, { scheduled << it }, { now })
+
+        when:
+        events.moveMouse(1, 1)
+
+        then:
+        locked == [true, false]
+    }
+
+    private static List<Integer> event(int buttons, int x, int y) {
+        [0x05, buttons, x >> 8, x & 0xFF, y >> 8, y & 0xFF].collect { it as byte }
+    }
+}
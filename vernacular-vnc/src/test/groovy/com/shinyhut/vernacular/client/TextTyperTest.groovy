@@ -0,0 +1,85 @@
+package com.shinyhut.vernacular.client
+
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+class TextTyperTest extends Specification {
+
+    def writes = []
+    def progress = []
+
+    def typer(boolean pressShift, long keyIntervalNanos) {
+        new TextTyper({ data, length -> writes << events(data, length) }, pressShift, keyIntervalNanos,
+                { progress << it })
+    }
+
+    static events(byte[] data, int length) {
+        def buffer = ByteBuffer.wrap(data, 0, length)
+        def events = []
+        while (buffer.hasRemaining()) {
+            assert buffer.get() == 0x04
+            boolean pressed = buffer.get() == 1
+            buffer.getShort()
+            events << [buffer.getInt(), pressed]
+        }
+        events
+    }
+
+    def "types a chunk of text with a single write"() {
+        when:
+        def typed = typer(false, 0).type(new StringReader("ab"))
+
+        then:
+        typed == 2
+        writes == [[[0x61, true], [0x61, false], [0x62, true], [0x62, false]]]
+        progress == [2L]
+    }
+
+    def "converts line breaks, tabs and characters outside Latin-1"() {
+        when:
+        typer(false, 0).type(new StringReader("a\r\nb\rc\tdЖ😀"))
+
+        then:
+        writes.size() == 1
+        writes[0].findAll { it[1] }.collect { it[0] } ==
+                [0x61, 0xff0d, 0x62, 0xff0d, 0x63, 0xff09, 0x64, 0x01000416, 0x0101f600]
+    }
+
+    def "holds down shift for shifted characters only if asked to"() {
+        when:
+        typer(pressShift, 0).type(new StringReader("A!"))
+
+        then:
+        writes[0].collect { it[0] } == expected
+
+        where:
+        pressShift | expected
+        false      | [0x41, 0x41, 0x21, 0x21]
+        true       | [0xffe1, 0x41, 0x41, 0xffe1, 0xffe1, 0x21, 0x21, 0xffe1]
+    }
+
+    def "writes each character on its own when keys are paced"() {
+        when:
+        def typed = typer(false, 1000).type(new StringReader("xyz"))
+
+        then:
+        typed == 3
+        writes == [[[0x78, true], [0x78, false]], [[0x79, true], [0x79, false]], [[0x7a, true], [0x7a, false]]]
+        progress == [1L, 2L, 3L]
+    }
+
+    def "reads long text a chunk at a time"() {
+        given:
+        def text = "x" * 5000
+
+        when:
+        def typed = typer(false, 0).type(new StringReader(text))
+
+        then:
+        typed == 5000
+        writes.size() == 3
+        writes.sum { it.size() } == 10000
+        progress == [2048L, 4096L, 5000L]
+    }
+}
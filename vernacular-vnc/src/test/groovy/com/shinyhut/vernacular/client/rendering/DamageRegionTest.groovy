@@ -0,0 +1,55 @@
+package com.shinyhut.vernacular.client.rendering
+
+import spock.lang.Specification
+
+import java.awt.Rectangle
+
+class DamageRegionTest extends Specification {
+
+    def region = new DamageRegion()
+
+    def "should merge adjacent tiles in a row into a single rectangle"() {
+        when:
+        (0..<4).each { region.add(it * 16, 32, 16, 16) }
+
+        then:
+        region.rectangles == [new Rectangle(0, 32, 64, 16)]
+    }
+
+    def "should keep distant rectangles separate"() {
+        when:
+        region.add(0, 0, 10, 10)
+        region.add(100, 100, 10, 10)
+
+        then:
+        region.rectangles as Set == [new Rectangle(0, 0, 10, 10), new Rectangle(100, 100, 10, 10)] as Set
+        region.bounds == new Rectangle(0, 0, 110, 110)
+    }
+
+    def "should drop rectangles already covered by the region"() {
+        when:
+        region.add(0, 0, 100, 100)
+        region.add(10, 10, 5, 5)
+
+        then:
+        region.rectangles == [new Rectangle(0, 0, 100, 100)]
+    }
+
+    def "should ignore empty rectangles"() {
+        when:
+        region.add(10, 10, 0, 5)
+
+        then:
+        region.empty
+        region.bounds == new Rectangle()
+    }
+
+    def "should collapse to its bounds when too fragmented"() {
+        when:
+        (0..<100).each { region.add(it * 20, it * 20, 1, 1) }
+
+        then:
+        region.rectangles.size() <= 64
+        region.bounds == new Rectangle(0, 0, 1981, 1981)
+    }
+}
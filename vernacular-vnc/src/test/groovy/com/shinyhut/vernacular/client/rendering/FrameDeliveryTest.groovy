@@ -0,0 +1,82 @@
+package com.shinyhut.vernacular.client.rendering
+
+import com.shinyhut.vernacular.client.VernacularConfig
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.awt.Rectangle
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+
+import static java.util.concurrent.TimeUnit.SECONDS
+
+class FrameDeliveryTest extends Specification {
+
+    def config = new VernacularConfig()
+    def errors = []
+    def delivery = new FrameDelivery(config, { errors << it })
+    def snapshots = new FrameSnapshots()
+    def frame = new ImageBuffer(4, 4, false)
+
+    def cleanup() {
+        delivery.stop()
+    }
+
+    def "should drop frames while the consumer is busy, carrying their damage over to the next frame"() {
+        given:
+        def firstFrameStarted = new CountDownLatch(1)
+        def consumerReleased = new CountDownLatch(1)
+        def delivered = new LinkedBlockingQueue()
+        config.screenDamageListener = { image, damage ->
+            firstFrameStarted.countDown()
+            consumerReleased.await(5, SECONDS)
+            delivered.put([image.buffer.clone(), damage])
+        }
+        delivery.start()
+
+        when:
+        offer(1, new Rectangle(0, 0, 1, 1))
+        firstFrameStarted.await(5, SECONDS)
+        offer(2, new Rectangle(1, 1, 1, 1))
+        offer(3, new Rectangle(3, 3, 1, 1))
+        offer(4, new Rectangle(3, 0, 1, 1))
+        consumerReleased.countDown()
+        def first = delivered.poll(5, SECONDS)
+        def second = delivered.poll(5, SECONDS)
+
+        then:
+        first[0] == [1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0] as int[]
+        first[1] == [new Rectangle(0, 0, 1, 1)]
+        second[0] == [1, 0, 0, 4, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3] as int[]
+        second[1] as Set == [new Rectangle(1, 1, 1, 1), new Rectangle(3, 3, 1, 1), new Rectangle(3, 0, 1, 1)] as Set
+        // The counter goes up once the listener has returned, after it has handed us the frame
+        new PollingConditions(timeout: 5).eventually {
+            assert delivery.deliveredFrames == 2
+        }
+        delivery.droppedFrames == 2
+        errors.empty
+    }
+
+    def "should report an exception thrown by a listener"() {
+        given:
+        def failed = new CountDownLatch(1)
+        config.screenUpdateListener = { throw new IllegalStateException('broken') }
+        delivery = new FrameDelivery(config, { errors << it; failed.countDown() })
+        delivery.start()
+
+        when:
+        offer(1, new Rectangle(0, 0, 1, 1))
+        failed.await(5, SECONDS)
+
+        then:
+        errors.size() == 1
+        errors[0].cause instanceof IllegalStateException
+    }
+
+    private void offer(int color, Rectangle damage) {
+        frame.set(damage.@x, damage.@y, color)
+        def snapshot = snapshots.publish(frame, [damage])
+        snapshot.tryRetain()
+        delivery.offer(snapshot, [damage])
+    }
+}
@@ -0,0 +1,94 @@
+package com.shinyhut.vernacular.client.rendering
+
+import spock.lang.Specification
+
+import java.awt.Rectangle
+
+class FrameSnapshotsTest extends Specification {
+
+    def snapshots = new FrameSnapshots()
+    def frame = new ImageBuffer(3, 2, false)
+
+    def "should have nothing to acquire before a frame is published"() {
+        expect:
+        snapshots.acquireLatest() == null
+    }
+
+    def "should keep an acquired snapshot unchanged while later frames are drawn and published"() {
+        given:
+        frame.fillRect(0, 0, 3, 2, 1)
+        snapshots.publish(frame, [new Rectangle(0, 0, 3, 2)])
+        def held = snapshots.acquireLatest()
+
+        when:
+        frame.fillRect(0, 0, 3, 2, 2)
+        snapshots.publish(frame, [new Rectangle(0, 0, 3, 2)])
+        frame.set(0, 0, 3)
+        snapshots.publish(frame, [new Rectangle(0, 0, 1, 1)])
+
+        then:
+        held.frameNumber == 1
+        held.image.buffer == [1] * 6 as int[]
+
+        when:
+        def latest = snapshots.acquireLatest()
+
+        then:
+        latest.frameNumber == 3
+        latest.image.buffer == [3, 2, 2, 2, 2, 2] as int[]
+        !latest.image.is(held.image)
+
+        cleanup:
+        held?.release()
+        latest?.release()
+    }
+
+    def "should bring a recycled snapshot up to date with the damage it missed"() {
+        given:
+        def images = [] as Set
+
+        when:
+        snapshots.publish(frame, [new Rectangle(0, 0, 3, 2)])
+        [[0, 0, 4], [2, 1, 5], [1, 0, 6], [1, 1, 7]].each { x, y, color ->
+            frame.set(x, y, color)
+            images << snapshots.publish(frame, [new Rectangle(x, y, 1, 1)]).image
+        }
+        def latest = snapshots.acquireLatest()
+
+        then:
+        images.size() == 2
+        latest.image.buffer == [4, 6, 0, 0, 7, 5] as int[]
+        latest.damage == [new Rectangle(1, 1, 1, 1)]
+
+        cleanup:
+        latest?.release()
+    }
+
+    def "should use a new snapshot when the frame is resized"() {
+        given:
+        snapshots.publish(frame, [new Rectangle(0, 0, 3, 2)])
+        def larger = new ImageBuffer(4, 4, false)
+        larger.fillRect(0, 0, 4, 4, 9)
+
+        when:
+        def snapshot = snapshots.publish(larger, [new Rectangle(0, 0, 4, 4)])
+
+        then:
+        snapshot.image.width == 4
+        snapshot.image.buffer == [9] * 16 as int[]
+    }
+
+    def "should reject releasing a snapshot too many times"() {
+        given:
+        snapshots.publish(frame, [])
+        def snapshot = snapshots.acquireLatest()
+        snapshot.release()
+
+        when:
+        snapshot.release()
+        snapshot.release()
+
+        then:
+        thrown(IllegalStateException)
+    }
+}
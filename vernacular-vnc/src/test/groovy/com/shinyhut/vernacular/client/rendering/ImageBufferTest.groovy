@@ -0,0 +1,182 @@
+package com.shinyhut.vernacular.client.rendering
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+
+class ImageBufferTest extends Specification {
+
+    def "should fill a rectangle, clipping it to the buffer"() {
+        given:
+        def image = new ImageBuffer(3, 3, false)
+
+        when:
+        image.fillRect(1, 1, 5, 5, 7)
+
+        then:
+        image.buffer == [
+                0, 0, 0,
+                0, 7, 7,
+                0, 7, 7
+        ] as int[]
+    }
+
+    @Unroll
+    def "should copy an overlapping rectangle #direction"() {
+        given:
+        def image = new ImageBuffer(3, 3, false)
+        (0..<9).each { image.buffer[it] = it + 1 }
+
+        when:
+        image.duplicate(x, y, 2, 2, targetX, targetY)
+
+        then:
+        image.buffer == expected as int[]
+
+        where:
+        direction | x | y | targetX | targetY | expected
+        'down'    | 0 | 0 | 0       | 1       | [1, 2, 3, 1, 2, 6, 4, 5, 9]
+        'up'      | 0 | 1 | 0       | 0       | [4, 5, 3, 7, 8, 6, 7, 8, 9]
+        'right'   | 0 | 0 | 1       | 0       | [1, 1, 2, 4, 4, 5, 7, 8, 9]
+        'left'    | 1 | 1 | 0       | 1       | [1, 2, 3, 5, 6, 6, 8, 9, 9]
+    }
+
+    def "should clip a copy that would extend outside the buffer"() {
+        given:
+        def image = new ImageBuffer(3, 3, false)
+        (0..<9).each { image.buffer[it] = it + 1 }
+
+        when:
+        image.duplicate(0, 0, 3, 3, 2, 2)
+
+        then:
+        image.buffer == [1, 2, 3, 4, 5, 6, 7, 8, 1] as int[]
+    }
+
+    def "should extend the buffer, preserving existing content"() {
+        given:
+        def image = new ImageBuffer(2, 2, false)
+        image.buffer[0] = 1
+        image.buffer[3] = 4
+
+        when:
+        def extended = image.extend(3, 1)
+
+        then:
+        extended.width == 3
+        extended.height == 1
+        extended.buffer == [1, 0, 0] as int[]
+    }
+
+    def "should draw into a direct buffer without an array"() {
+        given:
+        def image = ImageBuffer.allocateDirect(3, 3, false)
+        (0..<9).each { image.set(it % 3, it.intdiv(3) as int, it + 1) }
+
+        when:
+        image.duplicate(0, 0, 2, 2, 1, 0)
+        image.fillRect(0, 2, 2, 1, 7)
+
+        then:
+        !image.hasArray()
+        pixels(image) == [1, 1, 2, 4, 4, 5, 7, 7, 9]
+
+        when:
+        image.buffer
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "should copy rows in and out of a direct buffer"() {
+        given:
+        def image = ImageBuffer.allocateDirect(4, 2, false)
+        def row = new int[3]
+
+        when:
+        image.setRow(1, 1, [5, 6, 7, 8] as int[], 1, 3)
+        image.getRow(1, 1, row, 0, 3)
+
+        then:
+        row == [6, 7, 8] as int[]
+        pixels(image) == [0, 0, 0, 0, 0, 6, 7, 8]
+    }
+
+    def "should give a resized direct image memory of its own"() {
+        given:
+        def image = ImageBuffer.allocateDirect(4, 4, false)
+        image.fillRect(0, 0, 4, 4, 9)
+
+        when:
+        def resized = image.resize(3, 2)
+
+        then:
+        resized.width == 3
+        resized.height == 2
+        !resized.hasArray()
+        pixels(resized) == [0] * 6
+
+        when:
+        resized.set(0, 0, 5)
+
+        then:
+        image.get(0, 0) == 9
+    }
+
+    def "should extend a direct image, keeping it off the heap"() {
+        given:
+        def image = ImageBuffer.allocateDirect(2, 2, false)
+        image.set(0, 0, 1)
+        image.set(1, 1, 4)
+
+        when:
+        def extended = image.extend(3, 1)
+
+        then:
+        !extended.hasArray()
+        extended.pixels.direct
+        pixels(extended) == [1, 0, 0]
+        image.get(1, 1) == 4
+    }
+
+    def "should keep the pixels of a mapped image in a file"() {
+        given:
+        def file = Files.createTempFile('framebuffer', '.argb')
+
+        when:
+        def image = ImageBuffer.map(file, 2, 1, false)
+        image.set(1, 0, 0x00123456)
+        def bytes = Files.readAllBytes(file)
+
+        then:
+        image.file == file
+        bytes == [0, 0, 0, 0, 0x56, 0x34, 0x12, 0] as byte[]
+
+        when:
+        def resized = image.resize(3, 1)
+
+        then:
+        resized.file == file
+        Files.size(file) == 12
+        pixels(resized) == [0, 0, 0]
+
+        when:
+        resized.set(0, 0, 7)
+        resized.set(2, 0, 8)
+        def extended = resized.extend(2, 2)
+
+        then:
+        extended.file == file
+        Files.size(file) == 16
+        pixels(extended) == [7, 0, 0, 0]
+
+        cleanup:
+        Files.deleteIfExists(file)
+    }
+
+    private static List<Integer> pixels(ImageBuffer image) {
+        def pixels = image.pixels
+        (0..<pixels.limit()).collect { pixels.get(it) }
+    }
+}
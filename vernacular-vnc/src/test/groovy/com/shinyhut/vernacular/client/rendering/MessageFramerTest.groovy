@@ -0,0 +1,136 @@
+package com.shinyhut.vernacular.client.rendering
+
+import com.shinyhut.vernacular.client.exceptions.InvalidMessageException
+import com.shinyhut.vernacular.client.exceptions.InvalidRleEncodingException
+import com.shinyhut.vernacular.client.exceptions.UnknownMessageTypeException
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+
+import static com.shinyhut.vernacular.client.rendering.MessageFramer.INCOMPLETE
+
+class MessageFramerTest extends Specification {
+
+    def pixelFormat = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+    def framer = new MessageFramer(pixelFormat)
+
+    @Unroll
+    def "should frame a #name message"() {
+        expect:
+        framer.frame(buffer(message + [0xAA])) == message.size()
+
+        where:
+        name                     | message
+        'Bell'                   | [0x02]
+        'SetColorMapEntries'     | [0x01, 0, 0, 0, 0, 1] + [0] * 6
+        'ServerCutText'          | [0x03, 0, 0, 0, 0, 0, 0, 2, 0x41, 0x42]
+        'extended cut text'      | [0x03, 0, 0, 0, 0xFF, 0xFF, 0xFF, 0xFC, 0, 0, 0, 1]
+        'EndOfContinuousUpdates' | [0x96]
+        'Fence'                  | [0xF8, 0, 0, 0, 0, 0, 0, 0, 2, 7, 8]
+    }
+
+    def "should ask for the rest of an incomplete message"() {
+        when:
+        def length = framer.frame(buffer([0x03, 0, 0, 0, 0, 0, 0, 5, 1]))
+
+        then:
+        length == INCOMPLETE
+        framer.requiredLength == 13
+    }
+
+    def "should frame a framebuffer update containing raw and copyrect rectangles"() {
+        given:
+        def raw = rectangle(2, 1, 0) + [1, 2, 3, 4, 5, 6, 7, 8]
+        def copyRect = rectangle(4, 4, 1) + [0, 1, 0, 2]
+        def update = [0, 0, 0, 2] + raw + copyRect
+
+        expect:
+        framer.frame(buffer(update + [0x02])) == update.size()
+    }
+
+    def "should resume scanning hextile tiles as more data arrives"() {
+        given:
+        def tiles = [0x02, 1, 2, 3, 4] + [0x08, 1, 0x00, 0x11] + [0x01] + [0] * 128
+        def update = [0, 0, 0, 1] + rectangle(34, 16, 5) + tiles
+        def data = ByteBuffer.allocate(update.size())
+
+        when:
+        data.put(update[0..<20] as byte[])
+        data.flip()
+
+        then:
+        framer.frame(data) == INCOMPLETE
+        framer.requiredLength == 22
+
+        when:
+        data.position(data.limit()).limit(data.capacity())
+        data.put(update[20..<update.size()] as byte[])
+        data.flip()
+
+        then:
+        framer.frame(data) == update.size()
+    }
+
+    def "should track the TRLE palette across tiles"() {
+        given:
+        def firstTile = [2, 0, 0, 0xAA, 0, 0, 0xBB, 0xFF, 0xFF]
+        def secondTile = [129, 0x80, 7, 0x81, 7]
+        def update = [0, 0, 0, 1] + rectangle(32, 1, 15) + firstTile + secondTile
+
+        expect:
+        framer.frame(buffer(update)) == update.size()
+    }
+
+    def "should reject TRLE palette reuse before a palette has been sent"() {
+        when:
+        framer.frame(buffer([0, 0, 0, 1] + rectangle(1, 1, 15) + [127, 0]))
+
+        then:
+        thrown(InvalidRleEncodingException)
+    }
+
+    def "should frame tight rectangles with compact lengths"() {
+        given:
+        def fill = rectangle(4, 4, 7) + [0x80, 1, 2, 3]
+        def basic = rectangle(4, 4, 7) + [0x00, 0x81, 0x01] + [0] * 129
+        def update = [0, 0, 0, 2] + fill + basic
+
+        expect:
+        framer.frame(buffer(update)) == update.size()
+    }
+
+    def "should frame zrle rectangles from their length"() {
+        given:
+        def update = [0, 0, 0, 1] + rectangle(64, 64, 16) + [0, 0, 0, 3, 1, 2, 3]
+
+        expect:
+        framer.frame(buffer(update)) == update.size()
+    }
+
+    def "should reject unknown message types"() {
+        when:
+        framer.frame(buffer([0x7F]))
+
+        then:
+        thrown(UnknownMessageTypeException)
+    }
+
+    def "should reject oversized fences"() {
+        when:
+        framer.frame(buffer([0xF8, 0, 0, 0, 0, 0, 0, 0, 65]))
+
+        then:
+        thrown(InvalidMessageException)
+    }
+
+    private static List<Integer> rectangle(int width, int height, int encoding) {
+        [0, 0, 0, 0, width >> 8, width & 0xFF, height >> 8, height & 0xFF,
+         (encoding >> 24) & 0xFF, (encoding >> 16) & 0xFF, (encoding >> 8) & 0xFF, encoding & 0xFF]
+    }
+
+    private static ByteBuffer buffer(List<Integer> data) {
+        ByteBuffer.wrap(data as byte[])
+    }
+}
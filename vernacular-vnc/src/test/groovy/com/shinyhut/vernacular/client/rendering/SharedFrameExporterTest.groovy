@@ -0,0 +1,108 @@
+package com.shinyhut.vernacular.client.rendering
+
+import spock.lang.Specification
+
+import java.awt.Rectangle
+import java.nio.IntBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+
+class SharedFrameExporterTest extends Specification {
+
+    Path file = Files.createTempFile('frames', '.shm')
+    def exporter = new SharedFrameExporter(file)
+    def reader = new SharedFrameReader(file)
+
+    def cleanup() {
+        reader.close()
+        exporter.close()
+        Files.deleteIfExists(file)
+    }
+
+    def "should report that no frame has been published yet"() {
+        expect:
+        reader.read { frameNumber, width, height, pixels, dirty -> 'frame' } == null
+    }
+
+    def "should publish a whole frame first, then only the areas which changed"() {
+        given:
+        def frame = new ImageBuffer(4, 3, false)
+        frame.fillRect(0, 0, 4, 3, 1)
+
+        when:
+        exporter.export(frame, [new Rectangle(0, 0, 1, 1)])
+        def first = reader.read(this.&snapshot)
+
+        then:
+        first.frameNumber == 1
+        first.width == 4
+        first.height == 3
+        first.pixels == [1] * 12
+        first.dirty == [new Rectangle(0, 0, 4, 3)]
+
+        when:
+        frame.fillRect(1, 1, 2, 1, 2)
+        exporter.export(frame, [new Rectangle(1, 1, 2, 1)])
+        def second = reader.read(this.&snapshot)
+
+        then:
+        second.frameNumber == 2
+        second.pixels == [1, 1, 1, 1, 1, 2, 2, 1, 1, 1, 1, 1]
+        second.dirty == [new Rectangle(1, 1, 2, 1)]
+    }
+
+    def "should bring the other pixel area up to date with changes it missed"() {
+        given:
+        def frame = ImageBuffer.allocateDirect(3, 2, false)
+        exporter.export(frame, [])
+
+        when:
+        frame.set(0, 0, 5)
+        exporter.export(frame, [new Rectangle(0, 0, 1, 1)])
+        frame.set(2, 1, 6)
+        exporter.export(frame, [new Rectangle(2, 1, 1, 1)])
+        frame.set(1, 0, 7)
+        exporter.export(frame, [new Rectangle(1, 0, 1, 1)])
+
+        then:
+        reader.read(this.&snapshot).pixels == [5, 7, 0, 0, 0, 6]
+    }
+
+    def "should grow the file when the frame gets larger"() {
+        given:
+        exporter.export(new ImageBuffer(2, 2, false), [])
+        reader.read(this.&snapshot)
+        def larger = new ImageBuffer(8, 8, false)
+        larger.fillRect(0, 0, 8, 8, 3)
+
+        when:
+        exporter.export(larger, [])
+        def frame = reader.read(this.&snapshot)
+
+        then:
+        frame.width == 8
+        frame.height == 8
+        frame.pixels == [3] * 64
+        Files.size(file) == SharedFrameExporter.HEADER_SIZE + 2 * 64 * 4
+    }
+
+    def "should reject a file which was not written by an exporter"() {
+        given:
+        def other = Files.createTempFile('frames', '.bin')
+        Files.write(other, new byte[SharedFrameExporter.HEADER_SIZE])
+
+        when:
+        new SharedFrameReader(other)
+
+        then:
+        thrown(IOException)
+
+        cleanup:
+        Files.deleteIfExists(other)
+    }
+
+    private static Map snapshot(long frameNumber, int width, int height, IntBuffer pixels, List<Rectangle> dirty) {
+        [frameNumber: frameNumber, width: width, height: height,
+         pixels: (0..<pixels.remaining()).collect { pixels.get(it) }, dirty: dirty]
+    }
+}
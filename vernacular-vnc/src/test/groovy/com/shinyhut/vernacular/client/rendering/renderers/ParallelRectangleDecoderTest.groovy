@@ -0,0 +1,127 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+
+import java.util.concurrent.ForkJoinPool
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.*
+
+class ParallelRectangleDecoderTest extends Specification {
+
+    def pixelFormat = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+    def pixelDecoder = new PixelDecoder([:])
+    def rawRenderer = new RawRenderer(pixelDecoder, pixelFormat)
+    def rreRenderer = new RRERenderer(pixelDecoder, pixelFormat)
+    def hextileRenderer = new HextileRenderer(rawRenderer, pixelDecoder, pixelFormat)
+    def tightRenderer = new TightRenderer(pixelFormat, [:])
+
+    @AutoCleanup('shutdownNow')
+    def pool = new ForkJoinPool(4)
+
+    def decoder = new ParallelRectangleDecoder(pool, pixelFormat, rawRenderer, rreRenderer, hextileRenderer,
+            tightRenderer)
+
+    def "should decode a large raw rectangle in bands"() {
+        given:
+        def rectangle = new Rectangle(0, 0, 256, 512, RAW)
+        def data = (0..<(256 * 512)).collectMany { pixel(it) }
+        def input = new ByteArrayInputStream((data + [0x7F]) as byte[])
+        def destination = new ImageBuffer(256, 512, false)
+
+        when:
+        def decoded = decoder.decode(input, destination, rectangle)
+        decoder.await()
+
+        then:
+        decoded
+        destination.buffer == serial(data, rectangle, rawRenderer).buffer
+        input.read() == 0x7F
+    }
+
+    def "should decode hextile tile rows in bands, carrying colours across band boundaries"() {
+        given:
+        def rectangle = new Rectangle(0, 0, 1024, 160, HEXTILE)
+        def data = (0..<640).collectMany { hextileTile(it) }
+        def input = new ByteArrayInputStream((data + [0x7F]) as byte[])
+        def destination = new ImageBuffer(1024, 160, false)
+
+        when:
+        def decoded = decoder.decode(input, destination, rectangle)
+        decoder.await()
+
+        then:
+        decoded
+        destination.buffer == serial(data, rectangle, hextileRenderer).buffer
+        input.read() == 0x7F
+    }
+
+    def "should finish earlier rectangles before an overlapping rectangle is decoded inline"() {
+        given:
+        def destination = new ImageBuffer(128, 128, false)
+        def large = new Rectangle(0, 0, 128, 128, RAW)
+        def small = new Rectangle(10, 10, 2, 2, RAW)
+        def input = new ByteArrayInputStream(((0..<(128 * 128)).collectMany { pixel(1) } +
+                (0..<4).collectMany { pixel(2) }) as byte[])
+
+        when:
+        def first = decoder.decode(input, destination, large)
+        def second = decoder.decode(input, destination, small)
+        if (!second) {
+            rawRenderer.render(input, destination, small)
+        }
+        decoder.await()
+
+        then:
+        first
+        !second
+        destination.get(10, 10) == ((0xFF000000 as int) | 2)
+        destination.get(12, 12) == ((0xFF000000 as int) | 1)
+    }
+
+    def "should leave small and zlib encoded rectangles to the caller"() {
+        expect:
+        !decoder.decode(new ByteArrayInputStream(new byte[0]), new ImageBuffer(64, 64, false), rectangle)
+
+        where:
+        rectangle << [new Rectangle(0, 0, 8, 8, RAW), new Rectangle(0, 0, 64, 64, ZRLE),
+                      new Rectangle(0, 0, 64, 64, COPYRECT)]
+    }
+
+    def "should report a truncated rectangle"() {
+        when:
+        decoder.decode(new ByteArrayInputStream(new byte[100]), new ImageBuffer(64, 64, false),
+                new Rectangle(0, 0, 64, 64, RAW))
+
+        then:
+        thrown(UnexpectedVncException)
+    }
+
+    private ImageBuffer serial(List<Integer> data, Rectangle rectangle, Renderer renderer) {
+        def expected = new ImageBuffer(rectangle.width, rectangle.height, false)
+        renderer.render(new ByteArrayInputStream(data as byte[]), expected, rectangle)
+        expected
+    }
+
+    private static List<Integer> pixel(int value) {
+        [0, (value >> 16) & 0xFF, (value >> 8) & 0xFF, value & 0xFF]
+    }
+
+    private static List<Integer> hextileTile(int index) {
+        switch (index % 5) {
+            case 0:
+                return [0x06] + pixel(index) + pixel(index * 7)
+            case 1:
+            case 4:
+                return [0x08, 1, 0x23, 0x45]
+            case 2:
+                return [0x01] + (0..<256).collectMany { pixel(index + it) }
+            default:
+                return [0x02] + pixel(index * 3)
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.protocol.messages.ColorMapEntry
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class PixelConverterTest extends Specification {
+
+    @Unroll
+    def "should convert a #description pixel to the same color as the per-pixel decoder"() {
+        given:
+        def decoder = new PixelDecoder([:])
+        def converter = decoder.converterFor(pixelFormat)
+        def expected = decoder.decode(new ByteArrayInputStream(pixel as byte[]), pixelFormat).toInt()
+
+        when:
+        def converted = converter.convert(pixel as byte[], 0)
+        def read = converter.read(new DataInputStream(new ByteArrayInputStream(pixel as byte[])))
+
+        then:
+        converted == expected
+        read == expected
+
+        where:
+        description       | pixelFormat                                                  | pixel
+        '8bpp BGR233'     | new PixelFormat(8, 8, true, true, 7, 7, 3, 0, 3, 6)          | [0b10_101_011]
+        '16bpp RGB565'    | new PixelFormat(16, 16, true, true, 31, 63, 31, 11, 5, 0)    | [0xA5, 0x3C]
+        '16bpp RGB555'    | new PixelFormat(16, 15, true, true, 31, 31, 31, 10, 5, 0)    | [0x7F, 0xFF]
+        '32bpp RGB888'    | new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0) | [0x00, 0x12, 0x34, 0x56]
+        '32bpp BGR888'    | new PixelFormat(32, 24, true, true, 255, 255, 255, 8, 16, 24) | [0x56, 0x34, 0x12, 0x00]
+        '32bpp RGB101010' | new PixelFormat(32, 30, true, true, 1023, 1023, 1023, 20, 10, 0) | [0x12, 0x34, 0x56, 0x78]
+    }
+
+    def "should honour little endian byte order"() {
+        given:
+        def decoder = new PixelDecoder([:])
+        def bigEndian = decoder.converterFor(new PixelFormat(16, 16, true, true, 31, 63, 31, 11, 5, 0))
+        def littleEndian = decoder.converterFor(new PixelFormat(16, 16, false, true, 31, 63, 31, 11, 5, 0))
+
+        expect:
+        littleEndian.convert([0x3C, 0xA5] as byte[], 0) == bigEndian.convert([0xA5, 0x3C] as byte[], 0)
+        littleEndian.read(new DataInputStream(new ByteArrayInputStream([0x3C, 0xA5] as byte[]))) ==
+                bigEndian.convert([0xA5, 0x3C] as byte[], 0)
+    }
+
+    def "should convert a whole span of 32bpp little endian pixels"() {
+        given:
+        def converter = new PixelDecoder([:]).converterFor(
+                new PixelFormat(32, 24, false, true, 255, 255, 255, 16, 8, 0))
+        def source = [0x00, 0x7F, 0x03, 0x02, 0x01, 0x00, 0x06, 0x05, 0x04, 0x00] as byte[]
+        def destination = new int[3]
+
+        when:
+        converter.convert(source, 2, destination, 1, 2)
+
+        then:
+        destination == [0, 0xFF010203, 0xFF040506] as int[]
+    }
+
+    def "should look up indexed pixels in the current color map"() {
+        given:
+        def colorMap = [1L: new ColorMapEntry(1000, 2000, 3000)]
+        def decoder = new PixelDecoder(colorMap)
+        def converter = decoder.converterFor(new PixelFormat(8, 8, true, false, 0, 0, 0, 0, 0, 0))
+        def destination = new int[2]
+
+        when:
+        colorMap[2L] = new ColorMapEntry(65535, 0, 65535)
+        decoder.updatePalette()
+        converter.convert([1, 2] as byte[], 0, destination, 0, 2)
+
+        then:
+        destination == [0xFF04080C, 0xFFFF00FF] as int[]
+    }
+
+    @Unroll
+    def "should look up #description indexed pixels wider than two bytes"() {
+        given:
+        def colorMap = [258L: new ColorMapEntry(65535, 0, 65535)]
+        def decoder = new PixelDecoder(colorMap)
+        def converter = decoder.converterFor(new PixelFormat(32, 32, bigEndian, false, 0, 0, 0, 0, 0, 0))
+        def destination = new int[1]
+
+        when:
+        converter.convert(pixel as byte[], 0, destination, 0, 1)
+
+        then:
+        destination == [0xFFFF00FF] as int[]
+        converter.convert(pixel as byte[], 0) == destination[0]
+        converter.read(new DataInputStream(new ByteArrayInputStream(pixel as byte[]))) == destination[0]
+
+        where:
+        description     | bigEndian | pixel
+        'big endian'    | true      | [0, 0, 1, 2]
+        'little endian' | false     | [2, 1, 0, 0]
+    }
+
+    def "should convert a 32bpp indexed pixel to the same color as the per-pixel decoder"() {
+        given:
+        def decoder = new PixelDecoder([258L: new ColorMapEntry(1000, 2000, 3000)])
+        def pixelFormat = new PixelFormat(32, 32, true, false, 0, 0, 0, 0, 0, 0)
+        def pixel = [0, 0, 1, 2] as byte[]
+
+        expect:
+        decoder.converterFor(pixelFormat).convert(pixel, 0) ==
+                decoder.decode(new ByteArrayInputStream(pixel), pixelFormat).toInt()
+    }
+}
@@ -0,0 +1,60 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.Specification
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.RAW
+
+class RawRendererTest extends Specification {
+
+    def pixelFormat = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+    def renderer = new RawRenderer(new PixelDecoder([:]), pixelFormat)
+
+    def "should render raw scanlines into the destination at the rectangle position"() {
+        given:
+        def destination = new ImageBuffer(4, 3, false)
+        def input = new ByteArrayInputStream([
+                0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x02,
+                0x00, 0x00, 0x00, 0x03, 0x00, 0x00, 0x00, 0x04
+        ] as byte[])
+
+        when:
+        renderer.render(input, destination, new Rectangle(1, 1, 2, 2, RAW))
+
+        then:
+        destination.buffer == [
+                0, 0, 0, 0,
+                0, 0xFF000001, 0xFF000002, 0,
+                0, 0xFF000003, 0xFF000004, 0
+        ] as int[]
+    }
+
+    def "should consume but not draw pixels outside the destination"() {
+        given:
+        def destination = new ImageBuffer(2, 2, false)
+        def input = new ByteArrayInputStream(((1..9).collectMany { [0x00, 0x00, 0x00, it] } + [0x7F]) as byte[])
+
+        when:
+        renderer.render(input, destination, new Rectangle(1, 0, 3, 3, RAW))
+
+        then:
+        destination.buffer == [0, 0xFF000001, 0, 0xFF000004] as int[]
+        input.read() == 0x7F
+    }
+
+    def "should render into a destination kept off the heap"() {
+        given:
+        def destination = ImageBuffer.allocateDirect(3, 2, false)
+        def input = new ByteArrayInputStream(((1..4).collectMany { [0x00, 0x00, 0x00, it] }) as byte[])
+
+        when:
+        renderer.render(input, destination, new Rectangle(2, 0, 2, 2, RAW))
+
+        then:
+        destination.get(2, 0) == (0xFF000001 as int)
+        destination.get(2, 1) == (0xFF000003 as int)
+        destination.get(1, 1) == 0
+    }
+}
@@ -0,0 +1,93 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.client.exceptions.InvalidRleEncodingException
+import com.shinyhut.vernacular.client.exceptions.UnexpectedVncException
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.Specification
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.TRLE
+
+class TRLERendererTest extends Specification {
+
+    def pixelFormat = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+    def renderer = new TRLERenderer(new PixelDecoder([:]), pixelFormat)
+
+    def "should read exactly the tile data for the rectangle from the stream"() {
+        given:
+        def destination = new ImageBuffer(3, 2, false)
+        def input = stream([128, 0, 0, 1, 3, 0, 0, 2, 1, 0x7F])
+
+        when:
+        renderer.render(input, destination, new Rectangle(0, 0, 3, 2, TRLE))
+
+        then:
+        destination.buffer == [
+                0xFF000001, 0xFF000001, 0xFF000001,
+                0xFF000001, 0xFF000002, 0xFF000002
+        ] as int[]
+        input.read() == 0x7F
+    }
+
+    def "should split a rectangle into 16 pixel tiles"() {
+        given:
+        def destination = new ImageBuffer(17, 1, false)
+
+        when:
+        renderer.render(stream([1, 0, 0, 1, 1, 0, 0, 2]), destination, new Rectangle(0, 0, 17, 1, TRLE))
+
+        then:
+        destination.buffer[0..15].every { it == (0xFF000001 as int) }
+        destination.buffer[16] == (0xFF000002 as int)
+    }
+
+    def "should reuse the palette of the previous tile"() {
+        given:
+        def destination = new ImageBuffer(32, 1, false)
+        def firstTile = [2, 0, 0, 0xAA, 0, 0, 0xBB, 0xFF, 0xFF]
+        def secondTile = [129, 0x80, 7, 0x81, 7]
+
+        when:
+        renderer.render(stream(firstTile + secondTile), destination, new Rectangle(0, 0, 32, 1, TRLE))
+
+        then:
+        destination.buffer[0..15].every { it == (0xFF0000BB as int) }
+        destination.buffer[16..23].every { it == (0xFF0000AA as int) }
+        destination.buffer[24..31].every { it == (0xFF0000BB as int) }
+    }
+
+    def "should decode a packed palette tile reusing the previous palette"() {
+        given:
+        def destination = new ImageBuffer(17, 1, false)
+
+        when:
+        renderer.render(stream([2, 0, 0, 0xAA, 0, 0, 0xBB, 0xFF, 0xFF, 127, 0b00000000]), destination,
+                new Rectangle(0, 0, 17, 1, TRLE))
+
+        then:
+        destination.buffer[0..15].every { it == (0xFF0000BB as int) }
+        destination.buffer[16] == (0xFF0000AA as int)
+    }
+
+    def "should reject palette reuse before any palette has been sent"() {
+        when:
+        new TRLERenderer(new PixelDecoder([:]), pixelFormat)
+                .render(stream([127, 0]), new ImageBuffer(1, 1, false), new Rectangle(0, 0, 1, 1, TRLE))
+
+        then:
+        thrown(InvalidRleEncodingException)
+    }
+
+    def "should fail if the stream ends in the middle of a tile"() {
+        when:
+        renderer.render(stream([1, 0]), new ImageBuffer(1, 1, false), new Rectangle(0, 0, 1, 1, TRLE))
+
+        then:
+        thrown(UnexpectedVncException)
+    }
+
+    private static InputStream stream(List<Integer> data) {
+        new ByteArrayInputStream(data as byte[])
+    }
+}
@@ -0,0 +1,138 @@
+package com.shinyhut.vernacular.client.rendering.renderers
+
+import com.shinyhut.vernacular.client.exceptions.InvalidRleEncodingException
+import com.shinyhut.vernacular.client.rendering.ImageBuffer
+import com.shinyhut.vernacular.protocol.messages.PixelFormat
+import com.shinyhut.vernacular.protocol.messages.Rectangle
+import spock.lang.Specification
+
+import java.util.zip.Deflater
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.ZRLE
+import static java.util.zip.Deflater.SYNC_FLUSH
+
+class ZRLERendererTest extends Specification {
+
+    def pixelFormat = new PixelFormat(32, 24, true, true, 255, 255, 255, 16, 8, 0)
+    def renderer = new ZRLERenderer(new PixelDecoder([:]), pixelFormat)
+    def deflater = new Deflater()
+
+    def "should render a solid tile using three byte compressed pixels"() {
+        given:
+        def destination = new ImageBuffer(3, 2, false)
+
+        when:
+        renderer.render(zlib([1, 0x11, 0x22, 0x33]), destination, new Rectangle(0, 0, 3, 2, ZRLE))
+
+        then:
+        destination.buffer.every { it == (0xFF112233 as int) }
+    }
+
+    def "should render a raw tile"() {
+        given:
+        def destination = new ImageBuffer(3, 2, false)
+
+        when:
+        renderer.render(zlib([0, 0, 0, 1, 0, 0, 2, 0, 0, 3, 0, 0, 4]), destination, new Rectangle(1, 0, 2, 2, ZRLE))
+
+        then:
+        destination.buffer == [0, 0xFF000001, 0xFF000002, 0, 0xFF000003, 0xFF000004] as int[]
+    }
+
+    def "should render a packed palette tile with padded rows"() {
+        given:
+        def destination = new ImageBuffer(3, 2, false)
+
+        when:
+        renderer.render(zlib([2, 0, 0, 0xAA, 0, 0, 0xBB, 0b10100000, 0b01000000]), destination,
+                new Rectangle(0, 0, 3, 2, ZRLE))
+
+        then:
+        destination.buffer == [
+                0xFF0000BB, 0xFF0000AA, 0xFF0000BB,
+                0xFF0000AA, 0xFF0000BB, 0xFF0000AA
+        ] as int[]
+    }
+
+    def "should render a plain RLE tile with runs spanning rows"() {
+        given:
+        def destination = new ImageBuffer(3, 2, false)
+
+        when:
+        renderer.render(zlib([128, 0, 0, 1, 3, 0, 0, 2, 1]), destination, new Rectangle(0, 0, 3, 2, ZRLE))
+
+        then:
+        destination.buffer == [
+                0xFF000001, 0xFF000001, 0xFF000001,
+                0xFF000001, 0xFF000002, 0xFF000002
+        ] as int[]
+    }
+
+    def "should render a palette RLE tile"() {
+        given:
+        def destination = new ImageBuffer(3, 2, false)
+
+        when:
+        renderer.render(zlib([130, 0, 0, 1, 0, 0, 2, 0x81, 2, 0x80, 2]), destination,
+                new Rectangle(0, 0, 3, 2, ZRLE))
+
+        then:
+        destination.buffer == [
+                0xFF000002, 0xFF000002, 0xFF000002,
+                0xFF000001, 0xFF000001, 0xFF000001
+        ] as int[]
+    }
+
+    def "should split a rectangle into 64 pixel tiles"() {
+        given:
+        def destination = new ImageBuffer(65, 1, false)
+
+        when:
+        renderer.render(zlib([1, 0, 0, 1, 1, 0, 0, 2]), destination, new Rectangle(0, 0, 65, 1, ZRLE))
+
+        then:
+        destination.buffer[0..63].every { it == (0xFF000001 as int) }
+        destination.buffer[64] == (0xFF000002 as int)
+    }
+
+    def "should keep the zlib stream between rectangles"() {
+        given:
+        def destination = new ImageBuffer(2, 1, false)
+        def first = zlib([1, 0, 0, 1])
+        def second = zlib([1, 0, 0, 2])
+
+        when:
+        renderer.render(first, destination, new Rectangle(0, 0, 1, 1, ZRLE))
+        renderer.render(second, destination, new Rectangle(1, 0, 1, 1, ZRLE))
+
+        then:
+        destination.buffer == [0xFF000001, 0xFF000002] as int[]
+    }
+
+    def "should reject a run extending beyond the end of the tile"() {
+        when:
+        renderer.render(zlib([128, 0, 0, 1, 4]), new ImageBuffer(2, 2, false), new Rectangle(0, 0, 2, 2, ZRLE))
+
+        then:
+        thrown(InvalidRleEncodingException)
+    }
+
+    def "should use full size pixels when the color channels do not fit in three bytes"() {
+        given:
+        def format = new PixelFormat(32, 24, true, true, 255, 255, 255, 24, 16, 0)
+
+        expect:
+        RLETileDecoder.compactPixelFormat(format).is(format)
+        RLETileDecoder.compactPixelFormat(pixelFormat).bitsPerPixel == 24
+    }
+
+    private InputStream zlib(List<Integer> data) {
+        deflater.setInput(data as byte[])
+        def buffer = new byte[1024]
+        def length = deflater.deflate(buffer, 0, buffer.length, SYNC_FLUSH)
+        def out = new ByteArrayOutputStream()
+        new DataOutputStream(out).writeInt(length)
+        out.write(buffer, 0, length)
+        new ByteArrayInputStream(out.toByteArray())
+    }
+}
@@ -0,0 +1,53 @@
+package com.shinyhut.vernacular.protocol.initialization
+
+import com.shinyhut.vernacular.client.VernacularConfig
+import spock.lang.Specification
+
+import static com.shinyhut.vernacular.protocol.messages.Encoding.*
+
+class InitializerTest extends Specification {
+
+    def initializer = new Initializer()
+    def config = new VernacularConfig()
+
+    def "should not send compression or quality levels by default"() {
+        when:
+        def encodings = initializer.encodings(config)
+
+        then:
+        !encodings.any { it.name().startsWith('COMPRESS_LEVEL') || it.name().startsWith('QUALITY_LEVEL') }
+    }
+
+    def "should send the fence and continuous updates pseudo-encodings only if enabled"() {
+        expect:
+        initializer.encodings(config).containsAll([FENCE, CONTINUOUS_UPDATES])
+
+        when:
+        config.enableContinuousUpdates = false
+
+        then:
+        !initializer.encodings(config).any { it in [FENCE, CONTINUOUS_UPDATES] }
+    }
+
+    def "should send the configured compression and quality levels"() {
+        given:
+        config.compressionLevel = 1
+        config.jpegQuality = 9
+
+        when:
+        def encodings = initializer.encodings(config)
+
+        then:
+        encodings.takeRight(2) == [COMPRESS_LEVEL_1, QUALITY_LEVEL_9]
+        COMPRESS_LEVEL_1.code == -255
+        QUALITY_LEVEL_9.code == -23
+    }
+
+    def "should reject levels which are out of range"() {
+        when:
+        config.jpegQuality = 10
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,31 @@
+package com.shinyhut.vernacular.protocol.messages
+
+import spock.lang.Specification
+
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.HTML
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.TEXT
+
+class ClientCutTextCapsTest extends Specification {
+
+    def "should encode a valid ClientCutTextCaps message, with a size for each format in flag order"() {
+        given:
+        def sizes = new EnumMap(MessageHeaderFlags)
+        sizes[HTML] = 0x200
+        sizes[TEXT] = 0x100
+        def message = new ClientCutTextCaps(sizes)
+        def output = new ByteArrayOutputStream()
+
+        when:
+        message.encode(output)
+
+        then:
+        output.toByteArray() == [
+                0x06, // message type
+                0x00, 0x00, 0x00, // padding
+                -0x01, -0x01, -0x01, -0x0C, // -1 * (sizes length + U32 flags)
+                0x1F, 0x00, 0x00, 0x05, // flags: caps, request, peek, notify, provide, text and html
+                0x00, 0x00, 0x01, 0x00, // text size
+                0x00, 0x00, 0x02, 0x00 // html size
+        ] as byte[]
+    }
+}
@@ -0,0 +1,47 @@
+package com.shinyhut.vernacular.protocol.messages
+
+import com.shinyhut.vernacular.client.exceptions.InvalidMessageException
+import spock.lang.Specification
+
+class FenceTest extends Specification {
+
+    def "should decode a valid Fence message"() {
+        given:
+        def input = new ByteArrayInputStream([
+                248, 0x00, 0x00, 0x00,
+                0x80, 0x00, 0x00, 0x07,
+                0x02, 0x0A, 0x0B
+        ] as byte[])
+
+        when:
+        def result = Fence.decode(input)
+
+        then:
+        result.request
+        result.flags == (Fence.FLAG_REQUEST | Fence.FLAG_BLOCK_BEFORE | Fence.FLAG_BLOCK_AFTER | Fence.FLAG_SYNC_NEXT)
+        result.payload == [0x0A, 0x0B] as byte[]
+    }
+
+    def "should reject a Fence message with an oversized payload"() {
+        given:
+        def input = new ByteArrayInputStream([248, 0x00, 0x00, 0x00, 0x80, 0x00, 0x00, 0x00, 65] as byte[])
+
+        when:
+        Fence.decode(input)
+
+        then:
+        thrown InvalidMessageException
+    }
+
+    def "should encode a response which echoes the payload and only keeps the supported flags"() {
+        given:
+        def request = new Fence(Fence.FLAG_REQUEST | Fence.FLAG_BLOCK_BEFORE | Fence.FLAG_SYNC_NEXT, [0x0A] as byte[])
+        def output = new ByteArrayOutputStream()
+
+        when:
+        request.response().encode(output)
+
+        then:
+        output.toByteArray() == [248, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x01, 0x0A] as byte[]
+    }
+}
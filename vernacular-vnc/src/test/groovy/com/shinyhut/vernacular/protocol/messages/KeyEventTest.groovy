@@ -15,4 +15,16 @@ class KeyEventTest extends Specification {
         then:
         output.toByteArray() == [0x04, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x7B] as byte[]
     }
+
+    def "should encode a KeyEvent into an array at an offset"() {
+        given:
+        def message = new KeyEvent(0x01000416, false)
+        def buffer = new byte[10]
+
+        when:
+        message.encode(buffer, 2)
+
+        then:
+        buffer == [0x00, 0x00, 0x04, 0x00, 0x00, 0x00, 0x01, 0x00, 0x04, 0x16] as byte[]
+    }
 }
@@ -0,0 +1,18 @@
+package com.shinyhut.vernacular.protocol.messages
+
+import spock.lang.Specification
+
+class QemuExtendedKeyEventTest extends Specification {
+
+    def "should encode a valid QEMU extended key event message"() {
+        given:
+        def message = new QemuExtendedKeyEvent(0xff51, 0xcb, true)
+        def output = new ByteArrayOutputStream()
+
+        when:
+        message.encode(output)
+
+        then:
+        output.toByteArray() == [0xFF, 0x00, 0x00, 0x01, 0x00, 0x00, 0xFF, 0x51, 0x00, 0x00, 0x00, 0xCB] as byte[]
+    }
+}
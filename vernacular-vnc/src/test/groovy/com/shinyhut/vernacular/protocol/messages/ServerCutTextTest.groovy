@@ -2,6 +2,13 @@ package com.shinyhut.vernacular.protocol.messages
 
 import spock.lang.Specification
 
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.HTML
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.RTF
+import static com.shinyhut.vernacular.protocol.messages.MessageHeaderFlags.TEXT
+
 class ServerCutTextTest extends Specification {
 
     def "should decode a valid ServerCutText message"() {
@@ -38,4 +45,42 @@ class ServerCutTextTest extends Specification {
         then:
         result.text == 'test'
     }
+
+    def "should decode every text format, reusing the inflater for each message"() {
+        given:
+        def deflater = new Deflater()
+        def inflater = new Inflater()
+        def formats = [(TEXT): 'plain \u00e9', (RTF): '{\\rtf1 rich}', (HTML): '<b>bold</b>']
+        def output = new ByteArrayOutputStream()
+        new ClientCutTextExtendedClipboard(formats, deflater).encode(output)
+        new ClientCutTextExtendedClipboard([(TEXT): 'second'], deflater).encode(output)
+        def input = new ByteArrayInputStream(output.toByteArray())
+
+        when:
+        def first = ServerCutText.decode(input, inflater, [:])
+        def second = ServerCutText.decode(input, inflater, [:])
+
+        then:
+        first.formats == formats
+        first.text == 'plain \u00e9'
+        second.formats == [(TEXT): 'second']
+        input.available() == 0
+    }
+
+    def "should discard content larger than the maximum size and carry on with the next message"() {
+        given:
+        def output = new ByteArrayOutputStream()
+        new ClientCutTextExtendedClipboard([(TEXT): 'x' * 100, (HTML): '<p/>'], null).encode(output)
+        new ClientCutTextExtendedClipboard('next').encode(output)
+        def input = new ByteArrayInputStream(output.toByteArray())
+
+        when:
+        def oversized = ServerCutText.decode(input, new Inflater(), [(TEXT): 50])
+        def next = ServerCutText.decode(input, new Inflater(), [(TEXT): 50])
+
+        then:
+        oversized.text == ''
+        oversized.formats.isEmpty()
+        next.text == 'next'
+    }
 }
@@ -0,0 +1,113 @@
+package com.shinyhut.vernacular.utils
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+
+class ChannelInputStreamTest extends Specification {
+
+    @Unroll
+    def "should read unsigned and signed values across buffer refills (direct = #direct)"() {
+        given:
+        def input = stream([0xFF, 0xAB, 0xCD, 0xFF, 0xFF, 0xFF, 0xFE, 0x01], 1024, direct)
+
+        expect:
+        input.readU8() == 0xFF
+        input.readU16() == 0xABCD
+        input.readS32() == -2
+        input.read() == 0x01
+        input.read() == -1
+        input.bytesRead == 8
+
+        where:
+        direct << [false, true]
+    }
+
+    def "should read more data than fits in the buffer"() {
+        given:
+        def data = (0..<5000).collect { it & 0xFF }
+        def input = stream(data, 1024, false)
+        def bytes = new byte[3000]
+        def buffer = ByteBuffer.allocate(2000)
+
+        when:
+        input.readFully(bytes)
+        input.readFully(buffer)
+
+        then:
+        bytes == data[0..<3000] as byte[]
+        buffer.array() == data[3000..<5000] as byte[]
+    }
+
+    def "should read lines ending with any line terminator, across buffer refills"() {
+        given:
+        def input = stream('one\r\ntwo\nthree\rfour\r'.bytes as List, 4, false)
+
+        expect:
+        input.readLine() == 'one'
+        input.readLine() == 'two'
+        input.readLine() == 'three'
+        input.readLine() == 'four'
+        input.readLine() == null
+    }
+
+    def "should return to a marked position after refilling the buffer"() {
+        given:
+        def data = (0..<2000).collect { it & 0xFF }
+        def input = stream(data, 1024, false)
+        input.skipBytes(1000)
+
+        when:
+        input.mark(100)
+        def first = input.readS32()
+        input.skipBytes(50)
+        input.reset()
+
+        then:
+        input.readS32() == first
+        input.readU8() == (1004 & 0xFF)
+    }
+
+    def "should fail when the stream ends in the middle of a value"() {
+        when:
+        stream([0x01], 1024, false).readU16()
+
+        then:
+        thrown EOFException
+    }
+
+    def "should not wrap streams which already implement DataInput"() {
+        given:
+        def input = stream([], 1024, false)
+
+        expect:
+        ChannelInputStream.dataInput(input).is(input)
+        ChannelInputStream.dataInput(new ByteArrayInputStream()) instanceof DataInputStream
+    }
+
+    def "should stop reading from a stream channel once it is closed"() {
+        given:
+        def channel = ChannelInputStream.channel(new ByteArrayInputStream([1, 2] as byte[]))
+
+        when:
+        channel.close()
+        channel.read(ByteBuffer.allocate(2))
+
+        then:
+        !channel.open
+        thrown(ClosedChannelException)
+    }
+
+    private static ChannelInputStream stream(List<Integer> data, int bufferSize, boolean direct) {
+        // A channel which returns at most 100 bytes per read, like a socket
+        def source = new ByteArrayInputStream(data as byte[]) {
+            @Override
+            synchronized int read(byte[] b, int off, int len) {
+                super.read(b, off, Math.min(len, 100))
+            }
+        }
+        new ChannelInputStream(ChannelInputStream.channel(source), bufferSize, direct)
+    }
+}
@@ -0,0 +1,32 @@
+package com.shinyhut.vernacular.utils
+
+import spock.lang.Specification
+
+class ThreadFactoriesTest extends Specification {
+
+    def "should create non-daemon platform threads"() {
+        when:
+        def thread = ThreadFactories.platformThreadFactory().newThread({})
+
+        then:
+        !thread.daemon
+    }
+
+    def "should only offer virtual threads on Java 21 or later"() {
+        expect:
+        ThreadFactories.virtualThreadFactory().present == (Runtime.version().feature() >= 21)
+    }
+
+    def "should create threads which run the task"() {
+        given:
+        def ran = false
+        def thread = ThreadFactories.defaultThreadFactory().newThread({ ran = true })
+
+        when:
+        thread.start()
+        thread.join()
+
+        then:
+        ran
+    }
+}
@@ -0,0 +1,35 @@
+package com.shinyhut.vernacular.utils
+
+import spock.lang.Specification
+
+import static java.awt.event.KeyEvent.*
+
+class XtScancodesTest extends Specification {
+
+    def "should map key codes to scancodes, taking the location of the key into account"() {
+        expect:
+        XtScancodes.forKeyCode(keyCode, location) == scancode
+
+        where:
+        keyCode        | location              | scancode
+        VK_A           | KEY_LOCATION_STANDARD | 0x1e
+        VK_Q           | KEY_LOCATION_STANDARD | 0x10
+        VK_M           | KEY_LOCATION_STANDARD | 0x32
+        VK_1           | KEY_LOCATION_STANDARD | 0x02
+        VK_0           | KEY_LOCATION_STANDARD | 0x0b
+        VK_F10         | KEY_LOCATION_STANDARD | 0x44
+        VK_F12         | KEY_LOCATION_STANDARD | 0x58
+        VK_SHIFT       | KEY_LOCATION_LEFT     | 0x2a
+        VK_SHIFT       | KEY_LOCATION_RIGHT    | 0x36
+        VK_CONTROL     | KEY_LOCATION_RIGHT    | 0x9d
+        VK_ALT_GRAPH   | KEY_LOCATION_STANDARD | 0xb8
+        VK_WINDOWS     | KEY_LOCATION_LEFT     | 0xdb
+        VK_ENTER       | KEY_LOCATION_STANDARD | 0x1c
+        VK_ENTER       | KEY_LOCATION_NUMPAD   | 0x9c
+        VK_UP          | KEY_LOCATION_STANDARD | 0xc8
+        VK_UP          | KEY_LOCATION_NUMPAD   | 0x48
+        VK_DIVIDE      | KEY_LOCATION_NUMPAD   | 0xb5
+        VK_UNDEFINED   | KEY_LOCATION_UNKNOWN  | XtScancodes.NONE
+        VK_BEGIN       | KEY_LOCATION_STANDARD | XtScancodes.NONE
+    }
+}
@@ -0,0 +1,102 @@
+package com.shinyhut.vernacular.client.rendering.renderers;
+
+import com.shinyhut.vernacular.protocol.messages.PixelFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-pixel {@link PixelDecoder#decode} path with the format-specialised {@link PixelConverter}, for a
+ * single 1920 pixel scanline in each of the supported color depths.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.shinyhut.vernacular.client.rendering.renderers.PixelDecoderBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelDecoderBenchmark {
+
+    private static final int WIDTH = 1920;
+
+    @Param({"BGR233", "RGB565", "BGR888"})
+    public String format;
+
+    private PixelFormat pixelFormat;
+    private PixelDecoder decoder;
+    private PixelConverter converter;
+    private byte[] scanline;
+    private int[] row;
+
+    @Setup
+    public void setup() {
+        switch (format) {
+            case "BGR233":
+                pixelFormat = new PixelFormat(8, 8, true, true, 7, 7, 3, 0, 3, 6);
+                break;
+            case "RGB565":
+                pixelFormat = new PixelFormat(16, 16, true, true, 31, 63, 31, 11, 5, 0);
+                break;
+            default:
+                pixelFormat = new PixelFormat(32, 24, true, true, 255, 255, 255, 8, 16, 24);
+                break;
+        }
+        decoder = new PixelDecoder(new HashMap<>());
+        converter = decoder.converterFor(pixelFormat);
+        scanline = new byte[WIDTH * pixelFormat.getBytesPerPixel()];
+        new Random(42).nextBytes(scanline);
+        row = new int[WIDTH];
+    }
+
+    @Benchmark
+    public int[] pixelDecoder() throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(scanline);
+        for (int x = 0; x < WIDTH; x++) {
+            row[x] = decoder.decode(in, pixelFormat).toInt();
+        }
+        return row;
+    }
+
+    @Benchmark
+    public int[] converterRead() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(scanline));
+        for (int x = 0; x < WIDTH; x++) {
+            row[x] = converter.read(in);
+        }
+        return row;
+    }
+
+    @Benchmark
+    public int[] converterSpan() {
+        converter.convert(scanline, 0, row, 0, WIDTH);
+        return row;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PixelDecoderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
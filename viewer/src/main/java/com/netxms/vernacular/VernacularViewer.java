@@ -12,6 +12,8 @@ import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.List;
 
 import static com.shinyhut.vernacular.client.rendering.ColorDepth.*;
 import static java.awt.BorderLayout.CENTER;
@@ -25,6 +27,8 @@ import static java.awt.Toolkit.getDefaultToolkit;
 import static java.awt.datatransfer.DataFlavor.stringFlavor;
 import static java.awt.event.KeyEvent.*;
 import static java.lang.Integer.parseInt;
+import static java.lang.Math.ceil;
+import static java.lang.Math.floor;
 import static java.lang.Math.min;
 import static java.lang.System.exit;
 import static java.lang.Thread.sleep;
@@ -49,8 +53,14 @@ public class VernacularViewer extends JFrame {
     private JMenuItem rreMenuItem;
     private JMenuItem hextileMenuItem;
     private JMenuItem zlibMenuItem;
+    private JMenuItem zrleMenuItem;
+    private JMenuItem trleMenuItem;
+    private JMenuItem adaptiveMenuItem;
 
-    private Image lastFrame;
+    private JPanel drawingSurface;
+
+    private BufferedImage lastFrame;
+    private int[] lastFramePixels;
 
     private AncestorListener focusRequester = new AncestorListener() {
         @Override
@@ -72,14 +82,13 @@ public class VernacularViewer extends JFrame {
     private Thread clipboardMonitor = new Thread(() -> {
         Clipboard clipboard = getDefaultToolkit().getSystemClipboard();
 
-        String lastText = null;
         while (!shutdown) {
             try {
                 if (connected()) {
+                    // The client only sends the text if it has changed since it was last copied or received
                     String text = (String) clipboard.getData(stringFlavor);
-                    if (text != null && !text.equals(lastText)) {
+                    if (text != null) {
                         client.copyText(text);
-                        lastText = text;
                     }
                 }
                 sleep(100L);
@@ -124,6 +133,7 @@ public class VernacularViewer extends JFrame {
         setSize(800, 600);
         setLocationRelativeTo(null);
         lastFrame = null;
+        lastFramePixels = null;
         repaint();
     }
 
@@ -188,7 +198,7 @@ public class VernacularViewer extends JFrame {
     }
 
     private void addDrawingSurface() {
-        add(new JPanel() {
+        drawingSurface = new JPanel() {
             @Override
             public void paintComponent(Graphics g) {
                 super.paintComponent(g);
@@ -208,7 +218,8 @@ public class VernacularViewer extends JFrame {
                     g2.drawString(message, width / 2 - messageWidth / 2, height / 2);
                 }
             }
-        }, CENTER);
+        };
+        add(drawingSurface, CENTER);
     }
 
     private void initialiseVernacularClient() {
@@ -221,9 +232,7 @@ public class VernacularViewer extends JFrame {
         });
         config.setUsernameSupplier(this::showUsernameDialog);
         config.setPasswordSupplier(this::showPasswordDialog);
-        config.setScreenUpdateListener(imageBuffer -> {
-            renderFrame(bufferToImage(imageBuffer));
-        });
+        config.setScreenDamageListener(this::renderFrame);
         config.setMousePointerUpdateListener((x, y, imageBuffer) -> {
             this.setCursor(getDefaultToolkit().createCustomCursor(bufferToImage(imageBuffer), new Point(x, y), "vnc"));
         });
@@ -236,11 +245,7 @@ public class VernacularViewer extends JFrame {
     private BufferedImage bufferToImage(ImageBuffer buffer) {
         var img = new BufferedImage(buffer.getWidth(), buffer.getHeight(),buffer.isAlpha() ?
                 BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
-        for (int x = 0; x < buffer.getWidth(); x++) {
-            for (int y = 0; y < buffer.getHeight(); y++) {
-                img.setRGB(x,y, buffer.get(x, y));
-            }
-        }
+        img.setRGB(0, 0, buffer.getWidth(), buffer.getHeight(), buffer.getBuffer(), 0, buffer.getWidth());
         return img;
     }
 
@@ -290,11 +295,24 @@ public class VernacularViewer extends JFrame {
         zlibMenuItem = new JCheckBoxMenuItem("ZLIB", false);
         zlibMenuItem.addActionListener(event -> config.setEnableZLibEncoding(zlibMenuItem.isSelected()));
 
+        zrleMenuItem = new JCheckBoxMenuItem("ZRLE", true);
+        zrleMenuItem.addActionListener(event -> config.setEnableZrleEncoding(zrleMenuItem.isSelected()));
+
+        trleMenuItem = new JCheckBoxMenuItem("TRLE", true);
+        trleMenuItem.addActionListener(event -> config.setEnableTrleEncoding(trleMenuItem.isSelected()));
+
+        adaptiveMenuItem = new JCheckBoxMenuItem("Adaptive", false);
+        adaptiveMenuItem.addActionListener(event -> config.setAdaptiveEncoding(adaptiveMenuItem.isSelected()));
+
         encodingsMenu = new JMenu("Enabled Encodings");
         encodingsMenu.add(copyrectMenuItem);
         encodingsMenu.add(rreMenuItem);
         encodingsMenu.add(hextileMenuItem);
         encodingsMenu.add(zlibMenuItem);
+        encodingsMenu.add(zrleMenuItem);
+        encodingsMenu.add(trleMenuItem);
+        encodingsMenu.addSeparator();
+        encodingsMenu.add(adaptiveMenuItem);
 
         JMenuItem exit = new JMenuItem("Exit");
         exit.setMnemonic(VK_X);
@@ -376,6 +394,7 @@ public class VernacularViewer extends JFrame {
     private void connect(String host, int port) {
         setMenuState(true);
         lastFrame = null;
+        lastFramePixels = null;
         client.start(host, port);
     }
 
@@ -410,16 +429,43 @@ public class VernacularViewer extends JFrame {
         return client != null && client.isRunning();
     }
 
-    private void renderFrame(Image frame) {
-        if (resizeRequired(frame)) {
+    /**
+     * Copies the damaged areas of the remote framebuffer into our long-lived frame image and repaints only the
+     * corresponding areas of the screen. The whole frame is copied when the remote desktop size changes.
+     */
+    private void renderFrame(ImageBuffer buffer, List<Rectangle> damage) {
+        if (resizeRequired(buffer)) {
+            BufferedImage frame = new BufferedImage(buffer.getWidth(), buffer.getHeight(), BufferedImage.TYPE_INT_RGB);
+            int[] pixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+            buffer.getRow(0, 0, pixels, 0, pixels.length);
             resizeWindow(frame);
+            lastFramePixels = pixels;
+            lastFrame = frame;
+            repaint();
+            return;
         }
-        lastFrame = frame;
-        repaint();
+        int stride = buffer.getWidth();
+        for (Rectangle area : damage) {
+            for (int y = area.y; y < area.y + area.height; y++) {
+                buffer.getRow(area.x, y, lastFramePixels, y * stride + area.x, area.width);
+            }
+            repaintScaled(area);
+        }
+    }
+
+    private void repaintScaled(Rectangle area) {
+        double scaleX = (double) drawingSurface.getWidth() / lastFrame.getWidth();
+        double scaleY = (double) drawingSurface.getHeight() / lastFrame.getHeight();
+        // Widen the repainted area by a pixel on each side to cover bilinear interpolation at the edges
+        int x = (int) floor(area.x * scaleX) - 1;
+        int y = (int) floor(area.y * scaleY) - 1;
+        int width = (int) ceil(area.width * scaleX) + 2;
+        int height = (int) ceil(area.height * scaleY) + 2;
+        drawingSurface.repaint(x, y, width, height);
     }
 
-    private boolean resizeRequired(Image frame) {
-        return lastFrame == null || lastFrame.getWidth(null) != frame.getWidth(null) || lastFrame.getHeight(null) != frame.getHeight(null);
+    private boolean resizeRequired(ImageBuffer buffer) {
+        return lastFrame == null || lastFrame.getWidth() != buffer.getWidth() || lastFrame.getHeight() != buffer.getHeight();
     }
 
     private void resizeWindow(Image frame) {